@@ -0,0 +1,44 @@
+package wordle.bench;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/*
+ *   login e register su una mappa di 100k utenti; la persistenza è in modalità snapshot con intervallo
+ *   di un giorno, quindi viene misurato il lavoro del thread della richiesta e non l'I/O su disco
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class AccountBenchmark {
+    private static final int USERS = 100_000;
+    private int next;
+    private long registered;
+
+    @Setup(Level.Iteration)
+    public void setup() throws Throwable {
+        Server.SET_USERS.invokeExact(Server.syntheticUsers(USERS));
+        Server.useDeferredPersistence();
+    }
+
+    @Benchmark
+    public int login() throws Throwable {
+        next = (next + 1) % USERS;
+        return (int) Server.LOGIN.invokeExact("user" + next, "password");
+    }
+
+    @Benchmark
+    public int loginWrongPassword() throws Throwable {
+        next = (next + 1) % USERS;
+        return (int) Server.LOGIN.invokeExact("user" + next, "wrong");
+    }
+
+    @Benchmark
+    public int register() throws Throwable {
+        return (int) Server.REGISTER.invokeExact("new" + registered++, "password");
+    }
+}
@@ -0,0 +1,62 @@
+package wordle.bench;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/*
+ *   costruzione del suggerimento di SENDWORD: SecretWord.hint con i buffer riutilizzati della sessione,
+ *   confrontata con il ciclo originale basato su split("") e contains()
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class HintBenchmark {
+    private Object secret;
+    private String secretWord;
+    private String[] guesses;
+    private final char[] hint = new char[10];
+    private final int[] counts = new int[26];
+    private int next;
+
+    @Setup
+    public void setup() throws Throwable {
+        List<String> words = Files.readAllLines(Path.of(Server.WORDS_FILE));
+        secretWord = words.get(words.size() / 2);
+        secret = (Object) Server.NEW_SECRET_WORD.invokeExact(secretWord, 1L);
+        guesses = new String[1024];
+        for (int i = 0; i < guesses.length; i++)
+            guesses[i] = words.get((int) ((long) i * 7919 % words.size()));
+    }
+
+    @Benchmark
+    public char[] secretWordHint() throws Throwable {
+        next = (next + 1) & 1023;
+        Server.HINT.invokeExact(secret, (CharSequence) guesses[next], hint, counts);
+        return hint;
+    }
+
+    @Benchmark
+    public String legacySplit() {
+        next = (next + 1) & 1023;
+        String guessedWord = guesses[next];
+        StringBuilder stringCompared = new StringBuilder();
+        String[] guessedSplit = guessedWord.split("");
+        String[] secretWordSplit = secretWord.split("");
+        for (int i = 0; i < 10; i++) {
+            if (secretWordSplit[i].equals(guessedSplit[i]))
+                stringCompared.append("+");
+            else if (secretWord.contains(guessedSplit[i]))
+                stringCompared.append("?");
+            else
+                stringCompared.append("x");
+        }
+        return stringCompared.toString();
+    }
+}
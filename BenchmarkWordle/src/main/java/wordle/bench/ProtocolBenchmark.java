@@ -0,0 +1,109 @@
+package wordle.bench;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.*;
+import java.nio.charset.Charset;
+import java.util.concurrent.TimeUnit;
+
+/*
+ *   ciclo completo di un comando lato server (riga ricevuta -> risposta pronta per il socket) con la codifica
+ *   di Protocol e ResponseBuffer, confrontato con il percorso originale: String per ogni riga, split(" "),
+ *   valueOf() del comando, risposta concatenata e scritta da PrintWriter su OutputStreamWriter.
+ *   La misura interessante è l'allocazione per richiesta:
+ *       java -jar target/benchmarks.jar Protocol -prof gc      (gc.alloc.rate.norm, byte per operazione)
+ *   La sessione ha già eseguito LOGIN e PLAYWORDLE; la guessed word di SENDWORD non è nel vocabolario, così il
+ *   comando può essere ripetuto senza consumare i tentativi. I comandi misurati non scrivono sul log del server.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ProtocolBenchmark {
+    private static final Charset CHARSET = Charset.defaultCharset();
+    private static final byte[] PLAYWORDLE = "PLAYWORDLE".getBytes(CHARSET);
+    private static final byte[] SENDSTATS = "SENDSTATS".getBytes(CHARSET);
+    private static final byte[] SENDWORD = "SENDWORD zzzzzzzzzz".getBytes(CHARSET);
+
+    /*  comandi del percorso originale, equivalente a msgType.valueOf()  */
+    private enum Command {SENDWORD, SENDSTATS, OK, NOTOK}
+
+    private final OutputStream socket = OutputStream.nullOutputStream();
+    private Object session;
+    private Object replies;
+    private PrintWriter legacyOut;
+    /*  stato dell'utente usato dalle risposte del percorso originale   */
+    private int remainingTrials = 12;
+    private final int[] guessDistribution = new int[12];
+
+    @Setup
+    public void setup() throws Throwable {
+        Server.SET_USERS.invokeExact(Server.syntheticUsers(1_000));
+        Server.useDeferredPersistence();
+        Server.SET_VOCABULARY.invokeExact((Object) Server.LOAD_VOCABULARY.invokeExact(Server.WORDS_FILE, "packed"));
+        Server.SET_SECRET_WORD.invokeExact((Object) Server.NEW_SECRET_WORD.invokeExact("abbreviate", 1L));
+        replies = (Object) Server.NEW_RESPONSE_BUFFER.invokeExact();
+        session = (Object) Server.NEW_CLIENT_SESSION.invokeExact(replies);
+        codec("LOGIN user1 password".getBytes(CHARSET));
+        codec(PLAYWORDLE);
+        legacyOut = new PrintWriter(new BufferedWriter(new OutputStreamWriter(socket)), false);
+    }
+
+    private void codec(byte[] line) throws Throwable {
+        Server.HANDLE_MESSAGE.invokeExact(session, line, 0, line.length);
+        Server.WRITE_RESPONSE.invokeExact(replies, socket);
+        Server.CLEAR_RESPONSE.invokeExact(replies);
+    }
+
+    /*
+     *   percorso originale: la riga decodificata in String (come readLine()), split(" ") e valueOf() del comando
+     */
+    private void legacy(byte[] bytes) throws Throwable {
+        String line = new String(bytes, CHARSET);
+        String[] msgToken = line.split(" ");
+        switch (Command.valueOf(msgToken[0])) {
+            case SENDWORD:
+                if ((boolean) Server.CHECK_VOCABULARY.invokeExact(msgToken[1]))
+                    legacyOut.println(Command.OK + " " + msgToken[1] + ": hai a disposizione " + remainingTrials + " tentativi.");
+                else
+                    legacyOut.println(Command.NOTOK + " la tua guessed word non è nel vocabolario");
+                break;
+            case SENDSTATS:
+                StringBuilder playerStats = new StringBuilder();
+                float winRate = 0;
+                playerStats.append(0);
+                playerStats.append(" ").append(winRate);
+                playerStats.append(" ").append(0);
+                playerStats.append(" ").append(0);
+                for (int i = 1; i < 13; i++)
+                    playerStats.append(" ").append(guessDistribution[i - 1]);
+                legacyOut.println(Command.OK + " " + playerStats);
+                break;
+            default:
+                break;
+        }
+        legacyOut.flush();
+    }
+
+    @Benchmark
+    public void codecSendStats() throws Throwable {
+        codec(SENDSTATS);
+    }
+
+    @Benchmark
+    public void codecSendWord() throws Throwable {
+        codec(SENDWORD);
+    }
+
+    @Benchmark
+    public void legacySendStats() throws Throwable {
+        legacy(SENDSTATS);
+    }
+
+    @Benchmark
+    public void legacySendWord() throws Throwable {
+        legacy(SENDWORD);
+    }
+}
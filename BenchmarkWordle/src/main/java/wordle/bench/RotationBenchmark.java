@@ -0,0 +1,35 @@
+package wordle.bench;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/*
+ *   WordExtractor.run: estrazione della nuova parola e apertura della nuova epoca di gioco;
+ *   con il reset pigro degli utenti il tempo non deve dipendere dal numero di utenti registrati
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class RotationBenchmark {
+    @Param({"1000", "1000000"})
+    public int users;
+
+    private Runnable extractor;
+
+    @Setup(Level.Trial)
+    public void setup() throws Throwable {
+        Server.SET_USERS.invokeExact(Server.syntheticUsers(users));
+        Server.SET_VOCABULARY.invokeExact((Object) Server.LOAD_VOCABULARY.invokeExact(Server.WORDS_FILE, "packed"));
+        Server.useDeferredPersistence();
+        extractor = (Runnable) Server.NEW_WORD_EXTRACTOR.invokeExact();
+    }
+
+    @Benchmark
+    public void rotate() {
+        extractor.run();
+    }
+}
@@ -0,0 +1,149 @@
+package wordle.bench;
+
+import java.io.OutputStream;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.concurrent.ConcurrentHashMap;
+
+/*
+ *   Accesso ai membri di ServerMain usati dai benchmark.
+ *   ServerMain è nel package di default, che non può essere importato da un package con nome (e JMH richiede
+ *   che i benchmark abbiano un package): i membri vengono quindi risolti una volta sola come MethodHandle
+ *   static final, che la JIT tratta come costanti e inlinea come una chiamata diretta.
+ */
+final class Server {
+    static final String WORDS_FILE = System.getProperty("wordle.words", "../ServerWordle/words.txt");
+
+    static final Class<?> MAIN = load("ServerMain");
+    static final Class<?> USER = load("ServerMain$User");
+    static final Class<?> VOCABULARY = load("ServerMain$Vocabulary");
+    static final Class<?> SECRET_WORD = load("ServerMain$SecretWord");
+    static final Class<?> SNAPSHOT_WRITER = load("ServerMain$SnapshotWriter");
+    static final Class<?> PERSISTENCE = load("ServerMain$UserPersistence");
+    static final Class<?> WORD_EXTRACTOR = load("ServerMain$WordExtractor");
+    static final Class<?> CLIENT_SESSION = load("ServerMain$ClientSession");
+    static final Class<?> RESPONSE_BUFFER = load("ServerMain$ResponseBuffer");
+    static final Class<?> PACKED_VOCABULARY = load("ServerMain$PackedVocabulary");
+    static final Class<?> SOLVER = load("ServerMain$Solver");
+    static final Class<?> SOLUTION = load("ServerMain$Solution");
+
+    /*  metodi statici di ServerMain    */
+    static final MethodHandle CHECK_VOCABULARY = staticMethod(MAIN, "checkVocabulary", MethodType.methodType(boolean.class, String.class));
+    static final MethodHandle LOGIN = staticMethod(MAIN, "login", MethodType.methodType(int.class, String.class, String.class));
+    static final MethodHandle REGISTER = staticMethod(MAIN, "register", MethodType.methodType(int.class, String.class, String.class));
+    static final MethodHandle WRITE_USERS = staticMethod(MAIN, "writeUsers", MethodType.methodType(void.class, OutputStream.class, String.class));
+    static final MethodHandle ENCODE_WORD = staticMethod(PACKED_VOCABULARY, "encode", MethodType.methodType(long.class, CharSequence.class));
+    static final MethodHandle ENCODE_HINT = staticMethod(SOLVER, "hintCode", MethodType.methodType(int.class, CharSequence.class));
+    static final MethodHandle LOAD_VOCABULARY = staticMethod(VOCABULARY, "load", MethodType.methodType(VOCABULARY, String.class, String.class))
+            .asType(MethodType.methodType(Object.class, String.class, String.class));
+
+    /*  campi statici di ServerMain    */
+    static final MethodHandle SET_USERS = staticSetter(MAIN, "users", ConcurrentHashMap.class);
+    static final MethodHandle SET_VOCABULARY = staticSetter(MAIN, "vocabulary", VOCABULARY).asType(MethodType.methodType(void.class, Object.class));
+    static final MethodHandle SET_SECRET_WORD = staticSetter(MAIN, "secretWord", SECRET_WORD).asType(MethodType.methodType(void.class, Object.class));
+    static final MethodHandle SET_PERSISTENCE = staticSetter(MAIN, "persistence", PERSISTENCE).asType(MethodType.methodType(void.class, Object.class));
+
+    /*  costruttori e metodi di istanza */
+    static final MethodHandle NEW_USER = constructor(USER, MethodType.methodType(void.class, String.class, String.class))
+            .asType(MethodType.methodType(Object.class, String.class, String.class));
+    static final MethodHandle NEW_SECRET_WORD = constructor(SECRET_WORD, MethodType.methodType(void.class, String.class, long.class))
+            .asType(MethodType.methodType(Object.class, String.class, long.class));
+    static final MethodHandle NEW_SNAPSHOT_WRITER = constructor(SNAPSHOT_WRITER, MethodType.methodType(void.class, long.class))
+            .asType(MethodType.methodType(Object.class, long.class));
+    static final MethodHandle NEW_WORD_EXTRACTOR = constructor(WORD_EXTRACTOR, MethodType.methodType(void.class))
+            .asType(MethodType.methodType(Runnable.class));
+    static final MethodHandle CONTAINS = virtualMethod(VOCABULARY, "contains", MethodType.methodType(boolean.class, CharSequence.class))
+            .asType(MethodType.methodType(boolean.class, Object.class, CharSequence.class));
+    static final MethodHandle HINT = virtualMethod(SECRET_WORD, "hint", MethodType.methodType(void.class, CharSequence.class, char[].class, int[].class))
+            .asType(MethodType.methodType(void.class, Object.class, CharSequence.class, char[].class, int[].class));
+    static final MethodHandle ADD_HINT = virtualMethod(USER, "addHint", MethodType.methodType(void.class, CharSequence.class))
+            .asType(MethodType.methodType(void.class, Object.class, CharSequence.class));
+    static final MethodHandle NEW_RESPONSE_BUFFER = constructor(RESPONSE_BUFFER, MethodType.methodType(void.class))
+            .asType(MethodType.methodType(Object.class));
+    static final MethodHandle NEW_CLIENT_SESSION = constructor(CLIENT_SESSION, MethodType.methodType(void.class, RESPONSE_BUFFER))
+            .asType(MethodType.methodType(Object.class, Object.class));
+    static final MethodHandle HANDLE_MESSAGE = virtualMethod(CLIENT_SESSION, "handleMessage", MethodType.methodType(void.class, byte[].class, int.class, int.class))
+            .asType(MethodType.methodType(void.class, Object.class, byte[].class, int.class, int.class));
+    static final MethodHandle WRITE_RESPONSE = virtualMethod(RESPONSE_BUFFER, "writeTo", MethodType.methodType(void.class, OutputStream.class))
+            .asType(MethodType.methodType(void.class, Object.class, OutputStream.class));
+    static final MethodHandle NEW_SOLVER = constructor(SOLVER, MethodType.methodType(void.class, VOCABULARY, int.class, int.class))
+            .asType(MethodType.methodType(Object.class, Object.class, int.class, int.class));
+    static final MethodHandle SOLVE = virtualMethod(SOLVER, "solve", MethodType.methodType(SOLUTION, long[].class, int[].class, int.class))
+            .asType(MethodType.methodType(Object.class, Object.class, long[].class, int[].class, int.class));
+    static final MethodHandle CANDIDATES = virtualMethod(SOLVER, "candidates", MethodType.methodType(long[].class, long[].class, int[].class, int.class))
+            .asType(MethodType.methodType(long[].class, Object.class, long[].class, int[].class, int.class));
+    static final MethodHandle ASSIST = virtualMethod(SOLVER, "assist", MethodType.methodType(SOLUTION, long[].class, int[].class, int.class))
+            .asType(MethodType.methodType(Object.class, Object.class, long[].class, int[].class, int.class));
+    static final MethodHandle CLEAR_RESPONSE = virtualMethod(RESPONSE_BUFFER, "clear", MethodType.methodType(void.class))
+            .asType(MethodType.methodType(void.class, Object.class));
+
+    private Server() {
+    }
+
+    /*
+     *   mappa di utenti sintetici user0 ... user(n-1), con password "password" e qualche suggerimento
+     */
+    static ConcurrentHashMap<String, Object> syntheticUsers(int count) throws Throwable {
+        ConcurrentHashMap<String, Object> users = new ConcurrentHashMap<>(count * 4 / 3 + 1);
+        for (int i = 0; i < count; i++) {
+            Object user = (Object) NEW_USER.invokeExact("user" + i, "password");
+            for (int h = 0; h < i % 4; h++)
+                ADD_HINT.invokeExact(user, (CharSequence) "x?x+xx?xxx");
+            users.put("user" + i, user);
+        }
+        return users;
+    }
+
+    /*
+     *   persistenza in modalità snapshot con un intervallo di un giorno: le modifiche segnano solo il flag dirty,
+     *   così login e registrazione vengono misurati senza l'I/O su disco
+     */
+    static void useDeferredPersistence() throws Throwable {
+        SET_PERSISTENCE.invokeExact((Object) NEW_SNAPSHOT_WRITER.invokeExact(86_400_000L));
+    }
+
+    private static Class<?> load(String name) {
+        try {
+            return Class.forName(name);
+        } catch (ClassNotFoundException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    private static MethodHandles.Lookup lookup(Class<?> target) throws IllegalAccessException {
+        return MethodHandles.privateLookupIn(target, MethodHandles.lookup());
+    }
+
+    private static MethodHandle staticMethod(Class<?> owner, String name, MethodType type) {
+        try {
+            return lookup(owner).findStatic(owner, name, type);
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    private static MethodHandle virtualMethod(Class<?> owner, String name, MethodType type) {
+        try {
+            return lookup(owner).findVirtual(owner, name, type);
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    private static MethodHandle constructor(Class<?> owner, MethodType type) {
+        try {
+            return lookup(owner).findConstructor(owner, type);
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    private static MethodHandle staticSetter(Class<?> owner, String name, Class<?> type) {
+        try {
+            return lookup(owner).findStaticSetter(owner, name, type);
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+}
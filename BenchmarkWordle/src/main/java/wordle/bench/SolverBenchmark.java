@@ -0,0 +1,89 @@
+package wordle.bench;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.nio.CharBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/*
+ *   latenza del risolutore di ASSIST sul vocabolario completo, in funzione del numero di tentativi già fatti:
+ *   0 tentativi valuta tutte le parole (preselezione su un campione ridotto), dopo uno o due tentativi restano
+ *   poche decine o centinaia di candidati. solve misura il calcolo senza cache, assist una soluzione già in cache.
+ *   candidates è il solo filtro con i bitset, confrontato con scan, che calcola il suggerimento di ogni tentativo
+ *   contro ogni parola del vocabolario.
+ *   I tentativi sono parole fisse del vocabolario contro una parola segreta fissa, con i suggerimenti calcolati
+ *   da SecretWord.hint come durante il gioco.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class SolverBenchmark {
+    @Param({"0", "1", "2"})
+    public int attempts;
+
+    private Object solver;
+    private long[] guesses;
+    private int[] hints;
+    private List<String> words;
+    private String[] guessWords;
+    private String[] hintWords;
+    private final char[] hint = new char[10];
+    private final int[] counts = new int[26];
+
+    @Setup
+    public void setup() throws Throwable {
+        words = Files.readAllLines(Path.of(Server.WORDS_FILE));
+        Object vocabulary = (Object) Server.LOAD_VOCABULARY.invokeExact(Server.WORDS_FILE, "packed");
+        solver = (Object) Server.NEW_SOLVER.invokeExact(vocabulary, 1024, 1024);
+        Object secret = (Object) Server.NEW_SECRET_WORD.invokeExact(words.get(words.size() / 3), 1L);
+        guesses = new long[attempts];
+        hints = new int[attempts];
+        guessWords = new String[attempts];
+        hintWords = new String[attempts];
+        for (int t = 0; t < attempts; t++) {
+            String guess = words.get((t + 1) * words.size() / 4);
+            Server.HINT.invokeExact(secret, (CharSequence) guess, hint, counts);
+            guessWords[t] = guess;
+            hintWords[t] = new String(hint);
+            guesses[t] = (long) Server.ENCODE_WORD.invokeExact((CharSequence) guess);
+            hints[t] = (int) Server.ENCODE_HINT.invokeExact((CharSequence) new String(hint));
+        }
+    }
+
+    @Benchmark
+    public Object solve() throws Throwable {
+        return (Object) Server.SOLVE.invokeExact(solver, guesses, hints, attempts);
+    }
+
+    @Benchmark
+    public Object assist() throws Throwable {
+        return (Object) Server.ASSIST.invokeExact(solver, guesses, hints, attempts);
+    }
+
+    @Benchmark
+    public long[] candidates() throws Throwable {
+        return (long[]) Server.CANDIDATES.invokeExact(solver, guesses, hints, attempts);
+    }
+
+    @Benchmark
+    public int scan() throws Throwable {
+        int found = 0;
+        for (String word : words) {
+            Object candidate = (Object) Server.NEW_SECRET_WORD.invokeExact(word, 1L);
+            boolean compatible = true;
+            for (int t = 0; t < attempts && compatible; t++) {
+                Server.HINT.invokeExact(candidate, (CharSequence) guessWords[t], hint, counts);
+                compatible = hintWords[t].contentEquals(CharBuffer.wrap(hint));
+            }
+            if (compatible)
+                found++;
+        }
+        return found;
+    }
+}
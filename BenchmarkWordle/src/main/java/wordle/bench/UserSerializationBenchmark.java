@@ -0,0 +1,34 @@
+package wordle.bench;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.OutputStream;
+import java.util.concurrent.TimeUnit;
+
+/*
+ *   serializzazione di tutti gli utenti (il lavoro di updateUsers e degli snapshot) verso uno stream che
+ *   scarta i byte, per 1k, 100k e 1M utenti nei formati json e binary
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 3, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+@State(Scope.Benchmark)
+public class UserSerializationBenchmark {
+    @Param({"1000", "100000", "1000000"})
+    public int users;
+
+    @Param({"json", "binary"})
+    public String format;
+
+    @Setup(Level.Trial)
+    public void setup() throws Throwable {
+        Server.SET_USERS.invokeExact(Server.syntheticUsers(users));
+    }
+
+    @Benchmark
+    public void writeUsers() throws Throwable {
+        Server.WRITE_USERS.invokeExact(OutputStream.nullOutputStream(), format);
+    }
+}
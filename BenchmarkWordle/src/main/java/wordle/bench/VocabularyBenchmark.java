@@ -0,0 +1,90 @@
+package wordle.bench;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/*
+ *   checkVocabulary: ricerca di parole presenti e assenti nei due vocabolari (packed e mapped),
+ *   confrontata con la ricerca binaria originale su RandomAccessFile
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class VocabularyBenchmark {
+    @Param({"packed", "mapped"})
+    public String mode;
+
+    private Object vocabulary;
+    private String[] hits;
+    private String[] misses;
+    private int next;
+
+    @Setup
+    public void setup() throws Throwable {
+        vocabulary = (Object) Server.LOAD_VOCABULARY.invokeExact(Server.WORDS_FILE, mode);
+        Server.SET_VOCABULARY.invokeExact(vocabulary);
+        List<String> words = Files.readAllLines(Path.of(Server.WORDS_FILE));
+        hits = new String[1024];
+        misses = new String[1024];
+        for (int i = 0; i < hits.length; i++) {
+            String word = words.get((int) ((long) i * 7919 % words.size()));
+            hits[i] = word;
+            /*  stessa parola con l'ultima lettera ruotata: quasi sempre assente dal vocabolario  */
+            misses[i] = word.substring(0, 9) + (char) ('a' + (word.charAt(9) - 'a' + 13) % 26);
+        }
+    }
+
+    private int nextIndex() {
+        next = (next + 1) & 1023;
+        return next;
+    }
+
+    @Benchmark
+    public boolean containsHit() throws Throwable {
+        return (boolean) Server.CONTAINS.invokeExact(vocabulary, (CharSequence) hits[nextIndex()]);
+    }
+
+    @Benchmark
+    public boolean containsMiss() throws Throwable {
+        return (boolean) Server.CONTAINS.invokeExact(vocabulary, (CharSequence) misses[nextIndex()]);
+    }
+
+    /*  percorso completo usato da SENDWORD, compresa la registrazione della latenza nelle metriche    */
+    @Benchmark
+    public boolean checkVocabulary() throws Throwable {
+        return (boolean) Server.CHECK_VOCABULARY.invokeExact(hits[nextIndex()]);
+    }
+
+    /*  ricerca originale: un RandomAccessFile aperto ad ogni parola (solo parole presenti, sulle assenti poteva non terminare) */
+    @Benchmark
+    public boolean legacyRandomAccessFile() throws IOException {
+        String word = hits[nextIndex()];
+        try (final RandomAccessFile words = new RandomAccessFile(Server.WORDS_FILE, "r")) {
+            long start = 0;
+            long end = words.length();
+            String wordRidden;
+            while (start <= end) {
+                long mid = ((start + end) / 2);
+                mid = mid - mid % 11;
+                words.seek(mid);
+                wordRidden = words.readLine();
+                if (wordRidden.compareTo(word) == 0)
+                    return true;
+                else if (wordRidden.compareTo(word) < 0)
+                    start = mid + 10;
+                else
+                    end = mid - 10;
+            }
+            return false;
+        }
+    }
+}
@@ -1,47 +1,163 @@
 import java.io.*;
 import java.net.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.charset.Charset;
 import java.util.*;
-import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
 public class ClientMain {
     static String hostname;
     static int port;
-    private enum msgType {LOGIN, REGISTER, LOGOUT, EXIT, PLAYWORDLE, SENDWORD, SENDSTATS, SHARE, OK, NOTOK}
-    public static ConcurrentLinkedQueue<String> notifies;
+    /*  gruppo multicast delle condivisioni e numero di condivisioni conservate (le più vecchie vengono sovrascritte) */
+    static String udpAddress;
+    static int udpPort;
+    static int shareCapacity;
+    private enum msgType {LOGIN, REGISTER, LOGOUT, EXIT, PLAYWORDLE, SENDWORD, SENDSTATS, SHARE, HELLO, RANKING, ASSIST, OK, NOTOK}
+    /*  versione del protocollo richiesta al server e quella effettivamente negoziata  */
+    private static final int PROTOCOL_VERSION = 2;
+    private static int protocolVersion = 1;
+    private static int nextRequestId = 0;
+    public static ShareRing notifies;
+
+    /*
+     *   condivisione ricevuta, decodificata una sola volta alla ricezione: username e suggerimenti dei tentativi
+     */
+    public static final class Share {
+        final long sequence;
+        final String username;
+        final String[] hints;
+
+        Share(long sequence, String username, String[] hints) {
+            this.sequence = sequence;
+            this.username = username;
+            this.hints = hints;
+        }
+    }
+
+    /*
+     *   Buffer circolare limitato delle ultime condivisioni, senza lock: un solo thread scrive (SharingReceiver),
+     *   quando il buffer è pieno la condivisione più vecchia viene sovrascritta. Chi legge copia le posizioni
+     *   ancora valide, riconoscendo dal numero di sequenza quelle sovrascritte nel frattempo.
+     *   L'occupazione di memoria non dipende da quante condivisioni arrivano.
+     */
+    public static final class ShareRing {
+        private final AtomicReferenceArray<Share> slots;
+        private final int mask;
+        /*  numero di condivisioni scritte dall'avvio, la prossima va nella posizione written & mask   */
+        private volatile long written;
+
+        ShareRing(int capacity) {
+            int size = Integer.highestOneBit(Math.max(2, capacity) * 2 - 1);
+            this.slots = new AtomicReferenceArray<>(size);
+            this.mask = size - 1;
+        }
+
+        /*  chiamato solo dal thread ricevitore  */
+        void add(String username, String[] hints) {
+            long sequence = written;
+            slots.set((int) (sequence & mask), new Share(sequence, username, hints));
+            written = sequence + 1;
+        }
+
+        /*  condivisioni presenti, dalla più vecchia alla più recente  */
+        List<Share> snapshot() {
+            long end = written;
+            List<Share> shares = new ArrayList<>();
+            for (long sequence = Math.max(0, end - slots.length()); sequence < end; sequence++) {
+                Share share = slots.get((int) (sequence & mask));
+                if (share != null && share.sequence == sequence)
+                    shares.add(share);
+            }
+            return shares;
+        }
+
+        /*  condivisioni ricevute e poi sovrascritte perché il buffer era pieno   */
+        long overwritten() {
+            return Math.max(0, written - slots.length());
+        }
+    }
 
     /*
      *   metodo utilizzato dal Thread per la ricezione delle notifiche UDP degli altri giocatori
      */
 
     public static class SharingReceiver implements Runnable{
+        /*  dimensione massima di un datagram UDP: un datagram con più condivisioni non viene mai troncato   */
+        private static final int MAX_DATAGRAM = 65507;
+        private final Charset charset = Charset.defaultCharset();
+
         @Override
         public void run() {
+            InetAddress group;
             try {
-                byte[] buffer = new byte[1024];
-                notifies = new ConcurrentLinkedQueue<>();
-                /* creazione del multicast socket */
-                MulticastSocket socket = new MulticastSocket(4321);
-                /* Inet address con indirizzo di multicast */
-                InetAddress group = InetAddress.getByName("230.0.0.0");
-                /* aggiunta del socket al gruppo di multicast */
-                socket.joinGroup(group);
+                group = InetAddress.getByName(udpAddress);
+            } catch (UnknownHostException e) {
+                e.printStackTrace();
+                return;
+            }
+            /* canale UDP sulla porta delle condivisioni, unito al gruppo di multicast */
+            try (DatagramChannel channel = DatagramChannel.open(group instanceof Inet6Address ? StandardProtocolFamily.INET6 : StandardProtocolFamily.INET)) {
+                channel.setOption(StandardSocketOptions.SO_REUSEADDR, true);
+                channel.bind(new InetSocketAddress(udpPort));
+                channel.join(group, multicastInterface());
+                /*  un solo buffer riutilizzato per tutti i datagram   */
+                byte[] bytes = new byte[MAX_DATAGRAM];
+                ByteBuffer buffer = ByteBuffer.wrap(bytes);
                 while (true) {
-                    /* preparazione del datagram packet per la ricezione del messaggio */
-                    DatagramPacket packet = new DatagramPacket(buffer, buffer.length);
-                    socket.receive(packet);
-                    String msg = new String(packet.getData(), packet.getOffset(), packet.getLength());
-                    /* se viene ricevuto il messaggio di terminazione termina */
-                    if (msg.equals("STOP")) break;
-                    /* aggiunta del messaggio ad ArrayList delle notifiche ricevute*/
-                    notifies.add(msg);
+                    buffer.clear();
+                    channel.receive(buffer);
+                    /* il server può impacchettare più condivisioni nello stesso datagram, separate da '\n' */
+                    if (!unpack(bytes, buffer.position()))
+                        break;
                 }
-                socket.leaveGroup(group);
-                socket.close();
             }
             catch (IOException e){
                 e.printStackTrace();
             }
         }
+
+        /*
+         *   decodifica delle condivisioni del datagram nel buffer circolare; false se il datagram contiene STOP,
+         *   dopo averne decodificato comunque tutte le condivisioni
+         */
+        private boolean unpack(byte[] bytes, int length) {
+            boolean running = true;
+            int start = 0;
+            for (int i = 0; i <= length; i++) {
+                if (i < length && bytes[i] != '\n')
+                    continue;
+                if (i > start) {
+                    String msg = new String(bytes, start, i - start, charset);
+                    /* se viene ricevuto il messaggio di terminazione termina, dopo il resto del datagram */
+                    if (msg.equals("STOP"))
+                        running = false;
+                    else {
+                        String[] fields = msg.split(" ");
+                        notifies.add(fields[0], Arrays.copyOfRange(fields, 1, fields.length));
+                    }
+                }
+                start = i + 1;
+            }
+            return running;
+        }
+
+        /*
+         *   interfaccia su cui ricevere il multicast: la prima attiva che lo supporta, preferendo quelle non loopback
+         */
+        private static NetworkInterface multicastInterface() throws IOException {
+            NetworkInterface loopback = null;
+            for (NetworkInterface candidate : Collections.list(NetworkInterface.getNetworkInterfaces())) {
+                if (!candidate.isUp() || !candidate.supportsMulticast())
+                    continue;
+                if (!candidate.isLoopback())
+                    return candidate;
+                loopback = candidate;
+            }
+            if (loopback == null)
+                throw new SocketException("nessuna interfaccia di rete con multicast");
+            return loopback;
+        }
     }
 
     /*
@@ -54,6 +170,9 @@ public class ClientMain {
         prop.load(input);
         hostname = prop.getProperty("hostname");
         port = Integer.parseInt(prop.getProperty("port"));
+        udpAddress = prop.getProperty("udpAddress", "230.0.0.0").trim();
+        udpPort = Integer.parseInt(prop.getProperty("udpPort", "4321").trim());
+        shareCapacity = Integer.parseInt(prop.getProperty("shareCapacity", "256").trim());
         input.close();
     }
     public static void main(String[] args) throws IOException {
@@ -70,13 +189,15 @@ public class ClientMain {
             /* scrittura formattata dello stream dati diretto al server */
             PrintWriter out = new PrintWriter(socket.getOutputStream(),true);
             Scanner keyboard = new Scanner(System.in);
+            negotiate(in, out);
             System.out.println("Welcome to WORDLE!");
             /* creazione del thread per la ricezione delle notifiche in background */
+            notifies = new ShareRing(shareCapacity);
             Thread sharingReceiver = new Thread(new SharingReceiver());
             sharingReceiver.start();
             while(true){
                 /* ciclo while per la lettura dei messaggi impartiti dall'utente */
-                System.out.println("1) login\n2) register\n3) logout\n4) play wordle\n5) send word\n6) send me statistics\n7) share\n8) show me sharing\n9) exit");
+                System.out.println("1) login\n2) register\n3) logout\n4) play wordle\n5) send word\n6) send me statistics\n7) share\n8) show me sharing\n9) exit\n10) ranking\n11) assist");
                 msgToServer = keyboard.nextLine();
                 switch (msgToServer) {
                     case "1"://LOGIN
@@ -85,7 +206,7 @@ public class ClientMain {
                         username = keyboard.nextLine();
                         System.out.println("Inserisci password");
                         password = keyboard.nextLine();
-                        out.println(msgType.LOGIN + " " + username + " " + password);
+                        send(out, msgType.LOGIN + " " + username + " " + password);
                         checkResult(in);
                         break;
                     case "2" : //REGISTER
@@ -94,63 +215,58 @@ public class ClientMain {
                         username = keyboard.nextLine();
                         System.out.println("Inserisci password");
                         password = keyboard.nextLine();
-                        out.println(msgType.REGISTER + " " + username + " " + password);
+                        send(out, msgType.REGISTER + " " + username + " " + password);
                         checkResult(in);
                         break;
                     case "3": //LOGOUT
                         /* richiesta di logout dell'utente */
-                        out.println(msgType.LOGOUT);
+                        send(out, msgType.LOGOUT.toString());
                         checkResult(in);
                         break;
                     case "4": //PLAYWORDLE
                         /* richiesta di partecipazione al gioco */
-                        out.println(msgType.PLAYWORDLE);
+                        send(out, msgType.PLAYWORDLE.toString());
                         checkResult(in);
                         break;
                     case "5": //INDOVINA GUESSED WORD
                         /* richiesta d'invio di una guessed word */
                         System.out.println("Inserisci la tua Guessed Word:");
                         guessedWord = keyboard.nextLine();
-                        out.println(msgType.SENDWORD + " " + guessedWord);
-                        checkResult(in);
+                        send(out, msgType.SENDWORD + " " + guessedWord);
+                        String result = readReply(in);
+                        printResult(result);
+                        /*  a fine partita condivisione e statistiche vengono inviate insieme, senza attendere
+                            la prima risposta (con il protocollo 2 ogni risposta porta l'identificativo della richiesta) */
+                        if (result.startsWith(msgType.OK + " ") && (result.contains("hai vinto") || result.contains("hai finito i tentativi"))) {
+                            System.out.println("Partita terminata: vuoi condividere i risultati? (s/n)");
+                            if (keyboard.nextLine().trim().equalsIgnoreCase("s"))
+                                endOfGame(in, out);
+                        }
                         break;
                     case "6": //SENDSTATS
                         /* richiesta di condivisione al client delle proprie statistiche */
-                        out.println(msgType.SENDSTATS);
-                        ack = in.readLine().split(" ", 2);
-                        if (msgType.valueOf(ack[0]) == msgType.OK) {
-                            /*  stampa a video le statistiche ricevute dal server   */
-                            String[] splitStat = ack[1].split(" ");
-                            System.out.println("Partite giocate: " + splitStat[0]);
-                            System.out.println("Win rate: " + splitStat[1]);
-                            System.out.println("Last streak: " + splitStat[2]);
-                            System.out.println("Streak record: " + splitStat[3]);
-                            for (int i = 1; i < 13; i++) {
-                                System.out.println("Vittorie al " + i + " tentativo: " + splitStat[3 + i]);
-                            }
-                        } else if (msgType.valueOf(ack[0]) == msgType.NOTOK) {
-                            System.out.println("error: " + ack[1]);
-                        }
+                        send(out, msgType.SENDSTATS.toString());
+                        printStats(readReply(in));
                         break;
                     case "7": //SHARE
                         /* richiesta di condivisione dei risultati raggiunti al server */
-                        out.println(msgType.SHARE);
+                        send(out, msgType.SHARE.toString());
                         checkResult(in);
                         break;
                     case "8": //SHOW ME SHARING
-                        String[] splitSuggestions;
                         /* lettura delle notifiche ricevute dal thread SharingReceiver*/
-                        for (String e : notifies) {
-                            splitSuggestions = e.split(" ");
-                            System.out.println(splitSuggestions[0] + " ha condiviso i seguenti risultati:");
-                            for (int i = 1; i < splitSuggestions.length; i++)
-                                System.out.println("tentativo " + i + ": " + splitSuggestions[i]);
+                        if (notifies.overwritten() > 0)
+                            System.out.println("(" + notifies.overwritten() + " condivisioni meno recenti non più disponibili)");
+                        for (Share share : notifies.snapshot()) {
+                            System.out.println(share.username + " ha condiviso i seguenti risultati:");
+                            for (int i = 0; i < share.hints.length; i++)
+                                System.out.println("tentativo " + (i + 1) + ": " + share.hints[i]);
                         }
                         break;
                     case "9":
                         /*  invio di una richiesta di uscita dal gioco  */
-                        out.println(msgType.EXIT);
-                        ack = in.readLine().split(" ", 2);
+                        send(out, msgType.EXIT.toString());
+                        ack = readReply(in).split(" ", 2);
                         if (msgType.valueOf(ack[0]) == msgType.OK) {
                             System.out.println(ack[1]);
                             return;
@@ -158,6 +274,35 @@ public class ClientMain {
                             System.out.println("error: " + ack[1]);
                         }
                         break;
+                    case "10": //RANKING
+                        /*  richiesta delle prime posizioni di una classifica e della propria posizione  */
+                        System.out.println("Classifica (winrate, streak, guesses):");
+                        String board = keyboard.nextLine().trim();
+                        send(out, msgType.RANKING + " " + (board.isEmpty() ? "winrate" : board) + " 10");
+                        ack = readReply(in).split(" ", 2);
+                        if (msgType.valueOf(ack[0]) == msgType.OK) {
+                            String[] splitRanking = ack[1].split(" ");
+                            System.out.println("Giocatori in classifica: " + splitRanking[0]);
+                            System.out.println("La tua posizione: " + (splitRanking[1].equals("0") ? "-" : splitRanking[1]));
+                            for (int i = 2; i < splitRanking.length; i++)
+                                System.out.println((i - 1) + ") " + splitRanking[i].replace("=", ": "));
+                        } else if (msgType.valueOf(ack[0]) == msgType.NOTOK) {
+                            System.out.println("error: " + ack[1]);
+                        }
+                        break;
+                    case "11": //ASSIST
+                        /*  parole ancora compatibili con i suggerimenti ricevuti e migliori proposte per il prossimo tentativo */
+                        send(out, msgType.ASSIST + " 5");
+                        ack = readReply(in).split(" ", 2);
+                        if (msgType.valueOf(ack[0]) == msgType.OK) {
+                            String[] splitAssist = ack[1].split(" ");
+                            System.out.println("Parole ancora possibili: " + splitAssist[0]);
+                            for (int i = 1; i < splitAssist.length; i++)
+                                System.out.println(i + ") " + splitAssist[i].replace(":", " (") + " bit)");
+                        } else if (msgType.valueOf(ack[0]) == msgType.NOTOK) {
+                            System.out.println("error: " + ack[1]);
+                        }
+                        break;
                     default:
                         break;
                 }
@@ -165,12 +310,91 @@ public class ClientMain {
         }
     }
 
+    /*
+     *   negoziazione della versione del protocollo: con la versione 2 ogni richiesta porta un identificativo
+     *   che il server ripete nella risposta
+     */
+    private static void negotiate(BufferedReader in, PrintWriter out) throws IOException {
+        out.println(msgType.HELLO + " " + PROTOCOL_VERSION);
+        String[] ack = in.readLine().split(" ", 2);
+        if (msgType.valueOf(ack[0]) == msgType.OK)
+            protocolVersion = Integer.parseInt(ack[1].trim());
+    }
+
+    /*
+     *   invio di un comando al server, preceduto dall'identificativo della richiesta se negoziato;
+     *   restituisce l'identificativo assegnato
+     */
+    private static int send(PrintWriter out, String command) {
+        ++nextRequestId;
+        if (protocolVersion >= 2)
+            out.println("#" + nextRequestId + " " + command);
+        else
+            out.println(command);
+        return nextRequestId;
+    }
+
+    /*
+     *   lettura della risposta all'ultimo comando inviato, senza l'identificativo della richiesta
+     */
+    private static String readReply(BufferedReader in) throws IOException {
+        return readReply(in, nextRequestId);
+    }
+
+    /*
+     *   lettura della risposta al comando con identificativo requestId (le risposte arrivano nell'ordine di invio)
+     */
+    private static String readReply(BufferedReader in, int requestId) throws IOException {
+        String reply = in.readLine();
+        if (reply == null)
+            throw new EOFException("connessione chiusa dal server");
+        if (protocolVersion >= 2 && reply.startsWith("#")) {
+            String id = reply.substring(0, reply.indexOf(' '));
+            if (!id.equals("#" + requestId))
+                throw new IOException("risposta inattesa " + id + ", attesa #" + requestId);
+            reply = reply.substring(id.length() + 1);
+        }
+        return reply;
+    }
+
+    /*
+     *   fine partita: SHARE e SENDSTATS inviati uno dopo l'altro, poi lettura delle due risposte
+     */
+    private static void endOfGame(BufferedReader in, PrintWriter out) throws IOException {
+        int share = send(out, msgType.SHARE.toString());
+        int stats = send(out, msgType.SENDSTATS.toString());
+        printResult(readReply(in, share));
+        printStats(readReply(in, stats));
+    }
+
+    /*
+     *   stampa a video delle statistiche ricevute dal server
+     */
+    private static void printStats(String reply) {
+        String[] ack = reply.split(" ", 2);
+        if (msgType.valueOf(ack[0]) == msgType.OK) {
+            String[] splitStat = ack[1].split(" ");
+            System.out.println("Partite giocate: " + splitStat[0]);
+            System.out.println("Win rate: " + splitStat[1]);
+            System.out.println("Last streak: " + splitStat[2]);
+            System.out.println("Streak record: " + splitStat[3]);
+            for (int i = 1; i < 13; i++) {
+                System.out.println("Vittorie al " + i + " tentativo: " + splitStat[3 + i]);
+            }
+        } else if (msgType.valueOf(ack[0]) == msgType.NOTOK) {
+            System.out.println("error: " + ack[1]);
+        }
+    }
+
     /*
      *   metodo per controllare il messaggio ricevuto dal server
      */
     private static void checkResult(BufferedReader in) throws IOException {
-        String[] ack;
-        ack = in.readLine().split(" ", 2);
+        printResult(readReply(in));
+    }
+
+    private static void printResult(String reply) {
+        String[] ack = reply.split(" ", 2);
         /* controlla il primo campo del messaggio e controlla l'esito della richiesta*/
         if (msgType.valueOf(ack[0]) == msgType.OK) {
             System.out.println(ack[1]);
@@ -0,0 +1,419 @@
+import java.io.*;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/*
+ *   Generatore di carico non interattivo: simula N giocatori concorrenti che parlano al server con lo stesso
+ *   protocollo testuale di ClientMain (REGISTER, LOGIN, PLAYWORDLE, SENDWORD, SENDSTATS, SHARE, LOGOUT).
+ *   Ogni giocatore gioca la partita del giorno con un account proprio; finita la partita esegue il logout e
+ *   passa all'account successivo, così il carico resta sui comandi di gioco per tutta la durata della prova.
+ *   Con protocol=2 la connessione negozia la versione 2 del protocollo (HELLO 2), marca ogni richiesta con un
+ *   identificativo e a fine partita invia SENDSTATS, SHARE e LOGOUT in pipeline, con una sola scrittura.
+ *   Al termine stampa throughput e latenze p50/p99/p999 per ciascun comando.
+ *   Utilizzo (dalla cartella ClientWordle, hostname e port vengono letti da client.properties):
+ *       java LoadGenerator [chiave=valore ...]
+ *   chiavi: players (100), seconds (60), thinkMin e thinkMax in millisecondi (0 e 20),
+ *           strategy random|solver (solver), invalidRatio (0.02), words (../ServerWordle/words.txt),
+ *           threads virtual|platform (virtual), prefix (load), password (loadpw), protocol 1|2 (2)
+ */
+public class LoadGenerator {
+    private enum msgType {LOGIN, REGISTER, LOGOUT, EXIT, PLAYWORDLE, SENDWORD, SENDSTATS, SHARE, HELLO, OK, NOTOK}
+    private static final int WORD_LENGTH = 10;
+    private static final int MAX_TRIALS = 12;
+
+    private static String hostname;
+    private static int port;
+    private static int players;
+    private static int seconds;
+    private static int thinkMin;
+    private static int thinkMax;
+    private static String strategy;
+    private static double invalidRatio;
+    private static String wordsFile;
+    private static String threads;
+    private static String prefix;
+    private static String password;
+    private static int protocol;
+
+    private static String[] words;
+    private static volatile boolean running = true;
+
+    /*  statistiche per comando, indicizzate con msgType.ordinal()  */
+    private static final LatencyHistogram[] latencies = new LatencyHistogram[msgType.values().length];
+    private static final LongAdder gamesWon = new LongAdder();
+    private static final LongAdder gamesLost = new LongAdder();
+    private static final LongAdder ioErrors = new LongAdder();
+
+    /*
+     *   istogramma delle latenze con bucket logaritmici (8 sotto-bucket per potenza di 2, errore relativo
+     *   massimo del 12,5%), come quello delle metriche del server: memoria costante a prescindere dal numero
+     *   di campioni
+     */
+    private static class LatencyHistogram {
+        private static final int SUB_BITS = 3;
+        private static final int SUB_BUCKETS = 1 << SUB_BITS;
+        private final AtomicLongArray buckets = new AtomicLongArray(Long.SIZE * SUB_BUCKETS);
+        private final LongAdder count = new LongAdder();
+        private final LongAdder errors = new LongAdder();
+        private final LongAccumulator max = new LongAccumulator(Long::max, 0);
+
+        void record(long nanos) {
+            if (nanos < 0)
+                nanos = 0;
+            buckets.incrementAndGet(index(nanos));
+            count.increment();
+            max.accumulate(nanos);
+        }
+
+        private static int index(long value) {
+            if (value < SUB_BUCKETS)
+                return (int) value;
+            int exponent = 63 - Long.numberOfLeadingZeros(value);
+            int sub = (int) ((value >>> (exponent - SUB_BITS)) & (SUB_BUCKETS - 1));
+            return (exponent - SUB_BITS + 1) * SUB_BUCKETS + sub;
+        }
+
+        private static long upperBound(int index) {
+            if (index < SUB_BUCKETS)
+                return index + 1;
+            int exponent = index / SUB_BUCKETS + SUB_BITS - 1;
+            long sub = index % SUB_BUCKETS;
+            return (SUB_BUCKETS + sub + 1) << (exponent - SUB_BITS);
+        }
+
+        long percentile(double p) {
+            long total = count.sum();
+            if (total == 0)
+                return 0;
+            long target = Math.max(1, (long) Math.ceil(p * total));
+            long seen = 0;
+            for (int i = 0; i < buckets.length(); i++) {
+                seen += buckets.get(i);
+                if (seen >= target)
+                    return Math.min(upperBound(i) - 1, max.get());
+            }
+            return max.get();
+        }
+    }
+
+    /*
+     *   singolo giocatore simulato: una connessione TCP, un account alla volta
+     */
+    private static class Player implements Runnable {
+        private final int id;
+        private final Random random;
+        private int generation;
+        private BufferedReader in;
+        private PrintWriter out;
+        /*  versione negoziata sulla connessione corrente e identificativo dell'ultima richiesta inviata   */
+        private int version;
+        private int nextRequestId;
+        /*  candidati ancora compatibili con i suggerimenti ricevuti (strategia solver)  */
+        private int[] candidates;
+        private int candidateCount;
+        private final char[] hint = new char[WORD_LENGTH];
+        private final int[] counts = new int[26];
+
+        Player(int id) {
+            this.id = id;
+            this.random = new Random(id);
+            this.candidates = new int[words.length];
+        }
+
+        @Override
+        public void run() {
+            while (running) {
+                try (Socket socket = new Socket(hostname, port)) {
+                    socket.setTcpNoDelay(true);
+                    in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+                    out = new PrintWriter(new BufferedWriter(new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8)), false);
+                    version = 1;
+                    if (protocol >= 2) {
+                        String reply = send(msgType.HELLO, msgType.HELLO + " " + protocol);
+                        if (isOk(reply))
+                            version = Integer.parseInt(reply.substring(3).trim());
+                    }
+                    while (running)
+                        playAccount();
+                    send(msgType.EXIT, msgType.EXIT.toString());
+                } catch (IOException e) {
+                    /*  connessione persa o rifiutata: si riprova con una nuova connessione e un nuovo account  */
+                    ioErrors.increment();
+                    generation++;
+                    think();
+                }
+            }
+        }
+
+        /*
+         *   registrazione, login e partita del giorno con l'account corrente, poi logout
+         */
+        private void playAccount() throws IOException {
+            String username = prefix + "-" + id + "-" + generation++;
+            send(msgType.REGISTER, msgType.REGISTER + " " + username + " " + password);
+            think();
+            if (!isOk(send(msgType.LOGIN, msgType.LOGIN + " " + username + " " + password)))
+                return;
+            think();
+            boolean played = isOk(send(msgType.PLAYWORDLE, msgType.PLAYWORDLE.toString()));
+            if (played) {
+                playGame();
+                think();
+            }
+            if (played && version >= 2) {
+                /*  i tre comandi di fine partita partono insieme, le risposte vengono lette dopo  */
+                pipeline(msgType.SENDSTATS, msgType.SHARE, msgType.LOGOUT);
+            } else {
+                if (played) {
+                    send(msgType.SENDSTATS, msgType.SENDSTATS.toString());
+                    think();
+                    send(msgType.SHARE, msgType.SHARE.toString());
+                    think();
+                }
+                send(msgType.LOGOUT, msgType.LOGOUT.toString());
+            }
+            think();
+        }
+
+        private void playGame() throws IOException {
+            candidateCount = words.length;
+            for (int i = 0; i < candidateCount; i++)
+                candidates[i] = i;
+            for (int trial = 0; trial < MAX_TRIALS && running; ) {
+                String guess = nextGuess();
+                String reply = send(msgType.SENDWORD, msgType.SENDWORD + " " + guess);
+                think();
+                if (!isOk(reply)) {
+                    /*  parola fuori vocabolario: il tentativo non viene consumato  */
+                    if (reply.contains("vocabolario"))
+                        continue;
+                    return;
+                }
+                trial++;
+                if (reply.contains("hai vinto")) {
+                    gamesWon.increment();
+                    return;
+                }
+                /*  risposta "OK <suggerimento>: ..."  */
+                if (reply.length() >= 3 + WORD_LENGTH)
+                    filter(guess, reply.substring(3, 3 + WORD_LENGTH));
+                if (reply.contains("finito i tentativi")) {
+                    gamesLost.increment();
+                    return;
+                }
+            }
+        }
+
+        private String nextGuess() {
+            if (random.nextDouble() < invalidRatio) {
+                /*  parola di 10 lettere quasi certamente assente dal vocabolario   */
+                char[] invalid = new char[WORD_LENGTH];
+                for (int i = 0; i < WORD_LENGTH; i++)
+                    invalid[i] = (char) ('a' + random.nextInt(26));
+                return new String(invalid);
+            }
+            if (strategy.equals("solver") && candidateCount > 0)
+                return words[candidates[random.nextInt(candidateCount)]];
+            return words[random.nextInt(words.length)];
+        }
+
+        /*
+         *   mantiene solo i candidati che, se fossero la parola segreta, avrebbero prodotto lo stesso suggerimento
+         */
+        private void filter(String guess, String received) {
+            if (!strategy.equals("solver"))
+                return;
+            int kept = 0;
+            for (int i = 0; i < candidateCount; i++) {
+                computeHint(words[candidates[i]], guess);
+                if (sameHint(received))
+                    candidates[kept++] = candidates[i];
+            }
+            candidateCount = kept;
+        }
+
+        private boolean sameHint(String received) {
+            for (int i = 0; i < WORD_LENGTH; i++)
+                if (hint[i] != received.charAt(i))
+                    return false;
+            return true;
+        }
+
+        /*  stesse regole del server per le lettere ripetute   */
+        private void computeHint(String secret, String guess) {
+            Arrays.fill(counts, 0);
+            for (int i = 0; i < WORD_LENGTH; i++) {
+                char c = guess.charAt(i);
+                if (c == secret.charAt(i))
+                    hint[i] = '+';
+                else {
+                    hint[i] = 'x';
+                    counts[secret.charAt(i) - 'a']++;
+                }
+            }
+            for (int i = 0; i < WORD_LENGTH; i++) {
+                int letter = guess.charAt(i) - 'a';
+                if (hint[i] != '+' && counts[letter] > 0) {
+                    hint[i] = '?';
+                    counts[letter]--;
+                }
+            }
+        }
+
+        /*
+         *   invio di un comando e attesa della risposta, con registrazione della latenza
+         */
+        private String send(msgType command, String line) throws IOException {
+            long start = System.nanoTime();
+            write(line);
+            out.flush();
+            return receive(command, start);
+        }
+
+        /*
+         *   invio di più comandi senza argomenti con una sola scrittura; la latenza di ciascuno è misurata
+         *   dall'invio del lotto alla ricezione della sua risposta
+         */
+        private void pipeline(msgType... commands) throws IOException {
+            long start = System.nanoTime();
+            int firstId = nextRequestId + 1;
+            for (msgType command : commands)
+                write(command.toString());
+            out.flush();
+            for (int i = 0; i < commands.length; i++)
+                receive(commands[i], start, "#" + (firstId + i));
+        }
+
+        private void write(String line) {
+            if (version >= 2)
+                out.println("#" + (++nextRequestId) + " " + line);
+            else
+                out.println(line);
+        }
+
+        private String receive(msgType command, long start) throws IOException {
+            return receive(command, start, "#" + nextRequestId);
+        }
+
+        private String receive(msgType command, long start, String expectedId) throws IOException {
+            String reply = in.readLine();
+            if (reply == null)
+                throw new EOFException("connessione chiusa dal server");
+            LatencyHistogram histogram = latencies[command.ordinal()];
+            histogram.record(System.nanoTime() - start);
+            if (version >= 2 && reply.startsWith("#")) {
+                int space = reply.indexOf(' ');
+                if (!reply.substring(0, space).equals(expectedId))
+                    throw new IOException("risposta " + reply.substring(0, space) + " invece di " + expectedId);
+                reply = reply.substring(space + 1);
+            }
+            if (!isOk(reply))
+                histogram.errors.increment();
+            return reply;
+        }
+
+        private static boolean isOk(String reply) {
+            return reply.startsWith(msgType.OK.toString());
+        }
+
+        private void think() {
+            if (thinkMax <= 0)
+                return;
+            try {
+                Thread.sleep(thinkMin + random.nextInt(Math.max(1, thinkMax - thinkMin + 1)));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                running = false;
+            }
+        }
+    }
+
+    /*
+     *   lettura di hostname e porta da client.properties e dei parametri della prova dagli argomenti chiave=valore
+     */
+    private static void readConfig(String[] args) throws IOException {
+        Properties prop = new Properties();
+        try (InputStream input = new FileInputStream("client.properties")) {
+            prop.load(input);
+        }
+        for (String arg : args) {
+            int eq = arg.indexOf('=');
+            if (eq <= 0)
+                throw new IllegalArgumentException("argomento non valido: " + arg + " (atteso chiave=valore)");
+            prop.setProperty(arg.substring(0, eq), arg.substring(eq + 1));
+        }
+        hostname = prop.getProperty("hostname").trim();
+        port = Integer.parseInt(prop.getProperty("port").trim());
+        players = Integer.parseInt(prop.getProperty("players", "100").trim());
+        seconds = Integer.parseInt(prop.getProperty("seconds", "60").trim());
+        thinkMin = Integer.parseInt(prop.getProperty("thinkMin", "0").trim());
+        thinkMax = Integer.parseInt(prop.getProperty("thinkMax", "20").trim());
+        strategy = prop.getProperty("strategy", "solver").trim();
+        invalidRatio = Double.parseDouble(prop.getProperty("invalidRatio", "0.02").trim());
+        wordsFile = prop.getProperty("words", "../ServerWordle/words.txt").trim();
+        threads = prop.getProperty("threads", "virtual").trim();
+        prefix = prop.getProperty("prefix", "load").trim();
+        password = prop.getProperty("password", "loadpw").trim();
+        protocol = Integer.parseInt(prop.getProperty("protocol", "2").trim());
+        if (!strategy.equals("solver") && !strategy.equals("random"))
+            throw new IllegalArgumentException("strategy deve essere random oppure solver");
+    }
+
+    /*
+     *   virtual thread se la JVM li supporta (Java 21), altrimenti un thread di piattaforma per giocatore
+     */
+    private static ExecutorService newExecutor() {
+        if (threads.equals("virtual")) {
+            try {
+                return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+            } catch (ReflectiveOperationException e) {
+                System.out.println("Virtual thread non disponibili in questa JVM, utilizzo thread di piattaforma.");
+            }
+        }
+        return Executors.newFixedThreadPool(players);
+    }
+
+    public static void main(String[] args) throws Exception {
+        readConfig(args);
+        words = Files.readAllLines(Path.of(wordsFile), StandardCharsets.UTF_8).stream()
+                .map(String::trim).filter(w -> w.length() == WORD_LENGTH).toArray(String[]::new);
+        for (msgType type : msgType.values())
+            latencies[type.ordinal()] = new LatencyHistogram();
+
+        System.out.printf("%d giocatori verso %s:%d per %d s, think %d-%d ms, strategia %s%n",
+                players, hostname, port, seconds, thinkMin, thinkMax, strategy);
+        ExecutorService executor = newExecutor();
+        long start = System.nanoTime();
+        for (int i = 0; i < players; i++)
+            executor.execute(new Player(i));
+        Thread.sleep(seconds * 1000L);
+        running = false;
+        executor.shutdown();
+        if (!executor.awaitTermination(30, TimeUnit.SECONDS))
+            executor.shutdownNow();
+        double elapsed = (System.nanoTime() - start) / 1e9;
+
+        long total = 0;
+        System.out.printf("%n%-11s %10s %10s %9s %9s %9s %9s %9s%n",
+                "comando", "richieste", "NOTOK", "req/s", "p50 ms", "p99 ms", "p999 ms", "max ms");
+        for (msgType type : msgType.values()) {
+            LatencyHistogram histogram = latencies[type.ordinal()];
+            long count = histogram.count.sum();
+            if (count == 0)
+                continue;
+            total += count;
+            System.out.printf("%-11s %10d %10d %9.0f %9.3f %9.3f %9.3f %9.3f%n", type, count, histogram.errors.sum(),
+                    count / elapsed, histogram.percentile(0.50) / 1e6, histogram.percentile(0.99) / 1e6,
+                    histogram.percentile(0.999) / 1e6, histogram.max.get() / 1e6);
+        }
+        System.out.printf("%ntotale: %d richieste in %.1f s (%.0f req/s), partite vinte %d, perse %d, errori di I/O %d%n",
+                total, elapsed, total / elapsed, gamesWon.sum(), gamesLost.sum(), ioErrors.sum());
+    }
+}
@@ -0,0 +1,133 @@
+import java.io.*;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.lang.management.ThreadMXBean;
+import java.net.Socket;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+
+/*
+ *   Benchmark del numero di connessioni: avvia ServerMain nella stessa JVM con il serverMode indicato,
+ *   apre N connessioni mantenendole aperte e misura thread vivi, heap occupato e latenza delle risposte.
+ *   Utilizzo (dalla cartella ServerWordle):
+ *       java -cp .:gson-2.10.jar ConnectionBenchmark <threads|virtual|nio> <connessioni> [porta]
+ *   Per confrontare i modelli si esegue una volta per ciascun serverMode, ciascuno nella propria JVM.
+ */
+public class ConnectionBenchmark {
+    public static void main(String[] args) throws Exception {
+        if (args.length < 2) {
+            System.out.println("uso: ConnectionBenchmark <threads|virtual|nio> <connessioni> [porta]");
+            return;
+        }
+        String mode = args[0];
+        int connections = Integer.parseInt(args[1]);
+        int port = args.length > 2 ? Integer.parseInt(args[2]) : 8100;
+
+        /*  configurazione temporanea: stessa del server ma con serverMode e porta del benchmark,
+            e con un file utenti separato per non riscrivere users.json alla chiusura    */
+        Properties prop = new Properties();
+        try (InputStream input = new FileInputStream("server.properties")) {
+            prop.load(input);
+        }
+        Path config = Files.createTempFile("wordle-bench", ".properties");
+        Path usersCopy = Files.createTempFile("wordle-bench-users", ".json");
+        prop.setProperty("serverMode", mode);
+        prop.setProperty("port", String.valueOf(port));
+        prop.setProperty("usersFile", usersCopy.toString());
+        try (OutputStream output = Files.newOutputStream(config)) {
+            prop.store(output, null);
+        }
+
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+        int baseThreads = threads.getThreadCount();
+        System.gc();
+        long baseHeap = memory.getHeapMemoryUsage().getUsed();
+
+        Thread server = new Thread(() -> {
+            try {
+                ServerMain.main(new String[]{config.toString()});
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        });
+        server.setDaemon(true);
+        server.start();
+        waitForServer(port);
+
+        /*  apertura delle connessioni: ciascuna invia un comando e attende la risposta prima della successiva */
+        List<Socket> sockets = new ArrayList<>(connections);
+        List<BufferedReader> readers = new ArrayList<>(connections);
+        List<PrintWriter> writers = new ArrayList<>(connections);
+        long[] connectLatency = new long[connections];
+        long start = System.nanoTime();
+        for (int i = 0; i < connections; i++) {
+            long t0 = System.nanoTime();
+            Socket socket = new Socket("localhost", port);
+            BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
+            PrintWriter out = new PrintWriter(socket.getOutputStream(), true);
+            out.println("LOGOUT");
+            in.readLine();
+            connectLatency[i] = System.nanoTime() - t0;
+            sockets.add(socket);
+            readers.add(in);
+            writers.add(out);
+        }
+        long openTime = System.nanoTime() - start;
+
+        /*  un giro di comandi su tutte le connessioni aperte   */
+        long[] roundLatency = new long[connections];
+        start = System.nanoTime();
+        for (int i = 0; i < connections; i++) {
+            long t0 = System.nanoTime();
+            writers.get(i).println("LOGOUT");
+            readers.get(i).readLine();
+            roundLatency[i] = System.nanoTime() - t0;
+        }
+        long roundTime = System.nanoTime() - start;
+
+        System.gc();
+        long heap = memory.getHeapMemoryUsage().getUsed() - baseHeap;
+        int liveThreads = threads.getThreadCount() - baseThreads;
+
+        System.out.println("serverMode:              " + mode);
+        System.out.println("connessioni aperte:      " + sockets.size());
+        /*  i virtual thread non compaiono nel conteggio di ThreadMXBean: resta solo quello dei carrier   */
+        System.out.println("thread aggiuntivi:       " + liveThreads);
+        System.out.println("heap occupato (KiB):     " + heap / 1024);
+        System.out.printf("apertura: %.1f ms totali, p50 %.3f ms, p99 %.3f ms%n",
+                openTime / 1e6, percentile(connectLatency, 0.50), percentile(connectLatency, 0.99));
+        System.out.printf("giro di comandi: %.0f comandi/s, p50 %.3f ms, p99 %.3f ms%n",
+                connections / (roundTime / 1e9), percentile(roundLatency, 0.50), percentile(roundLatency, 0.99));
+
+        Files.deleteIfExists(config);
+        System.exit(0);
+    }
+
+    /*
+     *   attesa dell'apertura della porta da parte del server avviato in background
+     */
+    private static void waitForServer(int port) throws InterruptedException {
+        for (int i = 0; i < 100; i++) {
+            try (Socket probe = new Socket("localhost", port)) {
+                /*  il probe invia un comando completo, così il server non vede una connessione chiusa a vuoto */
+                new PrintWriter(probe.getOutputStream(), true).println("EXIT");
+                new BufferedReader(new InputStreamReader(probe.getInputStream())).readLine();
+                return;
+            } catch (IOException e) {
+                Thread.sleep(50);
+            }
+        }
+        throw new IllegalStateException("il server non ha aperto la porta " + port);
+    }
+
+    private static double percentile(long[] samples, double p) {
+        long[] sorted = samples.clone();
+        Arrays.sort(sorted);
+        return sorted[(int) Math.min(sorted.length - 1, Math.floor(p * sorted.length))] / 1e6;
+    }
+}
@@ -1,17 +1,48 @@
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
+import com.google.gson.JsonParseException;
+import com.google.gson.TypeAdapter;
 import com.google.gson.reflect.TypeToken;
 import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
 import com.google.gson.stream.JsonWriter;
 import java.io.*;
 import java.lang.reflect.Type;
 import java.net.*;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.*;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
 import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneId;
 import java.util.*;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.LongSupplier;
+import java.util.function.ToDoubleFunction;
+import java.util.stream.IntStream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.ZipException;
 public class ServerMain {
     /*  tipi di messaggi che è possibile scambiarsi tra client e server */
-    private enum msgType {LOGIN, REGISTER, LOGOUT, EXIT, PLAYWORDLE, SENDWORD, SENDSTATS, SHARE, OK, NOTOK}
+    private enum msgType {LOGIN, REGISTER, LOGOUT, EXIT, PLAYWORDLE, SENDWORD, SENDSTATS, SHARE, STATS, HELLO, RANKING, HISTORY, CLUSTER, ASSIST, OK, NOTOK}
     /*  tipi di stato che può assumere un utente    */
     private enum userState {LOGGED, INTERRUPTED, INGAME}
     /*  numero di porta su cui si mette in ascolto il server    */
@@ -20,12 +51,126 @@ public class ServerMain {
     private static int udpPort;
     /*  indirizzo del gruppo di broadcast   */
     private static String udpAddress;
+    /*  parametri del ShareBroadcaster: messaggi accodabili, finestra di accorpamento e dimensione massima del datagram  */
+    private static int shareQueueCapacity;
+    private static long shareFlushMillis;
+    private static int shareMaxDatagram;
+    private static ShareBroadcaster broadcaster;
     /*  nome del file contenente i dati degli utenti */
     private static String usersFile;
-    /*  parola segreta estratta dal vocabolario in words.txt    */
-    private static volatile String secretWord;
+    /*  formato di usersFile: json oppure binary (vedi BinaryUserStore)  */
+    private static String usersFormat;
+    /*  eager: tutti gli utenti in memoria all'avvio, lazy: utenti letti al LOGIN dall'archivio binario e rimossi
+        dalla memoria oltre userCacheSize residenti (vedi PagedUserStore)  */
+    private static String usersLoading;
+    private static int userCacheSize;
+    private static PagedUserStore pagedUsers;
+    /*  lettura in background delle classifiche in modalità lazy, null quando è terminata  */
+    private static volatile LeaderboardLoader leaderboardLoader;
+    /*  json: riscrittura di usersFile ad ogni modifica, snapshot: riscrittura asincrona e accorpata di usersFile,
+        journal: log append-only compattato periodicamente in usersFile */
+    private static String persistenceMode;
+    /*  intervallo minimo tra due snapshot in modalità snapshot  */
+    private static long snapshotIntervalMillis;
+    private static String journalFile;
+    /*  dimensione del journal oltre la quale viene compattato e intervallo della compattazione periodica   */
+    private static long journalCompactBytes;
+    private static int journalCompactMinutes;
+    private static UserPersistence persistence;
+    /*  modello di gestione delle connessioni: threads (un thread del pool per client), virtual (un virtual thread
+        per client) oppure nio (reactor con Selector)   */
+    private static String serverMode;
+    /*  intervallo di controllo delle modifiche al file delle parole   */
+    private static int vocabularyReloadMinutes;
+    /*  parametri del modello nio: numero di selettori, worker e richieste accodabili sui worker */
+    private static int ioThreads;
+    private static int workerThreads;
+    private static int workerQueue;
+    /*  contropressione per connessione in modalità nio: righe in attesa di esecuzione e byte di risposte non ancora
+        scritti oltre i quali il selettore smette di leggere dal client finché le code non si svuotano   */
+    private static int connectionPendingLines;
+    private static int connectionOutgoingBytes;
+    /*  controllo di ammissione: sessioni contemporanee (oltre si risponde NOTOK e si chiude), connessioni in attesa
+        nella coda di accept del sistema operativo e secondi di inattività dopo cui una connessione viene chiusa   */
+    private static int maxSessions;
+    private static int acceptBacklog;
+    private static int idleTimeoutSeconds;
+    private static Semaphore sessionPermits;
+    /*  limiti di frequenza di SENDWORD e SHARE (comandi al secondo e raffica massima), applicati sia a ciascuna
+        connessione che a ciascun utente (condivisi tra le sue sessioni); rate 0 disabilita il limite    */
+    private static double sendwordRate;
+    private static int sendwordBurst;
+    private static double shareRate;
+    private static int shareBurst;
+    /*  limiti di frequenza per connessione dei comandi di sola lettura (SENDSTATS, STATS, RANKING, HISTORY) e di
+        ASSIST, che ha un limite proprio perché molto più costoso   */
+    private static double queryRate;
+    private static int queryBurst;
+    private static double assistRate;
+    private static int assistBurst;
+    /*  modalità cluster (vedi Cluster): indirizzi host:porta dei nodi (vuoto = server singolo), punti di ciascun
+        nodo sull'anello, chiave dei comandi interni, cartella dei dati dei nodi e intervallo di sincronizzazione
+        della parola con il coordinatore   */
+    private static List<String> clusterNodes;
+    private static int clusterNode;
+    private static int clusterVirtualNodes;
+    private static String clusterKey;
+    private static String clusterDataDir;
+    private static int clusterSyncSeconds;
+    private static Cluster cluster;
+    /*  storico delle partite (vedi GameHistory): cartella dei segmenti (vuoto = disabilitato), dimensione di un
+        segmento compresso e partite accodabili prima di scartarne    */
+    private static String historyDir;
+    private static long historySegmentBytes;
+    private static int historyQueue;
+    private static GameHistory history;
+    /*  parola segreta estratta dal vocabolario in words.txt, con la sua tabella per i suggerimenti    */
+    private static volatile SecretWord secretWord;
+    /*  nome del file contenente il vocabolario e indice in memoria costruito a partire da esso    */
+    private static String wordsFile;
+    /*  packed: indice compatto in heap, mapped: file mappato in memoria per dizionari molto grandi  */
+    private static String vocabularyMode;
+    private static volatile Vocabulary vocabulary;
+    /*  calendario delle parole segrete: file con lo stato, seme iniziale (vuoto = casuale) e parole preparate */
+    private static String wordScheduleFile;
+    private static String wordScheduleSeed;
+    private static int wordSchedulePrefetch = 7;
+    private static volatile WordSchedule wordSchedule;
     private static volatile ConcurrentHashMap<String,User> users;
-    private static final Gson gson = new GsonBuilder().setPrettyPrinting().create();
+    /*  classifiche globali (comando RANKING), aggiornate ad ogni SENDWORD che modifica le statistiche   */
+    private static final Leaderboard[] leaderboards = {
+            new Leaderboard("winrate", false, user -> user.matchPlayed == 0 ? Double.NaN : (double) user.matchWon / user.matchPlayed),
+            new Leaderboard("streak", false, user -> user.matchPlayed == 0 ? Double.NaN : user.streakRecord),
+            new Leaderboard("guesses", true, User::averageGuesses)
+    };
+    /*  lock per la scrittura di users.json: a differenza di synchronized non blocca il carrier thread
+        quando il possessore è un virtual thread in attesa di I/O   */
+    private static final ReentrantLock usersLock = new ReentrantLock();
+    /*  metriche del server e logger asincrono per i messaggi dei thread di gioco    */
+    private static final Metrics metrics = new Metrics();
+    private static final AsyncLogger logger = new AsyncLogger(10000);
+    private static final LatencyHistogram vocabularyLatency = metrics.histogram("vocabulary.check");
+    private static final LatencyHistogram updateUsersLatency = metrics.histogram("users.update");
+    private static final LatencyHistogram snapshotLatency = metrics.histogram("users.snapshot");
+    private static final LongAdder activeSessions = metrics.counter("sessions.active");
+    private static final LongAdder replyFlushes = metrics.counter("protocol.flushes");
+    private static final LongAdder loadedUsers = metrics.counter("users.loaded");
+    private static final LongAdder rejectedSessions = metrics.counter("admission.rejected");
+    private static final LongAdder throttledCommands = metrics.counter("admission.throttled");
+    private static final LongAdder idleSessions = metrics.counter("admission.idleClosed");
+    private static final LongAdder pausedReads = metrics.counter("admission.pausedReads");
+    private static final LongAdder evictedUsers = metrics.counter("users.evicted");
+    /*  abilita il comando STATS, che richiede la chiave di amministrazione statsKey (vuota = comando rifiutato)  */
+    private static boolean statsEnabled;
+    private static String statsKey;
+    /*  comando ASSIST: abilitazione, parole segrete su cui stimare l'informazione attesa e soluzioni in cache   */
+    private static boolean assistEnabled;
+    private static int assistSample;
+    private static int assistCacheSize;
+    private static volatile Solver solver;
+    private static final Gson gson = new GsonBuilder().registerTypeAdapter(User.class, new UserAdapter()).setPrettyPrinting().create();
+    /*  serializzazione su una sola riga utilizzata per i record del journal  */
+    private static final Gson compactGson = new GsonBuilder().registerTypeAdapter(User.class, new UserAdapter()).create();
     /*  tipo utilizzato dal metodo getUsers() per de-serializzare gli utenti in una ConcurrentHashMap*/
     private static final Type hm_type = new TypeToken<ConcurrentHashMap<String, User>>(){}.getType();
 
@@ -34,420 +179,5487 @@ public class ServerMain {
      */
 
     private static void getUsers() throws IOException {
-        JsonReader reader = new JsonReader(new FileReader("users.json"));
-        users = gson.fromJson(reader, hm_type);
-        if (users == null) {
+        File file = new File(usersFile);
+        /*  primo avvio (ad esempio un nuovo nodo del cluster): nessun utente registrato  */
+        if (!file.exists()) {
             users = new ConcurrentHashMap<>();
+            return;
+        }
+        /*  in modalità lazy non si legge nessun utente: l'avvio non dipende dalla dimensione dell'archivio   */
+        if (usersLoading.equals("lazy")) {
+            if (usersFormat.equals("binary") && BinaryUserStore.version(file) >= 3) {
+                pagedUsers = new PagedUserStore(file);
+                users = new ConcurrentHashMap<>();
+                System.out.println("Archivio utenti paginato: " + pagedUsers.size() + " utenti, letti al primo login.");
+                return;
+            }
+            System.out.println("usersLoading=lazy richiede un archivio binary della versione 3 (scritta dal prossimo snapshot): caricamento completo.");
+        }
+        users = readUsers(file, usersFormat);
+    }
+
+    /*
+     *    lettura degli utenti da un file nel formato indicato (json oppure binary)
+     */
+    private static ConcurrentHashMap<String,User> readUsers(File file, String format) throws IOException {
+        if (format.equals("binary"))
+            return BinaryUserStore.read(file);
+        JsonReader reader = new JsonReader(new FileReader(file));
+        ConcurrentHashMap<String,User> loaded = gson.fromJson(reader, hm_type);
+        if (loaded == null) {
+            loaded = new ConcurrentHashMap<>();
         }
         reader.close();
+        return loaded;
+    }
+
+    /*
+     *    scrittura di tutti gli utenti sullo stream nel formato indicato (json oppure binary)
+     */
+    private static void writeUsers(OutputStream output, String format) throws IOException {
+        if (format.equals("binary")) {
+            BinaryUserStore.write(users, output);
+            return;
+        }
+        JsonWriter jsonWriter = new JsonWriter(new BufferedWriter(new OutputStreamWriter(output)));
+        jsonWriter.setIndent("  ");
+        gson.toJson(users, hm_type, jsonWriter);
+        jsonWriter.flush();
+    }
+
+    /*
+     *    Formato binario versionato per gli utenti, letto e scritto in streaming:
+     *    intestazione  MAGIC, VERSION (nelle versioni 1 e 2 seguite dal numero di utenti)
+     *    per utente    username e password (stringhe con prefisso di lunghezza), matchPlayed, matchWon, lastStreak,
+     *                  streakRecord, remainingTrials, lastMatchWon, hasWonToday, guessDistribution come int[12],
+     *                  numero di suggerimenti e suggerimenti (stringhe con prefisso di lunghezza),
+     *                  epoca di gioco (dalla versione 2, assente nella versione 1)
+     *    dalla versione 3, dopo i record:
+     *    indice        tabella hash a indirizzamento aperto (potenza di 2, almeno il doppio degli utenti) di long:
+     *                  offset del record << 16 | 16 bit dell'hash dello username, 0 se la posizione è vuota
+     *    coda          numero di utenti, numero di posizioni dell'indice, offset dell'indice, MAGIC
+     *    L'indice permette di leggere un singolo utente senza caricare l'intero archivio (PagedUserStore).
+     */
+    private static class BinaryUserStore {
+        private static final int MAGIC = 0x57524C44;   // "WRLD"
+        private static final int VERSION = 3;
+        private static final int HEADER_LENGTH = 8;
+        private static final int TRAILER_LENGTH = 4 + 4 + 8 + 4;
+
+        static ConcurrentHashMap<String,User> read(File file) throws IOException {
+            int version = version(file);
+            if (version >= 3) {
+                try (Reader reader = new Reader(file)) {
+                    ConcurrentHashMap<String,User> loaded = new ConcurrentHashMap<>(Math.max(16, reader.remaining() * 4 / 3 + 1));
+                    User user;
+                    while ((user = reader.next()) != null)
+                        loaded.put(user.username, user);
+                    return loaded;
+                }
+            }
+            try (DataInputStream input = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 1 << 16))) {
+                input.readInt();
+                input.readInt();
+                int count = input.readInt();
+                ConcurrentHashMap<String,User> loaded = new ConcurrentHashMap<>(Math.max(16, count * 4 / 3 + 1));
+                for (int i = 0; i < count; i++) {
+                    User user = readRecord(input, version);
+                    loaded.put(user.username, user);
+                }
+                return loaded;
+            }
+        }
+
+        /*  versione dell'archivio, con controllo del MAGIC  */
+        static int version(File file) throws IOException {
+            try (DataInputStream input = new DataInputStream(new FileInputStream(file))) {
+                if (input.readInt() != MAGIC)
+                    throw new IOException(file + " non è un archivio utenti binario");
+                int version = input.readInt();
+                if (version < 1 || version > VERSION)
+                    throw new IOException("versione dell'archivio utenti non supportata: " + version);
+                return version;
+            } catch (EOFException e) {
+                throw new IOException(file + " non è un archivio utenti binario");
+            }
+        }
+
+        /*  coda di un archivio della versione 3: numero di utenti, posizioni dell'indice e suo offset  */
+        static ByteBuffer trailer(File file) throws IOException {
+            try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+                return trailer(channel);
+            }
+        }
+
+        static ByteBuffer trailer(FileChannel channel) throws IOException {
+            ByteBuffer trailer = ByteBuffer.allocate(TRAILER_LENGTH);
+            long position = channel.size() - TRAILER_LENGTH;
+            while (trailer.hasRemaining() && position >= HEADER_LENGTH)
+                if (channel.read(trailer, position + trailer.position()) < 0)
+                    break;
+            if (trailer.hasRemaining() || trailer.getInt(16) != MAGIC)
+                throw new IOException("archivio utenti troncato: coda mancante");
+            return trailer;
+        }
+
+        static User readRecord(DataInput input, int version) throws IOException {
+            User user = new User(input.readUTF(), input.readUTF());
+            user.matchPlayed = input.readInt();
+            user.matchWon = input.readInt();
+            user.lastStreak = input.readInt();
+            user.streakRecord = input.readInt();
+            user.remainingTrials = input.readInt();
+            user.lastMatchWon = input.readBoolean();
+            user.hasWonToday = input.readBoolean();
+            for (int trial = 0; trial < User.MAX_TRIALS; trial++)
+                user.guessDistribution[trial] = input.readInt();
+            int suggestions = input.readUnsignedByte();
+            for (int j = 0; j < suggestions; j++)
+                user.addHint(input.readUTF());
+            if (version >= 2)
+                user.epoch = input.readLong();
+            return user;
+        }
+
+        static void write(Map<String,User> users, OutputStream output) throws IOException {
+            /*  gli utenti vengono fissati prima della scrittura, la mappa può cambiare nel frattempo   */
+            List<User> snapshot = new ArrayList<>(users.values());
+            Writer writer = new Writer(output, snapshot.size());
+            for (User live : snapshot)
+                writer.write(live.snapshot());
+            writer.finish();
+        }
+
+        /*  posizione iniziale nell'indice di uno username con hash h   */
+        static int slot(int h, int slots) {
+            return (h ^ (h >>> 16)) & (slots - 1);
+        }
+
+        /*  16 bit dell'hash conservati nell'indice per scartare le collisioni senza leggere il record  */
+        static int fingerprint(int h) {
+            return (h * 0x9E3779B9 >>> 16) & 0xFFFF;
+        }
+
+        /*
+         *   lettura in streaming dei record di un archivio della versione 3, con l'offset del prossimo record
+         */
+        static class Reader implements Closeable {
+            private final CountingInputStream counter;
+            private final DataInputStream input;
+            private int remaining;
+
+            Reader(File file) throws IOException {
+                FileInputStream stream = new FileInputStream(file);
+                try {
+                    remaining = trailer(stream.getChannel()).getInt(0);
+                    counter = new CountingInputStream(new BufferedInputStream(stream, 1 << 16));
+                    input = new DataInputStream(counter);
+                    if (input.readInt() != MAGIC || input.readInt() != VERSION)
+                        throw new IOException(file + " non è un archivio utenti binario della versione " + VERSION);
+                } catch (IOException e) {
+                    stream.close();
+                    throw e;
+                }
+            }
+
+            int remaining() {
+                return remaining;
+            }
+
+            long offset() {
+                return counter.count();
+            }
+
+            /*  prossimo record, null alla fine dell'archivio  */
+            User next() throws IOException {
+                if (remaining == 0)
+                    return null;
+                remaining--;
+                return readRecord(input, VERSION);
+            }
+
+            /*
+             *   prossimo record copiato senza decodificarlo in record.bytes[0, record.length), per riscriverlo
+             *   così com'è; restituisce lo username, null alla fine dell'archivio
+             */
+            String nextRaw(RawRecord record) throws IOException {
+                if (remaining == 0)
+                    return null;
+                remaining--;
+                record.length = 0;
+                String username = record.username(copyString(record));
+                copyString(record);
+                /*  matchPlayed, matchWon, lastStreak, streakRecord, remainingTrials, due boolean e guessDistribution */
+                copy(record, 5 * Integer.BYTES + 2 + User.MAX_TRIALS * Integer.BYTES);
+                int suggestions = record.bytes[copy(record, 1)] & 0xFF;
+                for (int j = 0; j < suggestions; j++)
+                    copyString(record);
+                /*  epoca   */
+                copy(record, Long.BYTES);
+                return username;
+            }
+
+            /*  copia di n byte in fondo al record, restituisce l'indice del primo   */
+            private int copy(RawRecord record, int n) throws IOException {
+                int start = record.length;
+                if (start + n > record.bytes.length)
+                    record.bytes = Arrays.copyOf(record.bytes, Math.max(record.bytes.length * 2, start + n));
+                input.readFully(record.bytes, start, n);
+                record.length += n;
+                return start;
+            }
+
+            /*  copia di una stringa di writeUTF (lunghezza su 2 byte e caratteri), restituisce l'indice del primo byte */
+            private int copyString(RawRecord record) throws IOException {
+                int start = copy(record, 2);
+                copy(record, ((record.bytes[start] & 0xFF) << 8) | (record.bytes[start + 1] & 0xFF));
+                return start;
+            }
+
+            @Override
+            public void close() throws IOException {
+                input.close();
+            }
+        }
+
+        /*
+         *   record di un archivio copiato come byte (Reader.nextRaw), riutilizzato per tutti i record
+         */
+        static class RawRecord {
+            byte[] bytes = new byte[512];
+            int length;
+
+            /*  username codificato da writeUTF a partire da start  */
+            String username(int start) throws IOException {
+                int length = ((bytes[start] & 0xFF) << 8) | (bytes[start + 1] & 0xFF);
+                return new DataInputStream(new ByteArrayInputStream(bytes, start, 2 + length)).readUTF();
+            }
+        }
+
+        /*
+         *   scrittura in streaming dei record seguiti da indice e coda; expected è una stima del numero di
+         *   utenti usata per dimensionare gli array degli offset
+         */
+        static class Writer {
+            private final DataOutputStream data;
+            private final CountingOutputStream counter;
+            private long[] offsets;
+            private int[] hashes;
+            private int count;
+
+            Writer(OutputStream output, int expected) throws IOException {
+                counter = new CountingOutputStream(new BufferedOutputStream(output, 1 << 16));
+                data = new DataOutputStream(counter);
+                offsets = new long[Math.max(16, expected)];
+                hashes = new int[offsets.length];
+                data.writeInt(MAGIC);
+                data.writeInt(VERSION);
+            }
+
+            /*  posizione nell'indice del record che sta per essere scritto  */
+            private void add(String username) {
+                if (count == offsets.length) {
+                    offsets = Arrays.copyOf(offsets, count * 2);
+                    hashes = Arrays.copyOf(hashes, count * 2);
+                }
+                offsets[count] = counter.count();
+                hashes[count] = username.hashCode();
+                count++;
+            }
+
+            /*  record copiato da un altro archivio della stessa versione, senza ricodificarlo   */
+            void writeRaw(String username, RawRecord record) throws IOException {
+                add(username);
+                data.write(record.bytes, 0, record.length);
+            }
+
+            void write(User user) throws IOException {
+                add(user.username);
+                data.writeUTF(user.username);
+                data.writeUTF(user.password);
+                data.writeInt(user.matchPlayed);
+                data.writeInt(user.matchWon);
+                data.writeInt(user.lastStreak);
+                data.writeInt(user.streakRecord);
+                data.writeInt(user.remainingTrials);
+                data.writeBoolean(user.lastMatchWon);
+                data.writeBoolean(user.hasWonToday);
+                for (int trial = 0; trial < User.MAX_TRIALS; trial++)
+                    data.writeInt(user.guessDistribution[trial]);
+                int suggestions = user.hintCount();
+                data.writeByte(suggestions);
+                for (int j = 0; j < suggestions; j++)
+                    data.writeUTF(user.hint(j));
+                data.writeLong(user.epoch);
+            }
+
+            int count() {
+                return count;
+            }
+
+            void finish() throws IOException {
+                int slots = Integer.highestOneBit(Math.max(8, count) * 2 - 1) << 1;
+                long[] index = new long[slots];
+                for (int i = 0; i < count; i++) {
+                    int slot = slot(hashes[i], slots);
+                    while (index[slot] != 0)
+                        slot = (slot + 1) & (slots - 1);
+                    index[slot] = offsets[i] << 16 | fingerprint(hashes[i]);
+                }
+                long indexOffset = counter.count();
+                for (long entry : index)
+                    data.writeLong(entry);
+                data.writeInt(count);
+                data.writeInt(slots);
+                data.writeLong(indexOffset);
+                data.writeInt(MAGIC);
+                data.flush();
+            }
+        }
+    }
+
+    /*
+     *   stream che conta i byte scritti, per conoscere l'offset di ciascun record durante la scrittura
+     */
+    private static class CountingOutputStream extends FilterOutputStream {
+        private long count;
+
+        CountingOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            count += len;
+        }
+
+        long count() {
+            return count;
+        }
+    }
+
+    /*
+     *   stream che conta i byte letti, per conoscere l'offset del prossimo record durante la lettura
+     */
+    private static class CountingInputStream extends FilterInputStream {
+        private long count;
+
+        CountingInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = in.read();
+            if (b >= 0)
+                count++;
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = in.read(b, off, len);
+            if (n > 0)
+                count += n;
+            return n;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = in.skip(n);
+            count += skipped;
+            return skipped;
+        }
+
+        long count() {
+            return count;
+        }
+    }
+
+    /*
+     *   Archivio utenti paginato (usersLoading = lazy, formato binary dalla versione 3): all'avvio viene letta
+     *   soltanto la coda del file, gli utenti vengono letti su richiesta tramite l'indice hash dell'archivio
+     *   (poche letture posizionali, senza scorrere il file) e restano in users solo finché servono:
+     *   -LOGIN verifica la password sul record letto dal disco e rende residente l'utente solo se è corretta
+     *   -lo snapshot riscrive l'archivio fondendo gli utenti residenti con i record di quelli non caricati
+     *   -dopo lo snapshot, e ogni secondo tra uno snapshot e l'altro (trimUsers), gli utenti senza sessioni e senza
+     *    modifiche da salvare vengono rimossi dalla memoria, dal meno recente, finché i residenti non rientrano in
+     *    userCacheSize (evictUsers); con il journal, se non basta, viene anticipata la compattazione
+     */
+    private static class PagedUserStore {
+        /*  posizioni dell'indice lette con una sola lettura durante la ricerca  */
+        private static final int PROBE_SLOTS = 8;
+        private final File file;
+        /*  il lock in scrittura sostituisce il file aperto dopo uno snapshot, le ricerche usano quello in lettura  */
+        private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+        /*  utenti registrati non ancora presenti nell'archivio  */
+        private final AtomicLong unsaved = new AtomicLong();
+        private FileChannel channel;
+        private int count;
+        private int slots;
+        private long indexOffset;
+
+        PagedUserStore(File file) throws IOException {
+            this.file = file;
+            open();
+        }
+
+        private void open() throws IOException {
+            channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+            try {
+                ByteBuffer trailer = BinaryUserStore.trailer(channel);
+                count = trailer.getInt(0);
+                slots = trailer.getInt(4);
+                indexOffset = trailer.getLong(8);
+            } catch (IOException e) {
+                channel.close();
+                throw e;
+            }
+        }
+
+        /*
+         *   apertura del nuovo archivio dopo uno snapshot: gli utenti in più sono le registrazioni salvate
+         */
+        void reopen() throws IOException {
+            lock.writeLock().lock();
+            try {
+                int previous = count;
+                channel.close();
+                open();
+                unsaved.addAndGet(previous - count);
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+
+        void close() throws IOException {
+            lock.writeLock().lock();
+            try {
+                channel.close();
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+
+        /*  nuovo utente registrato, presente nell'archivio dal prossimo snapshot  */
+        void added() {
+            unsaved.incrementAndGet();
+        }
+
+        /*  utenti registrati, residenti o no    */
+        long size() {
+            return count + unsaved.get();
+        }
+
+        /*  lettura di un utente dall'archivio, null se non è presente   */
+        User load(String username) throws IOException {
+            lock.readLock().lock();
+            try {
+                long offset = find(username);
+                return offset < 0 ? null : recordAt(offset);
+            } finally {
+                lock.readLock().unlock();
+            }
+        }
+
+        boolean contains(String username) throws IOException {
+            return offset(username) >= 0;
+        }
+
+        /*  offset del record dell'utente, -1 se non è presente  */
+        long offset(String username) throws IOException {
+            lock.readLock().lock();
+            try {
+                return find(username);
+            } finally {
+                lock.readLock().unlock();
+            }
+        }
+
+        /*
+         *   ricerca nell'indice a indirizzamento aperto: le posizioni vengono lette a gruppi di PROBE_SLOTS e il
+         *   record viene letto solo quando i 16 bit dell'hash coincidono
+         */
+        private long find(String username) throws IOException {
+            int h = username.hashCode();
+            int fingerprint = BinaryUserStore.fingerprint(h);
+            int slot = BinaryUserStore.slot(h, slots);
+            ByteBuffer entries = ByteBuffer.allocate(PROBE_SLOTS * Long.BYTES);
+            for (int probed = 0; probed < slots; ) {
+                int n = Math.min(PROBE_SLOTS, slots - slot);
+                entries.clear().limit(n * Long.BYTES);
+                readFully(entries, indexOffset + (long) slot * Long.BYTES);
+                for (int i = 0; i < n; i++, probed++) {
+                    long entry = entries.getLong(i * Long.BYTES);
+                    if (entry == 0)
+                        return -1;
+                    if ((entry & 0xFFFF) == fingerprint && usernameAt(entry >>> 16).equals(username))
+                        return entry >>> 16;
+                }
+                slot = (slot + n) & (slots - 1);
+            }
+            return -1;
+        }
+
+        private String usernameAt(long offset) throws IOException {
+            ByteBuffer buffer = read(offset, 256);
+            int length = 2 + (buffer.getShort(0) & 0xFFFF);
+            if (length > buffer.limit())
+                buffer = read(offset, length);
+            return new DataInputStream(new ByteArrayInputStream(buffer.array(), 0, length)).readUTF();
+        }
+
+        /*  il record non ha una lunghezza fissa: si legge un blocco e lo si raddoppia se non basta   */
+        private User recordAt(long offset) throws IOException {
+            for (int length = 1024; ; length *= 2) {
+                ByteBuffer buffer = read(offset, length);
+                try {
+                    return BinaryUserStore.readRecord(new DataInputStream(new ByteArrayInputStream(buffer.array(), 0, buffer.limit())), BinaryUserStore.VERSION);
+                } catch (EOFException e) {
+                    if (buffer.limit() < length)
+                        throw e;
+                }
+            }
+        }
+
+        /*  fino a length byte a partire da offset, senza superare l'inizio dell'indice   */
+        private ByteBuffer read(long offset, int length) throws IOException {
+            ByteBuffer buffer = ByteBuffer.allocate((int) Math.min(length, indexOffset - offset));
+            readFully(buffer, offset);
+            return buffer.flip();
+        }
+
+        private void readFully(ByteBuffer buffer, long position) throws IOException {
+            int start = buffer.position();
+            while (buffer.hasRemaining())
+                if (channel.read(buffer, position + buffer.position() - start) < 0)
+                    throw new EOFException("archivio utenti troncato");
+        }
+
+        /*
+         *   scrittura del nuovo archivio: i record degli utenti non residenti vengono copiati byte per byte dal
+         *   file attuale (senza crearne lo User), quelli dei residenti sostituiti dalla loro copia coerente, i
+         *   nuovi utenti aggiunti in fondo.
+         *   Restituisce le copie scritte, con il numero di modifiche che contengono (User.changes).
+         */
+        List<User> writeMerged(Map<String,User> resident, OutputStream output) throws IOException {
+            HashMap<String,User> copies = new HashMap<>();
+            for (User live : resident.values())
+                copies.put(live.username, live.snapshot());
+            List<User> written = new ArrayList<>(copies.values());
+            try (BinaryUserStore.Reader reader = new BinaryUserStore.Reader(file)) {
+                BinaryUserStore.Writer writer = new BinaryUserStore.Writer(output, reader.remaining() + copies.size());
+                BinaryUserStore.RawRecord record = new BinaryUserStore.RawRecord();
+                String username;
+                while ((username = reader.nextRaw(record)) != null) {
+                    User copy = copies.remove(username);
+                    if (copy != null)
+                        writer.write(copy);
+                    else
+                        writer.writeRaw(username, record);
+                }
+                for (User copy : copies.values())
+                    writer.write(copy);
+                writer.finish();
+            }
+            return written;
+        }
+    }
+
+    /*
+     *   Costruzione delle classifiche in modalità lazy: l'archivio presente all'avvio viene letto in sequenza in
+     *   background, mentre il server accetta già le connessioni. Per ogni record, tenendo il lock dell'utente:
+     *   -se l'utente non è residente entra in classifica con il punteggio del record
+     *   -se è stato caricato da un LOGIN prima del suo record entra con il suo stato attuale (User.ranked)
+     *   Un utente caricato dopo che il suo record è stato letto è già in classifica (passed). Fino alla fine
+     *   della lettura nessun utente viene rimosso dalla memoria (evictUsers).
+     */
+    private static class LeaderboardLoader implements Runnable {
+        private final BinaryUserStore.Reader reader;
+        /*  seconda apertura dello stesso file, per l'offset del record di un utente caricato durante la lettura */
+        private final PagedUserStore startup;
+        /*  offset del primo record non ancora letto  */
+        private volatile long position;
+        private boolean done;
+
+        LeaderboardLoader(File file) throws IOException {
+            reader = new BinaryUserStore.Reader(file);
+            startup = new PagedUserStore(file);
+            position = reader.offset();
+        }
+
+        /*  true se il record dell'utente è già stato letto (o non è nell'archivio di avvio)  */
+        synchronized boolean passed(String username) throws IOException {
+            if (done)
+                return true;
+            long offset = startup.offset(username);
+            return offset < 0 || offset < position;
+        }
+
+        @Override
+        public void run() {
+            long start = System.nanoTime();
+            int ranked = 0;
+            try (BinaryUserStore.Reader input = reader) {
+                User stored;
+                while ((stored = input.next()) != null) {
+                    ReentrantLock lock = User.lockFor(stored.username);
+                    lock.lock();
+                    try {
+                        User resident = users.get(stored.username);
+                        if (resident == null)
+                            addToLeaderboards(stored);
+                        else if (!resident.ranked) {
+                            addToLeaderboards(resident);
+                            resident.ranked = true;
+                        }
+                        position = input.offset();
+                    } finally {
+                        lock.unlock();
+                    }
+                    ranked++;
+                }
+            } catch (IOException e) {
+                /*  le classifiche restano parziali, il server continua a funzionare  */
+                e.printStackTrace();
+            }
+            finish();
+            System.out.printf("Classifiche costruite in background: %d utenti in %d ms%n", ranked, (System.nanoTime() - start) / 1_000_000);
+        }
+
+        private synchronized void finish() {
+            done = true;
+            leaderboardLoader = null;
+            try {
+                startup.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    /*
+     *    strumento di conversione dell'archivio utenti tra JSON e formato binario:
+     *    import <json> <binario>   export <binario> <json>
+     */
+    private static void convertUsers(String command, String source, String target) throws IOException {
+        boolean toBinary = command.equals("import");
+        users = readUsers(new File(source), toBinary ? "json" : "binary");
+        try (FileOutputStream output = new FileOutputStream(target)) {
+            writeUsers(output, toBinary ? "binary" : "json");
+        }
+        System.out.println(users.size() + " utenti convertiti in " + target);
+    }
+
+    /*
+     *    Runnable utilizzato da un thread del server per avviare una nuova partita
+     *    -prende la prossima parola del calendario (WordSchedule), già preparata: la rotazione è uno scambio di
+     *     riferimenti
+     *    -apre una nuova epoca di gioco: tentativi, vittoria giornaliera e suggerimenti di ciascun utente
+     *     vengono resettati pigramente da User.refresh() al primo accesso alla nuova partita, per cui la
+     *     rotazione richiede tempo costante indipendentemente dal numero di utenti registrati
+     */
+
+    public static class WordExtractor implements Runnable {
+        /*
+         *   calendario del vocabolario attuale: dopo un ricaricamento del vocabolario ne viene creato uno nuovo che
+         *   salta le parole già estratte nel round in corso del calendario precedente
+         */
+        private static WordSchedule schedule() {
+            WordSchedule schedule = wordSchedule;
+            if (schedule == null)
+                schedule = new WordSchedule(vocabulary, WordSchedule.newSeed(), 0, null, wordSchedulePrefetch);
+            else if (schedule.vocabulary != vocabulary)
+                schedule = schedule.remap(vocabulary);
+            wordSchedule = schedule;
+            return schedule;
+        }
+
+        /*
+         *   l'epoca è un istante in millisecondi, strettamente crescente: resta distinta da quelle salvate
+         *   negli utenti anche dopo un riavvio del server
+         */
+        private static long nextEpoch() {
+            SecretWord previous = secretWord;
+            long now = System.currentTimeMillis();
+            return previous == null ? now : Math.max(now, previous.epoch + 1);
+        }
+        @Override
+        public void run() {
+            WordSchedule schedule = schedule();
+            secretWord = schedule.next(nextEpoch());
+            logger.log("La nuova parola estratta e': " + secretWord.word);
+            if (cluster != null)
+                cluster.publish(secretWord);
+            if (wordScheduleFile != null) {
+                try {
+                    schedule.save(new File(wordScheduleFile));
+                } catch (IOException e) {
+                    /*  al riavvio il calendario riprenderebbe da una parola già estratta   */
+                    e.printStackTrace();
+                }
+            }
+        }
+    }
+
+    /*
+     *   Calendario delle parole segrete: una permutazione dell'intero vocabolario generata da un seme
+     *   (Fisher-Yates con SplittableRandom) e conservata come int[] di indici, quindi nessuna parola si ripete
+     *   prima di aver usato tutto il vocabolario; esaurita una permutazione si passa alla successiva, con un seme
+     *   derivato. Le prossime prefetch parole sono già pronte come SecretWord con la tabella delle lettere, la
+     *   rotazione assegna soltanto l'epoca.
+     *   Lo stato (seme e numero di parole estratte) viene salvato in wordScheduleFile a ogni rotazione, così
+     *   dopo un riavvio il calendario prosegue; le prossime parole si vedono con: java ServerMain schedule [n]
+     *   Quando il vocabolario viene ricaricato il calendario ricomincia sul nuovo vocabolario, ma il suo primo
+     *   round esclude le parole già estratte nel round interrotto (skipped, salvato anch'esso nello stato): nessuna
+     *   parola si ripete finché il nuovo vocabolario non è stato usato per intero. Le parole estratte che non fanno
+     *   parte del nuovo vocabolario non vengono ricordate: se ricompaiono in un ricaricamento successivo possono
+     *   essere estratte di nuovo.
+     */
+    public static class WordSchedule {
+        final Vocabulary vocabulary;
+        final long seed;
+        private final int prefetch;
+        /*  parole preparate, la prima è la prossima da estrarre  */
+        private final ArrayDeque<SecretWord> prepared = new ArrayDeque<>();
+        /*  numero di parole estratte e di parole preparate dall'inizio del calendario (su tutti i round)   */
+        private long extracted;
+        private long preparedUpTo;
+        /*  indici delle parole escluse dal primo round (null = nessuna) e lunghezza del primo round    */
+        private final BitSet skipped;
+        private final int firstRound;
+        /*  permutazione del round a cui appartiene la prossima parola da preparare  */
+        private int round = -1;
+        private int[] order;
+
+        WordSchedule(Vocabulary vocabulary, long seed, long extracted, BitSet skipped, int prefetch) {
+            this.vocabulary = vocabulary;
+            this.seed = seed;
+            this.prefetch = Math.max(1, prefetch);
+            this.extracted = extracted;
+            this.preparedUpTo = extracted;
+            this.skipped = skipped == null || skipped.isEmpty() ? null : skipped;
+            this.firstRound = vocabulary.size() - (this.skipped == null ? 0 : this.skipped.cardinality());
+            fill();
+        }
+
+        static long newSeed() {
+            return new SplittableRandom().nextLong();
+        }
+
+        /*
+         *   calendario salvato in file se si riferisce a un vocabolario della stessa dimensione, altrimenti un
+         *   calendario nuovo con il seme indicato (null = casuale)
+         */
+        static WordSchedule load(File file, Vocabulary vocabulary, String seed, int prefetch) throws IOException {
+            if (file.exists()) {
+                Properties state = new Properties();
+                try (InputStream input = new FileInputStream(file)) {
+                    state.load(input);
+                }
+                if (Integer.parseInt(state.getProperty("size", "-1")) == vocabulary.size()) {
+                    String skipped = state.getProperty("skipped", "");
+                    return new WordSchedule(vocabulary, Long.parseLong(state.getProperty("seed")),
+                            Long.parseLong(state.getProperty("extracted")),
+                            skipped.isEmpty() ? null : BitSet.valueOf(Base64.getDecoder().decode(skipped)), prefetch);
+                }
+            }
+            return new WordSchedule(vocabulary, seed == null || seed.isEmpty() ? newSeed() : Long.parseLong(seed), 0, null, prefetch);
+        }
+
+        /*
+         *   calendario per un nuovo vocabolario con lo stesso seme: il suo primo round salta le parole già estratte
+         *   nel round in corso di questo calendario (comprese quelle che questo saltava, se è ancora al primo round)
+         */
+        synchronized WordSchedule remap(Vocabulary next) {
+            HashSet<String> drawn = new HashSet<>();
+            long start = extracted < firstRound ? 0 : extracted - (extracted - firstRound) % vocabulary.size();
+            for (long p = start; p < extracted; p++)
+                drawn.add(wordAt(p));
+            if (start == 0 && skipped != null)
+                for (int i = skipped.nextSetBit(0); i >= 0; i = skipped.nextSetBit(i + 1))
+                    drawn.add(vocabulary.word(i));
+            BitSet skip = new BitSet(next.size());
+            for (int i = 0; i < next.size() && !drawn.isEmpty(); i++)
+                if (drawn.remove(next.word(i)))
+                    skip.set(i);
+            return new WordSchedule(next, seed, 0, skip, prefetch);
+        }
+
+        /*  scrittura atomica dello stato del calendario  */
+        synchronized void save(File file) throws IOException {
+            Properties state = new Properties();
+            state.setProperty("seed", Long.toString(seed));
+            state.setProperty("extracted", Long.toString(extracted));
+            state.setProperty("size", Integer.toString(vocabulary.size()));
+            if (skipped != null)
+                state.setProperty("skipped", Base64.getEncoder().encodeToString(skipped.toByteArray()));
+            File target = file.getAbsoluteFile();
+            File temp = new File(target.getParentFile(), target.getName() + ".tmp");
+            try (OutputStream output = new FileOutputStream(temp)) {
+                state.store(output, "calendario delle parole segrete");
+            }
+            Files.move(temp.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+
+        /*
+         *   prossima parola del calendario, aperta nell'epoca indicata
+         */
+        synchronized SecretWord next(long epoch) {
+            SecretWord word = prepared.poll().withEpoch(epoch);
+            extracted++;
+            fill();
+            return word;
+        }
+
+        /*
+         *   le prossime n parole, senza estrarle
+         */
+        synchronized List<String> upcoming(int n) {
+            List<String> words = new ArrayList<>(n);
+            for (SecretWord word : prepared) {
+                if (words.size() == n)
+                    return words;
+                words.add(word.word);
+            }
+            for (long index = preparedUpTo; words.size() < n; index++)
+                words.add(wordAt(index));
+            return words;
+        }
+
+        private void fill() {
+            while (prepared.size() < prefetch) {
+                prepared.add(new SecretWord(wordAt(preparedUpTo), 0));
+                preparedUpTo++;
+            }
+        }
+
+        /*
+         *   parola in posizione p del calendario: il primo round ha firstRound parole, i successivi l'intero
+         *   vocabolario
+         */
+        private String wordAt(long p) {
+            int size = vocabulary.size();
+            int r = p < firstRound ? 0 : (int) (1 + (p - firstRound) / size);
+            if (r != round) {
+                order = r == 0 && skipped != null ? firstPermutation() : permutation(r);
+                round = r;
+            }
+            return vocabulary.word(order[(int) (r == 0 ? p : (p - firstRound) % size)]);
+        }
+
+        /*  permutazione del primo round senza le parole saltate   */
+        private int[] firstPermutation() {
+            int[] permutation = permutation(0);
+            int kept = 0;
+            for (int index : permutation)
+                if (!skipped.get(index))
+                    permutation[kept++] = index;
+            return Arrays.copyOf(permutation, kept);
+        }
+
+        /*  permutazione degli indici del vocabolario per il round r   */
+        private int[] permutation(int r) {
+            int size = vocabulary.size();
+            int[] permutation = new int[size];
+            for (int i = 0; i < size; i++)
+                permutation[i] = i;
+            SplittableRandom random = new SplittableRandom(seed + r * 0x9E3779B97F4A7C15L);
+            for (int i = size - 1; i > 0; i--) {
+                int j = random.nextInt(i + 1);
+                int swap = permutation[i];
+                permutation[i] = permutation[j];
+                permutation[j] = swap;
+            }
+            return permutation;
+        }
+    }
+
+    /*
+     *   strumento per l'operatore: le prossime n parole segrete del calendario salvato, senza avviare il server
+     */
+    private static void printSchedule(int count) throws IOException {
+        vocabulary = Vocabulary.load(wordsFile, vocabularyMode);
+        File file = new File(wordScheduleFile);
+        if (!file.exists()) {
+            System.out.println("Nessun calendario salvato in " + wordScheduleFile + ": verrà creato al primo avvio del server.");
+            return;
+        }
+        WordSchedule schedule = WordSchedule.load(file, vocabulary, null, wordSchedulePrefetch);
+        List<String> words = schedule.upcoming(count);
+        for (int i = 0; i < words.size(); i++)
+            System.out.println((i + 1) + "\t" + words.get(i));
+    }
+
+
+    /*
+     *   Registro delle metriche del server, letto con il comando STATS:
+     *   -contatori LongAdder, a bassa contesa anche con molti thread che li incrementano
+     *   -istogrammi di latenza (LatencyHistogram)
+     *   -gauge calcolate al momento della lettura (profondità delle code, sessioni attive, ...)
+     */
+    public static class Metrics {
+        private final ConcurrentHashMap<String, LongAdder> counters = new ConcurrentHashMap<>();
+        private final ConcurrentHashMap<String, LatencyHistogram> histograms = new ConcurrentHashMap<>();
+        private final ConcurrentHashMap<String, LongSupplier> gauges = new ConcurrentHashMap<>();
+
+        public LongAdder counter(String name) {
+            return counters.computeIfAbsent(name, k -> new LongAdder());
+        }
+
+        public LatencyHistogram histogram(String name) {
+            return histograms.computeIfAbsent(name, k -> new LatencyHistogram());
+        }
+
+        public void gauge(String name, LongSupplier value) {
+            gauges.put(name, value);
+        }
+
+        /*
+         *   tutte le metriche su una sola riga nel formato nome=valore, latenze in microsecondi
+         */
+        public String report() {
+            TreeMap<String, String> values = new TreeMap<>();
+            counters.forEach((name, counter) -> values.put(name, Long.toString(counter.sum())));
+            gauges.forEach((name, gauge) -> values.put(name, Long.toString(gauge.getAsLong())));
+            histograms.forEach((name, histogram) -> {
+                /*  gli istogrammi ancora vuoti non vengono riportati   */
+                if (histogram.count() == 0)
+                    return;
+                values.put(name + ".count", Long.toString(histogram.count()));
+                values.put(name + ".p50us", Long.toString(histogram.percentile(0.50) / 1000));
+                values.put(name + ".p99us", Long.toString(histogram.percentile(0.99) / 1000));
+                values.put(name + ".p999us", Long.toString(histogram.percentile(0.999) / 1000));
+                values.put(name + ".maxus", Long.toString(histogram.max() / 1000));
+            });
+            StringBuilder report = new StringBuilder();
+            values.forEach((name, value) -> {
+                if (report.length() > 0)
+                    report.append(' ');
+                report.append(name).append('=').append(value);
+            });
+            return report.toString();
+        }
+    }
+
+    /*
+     *   Istogramma di latenze in stile HDR: i valori in nanosecondi finiscono in bucket esponenziali divisi in
+     *   2^SUB_BITS sotto-bucket lineari, quindi l'errore relativo dei percentili è al più 1/2^SUB_BITS.
+     *   La registrazione è lock-free e non alloca.
+     */
+    public static class LatencyHistogram {
+        private static final int SUB_BITS = 3;
+        private static final int SUB_BUCKETS = 1 << SUB_BITS;
+        private final AtomicLongArray buckets = new AtomicLongArray(Long.SIZE * SUB_BUCKETS);
+        private final LongAdder count = new LongAdder();
+        private final LongAccumulator max = new LongAccumulator(Long::max, 0);
+
+        public void record(long nanos) {
+            if (nanos < 0)
+                nanos = 0;
+            buckets.incrementAndGet(index(nanos));
+            count.increment();
+            max.accumulate(nanos);
+        }
+
+        public void recordSince(long startNanos) {
+            record(System.nanoTime() - startNanos);
+        }
+
+        private static int index(long value) {
+            if (value < SUB_BUCKETS)
+                return (int) value;
+            int exponent = 63 - Long.numberOfLeadingZeros(value);
+            int sub = (int) ((value >>> (exponent - SUB_BITS)) & (SUB_BUCKETS - 1));
+            return (exponent - SUB_BITS + 1) * SUB_BUCKETS + sub;
+        }
+
+        /*  estremo superiore (escluso) dei valori del bucket index    */
+        private static long upperBound(int index) {
+            if (index < SUB_BUCKETS)
+                return index + 1;
+            int exponent = index / SUB_BUCKETS + SUB_BITS - 1;
+            long sub = index % SUB_BUCKETS;
+            return (SUB_BUCKETS + sub + 1) << (exponent - SUB_BITS);
+        }
+
+        public long count() {
+            return count.sum();
+        }
+
+        public long max() {
+            return max.get();
+        }
+
+        public long percentile(double p) {
+            long total = 0;
+            for (int i = 0; i < buckets.length(); i++)
+                total += buckets.get(i);
+            if (total == 0)
+                return 0;
+            long target = Math.max(1, (long) Math.ceil(p * total));
+            long seen = 0;
+            for (int i = 0; i < buckets.length(); i++) {
+                seen += buckets.get(i);
+                if (seen >= target)
+                    return Math.min(upperBound(i) - 1, max());
+            }
+            return max();
+        }
+    }
+
+    /*
+     *   Logger asincrono: i thread di gioco accodano la riga e proseguono, un thread dedicato la scrive su
+     *   System.out. Se la coda è piena la riga viene scartata e conteggiata invece di bloccare il chiamante.
+     */
+    public static class AsyncLogger implements Runnable {
+        private final ArrayBlockingQueue<String> queue;
+        private final LongAdder dropped = new LongAdder();
+        private final Thread writer = new Thread(this, "async-logger");
+
+        public AsyncLogger(int capacity) {
+            this.queue = new ArrayBlockingQueue<>(capacity);
+            this.writer.setDaemon(true);
+            this.writer.start();
+        }
+
+        public void log(String line) {
+            if (!queue.offer(line))
+                dropped.increment();
+        }
+
+        public int queueDepth() {
+            return queue.size();
+        }
+
+        public long dropped() {
+            return dropped.sum();
+        }
+
+        @Override
+        public void run() {
+            List<String> batch = new ArrayList<>();
+            while (true) {
+                try {
+                    batch.add(queue.take());
+                } catch (InterruptedException e) {
+                    return;
+                }
+                queue.drainTo(batch);
+                for (String line : batch)
+                    System.out.println(line);
+                batch.clear();
+            }
+        }
+
+        /*
+         *   scrittura delle righe rimaste in coda alla chiusura del server
+         */
+        public void close() {
+            List<String> rest = new ArrayList<>();
+            queue.drainTo(rest);
+            for (String line : rest)
+                System.out.println(line);
+        }
+    }
+
+    /*
+     *   Parola segreta del giorno con il conteggio delle sue lettere, calcolato una volta sola all'estrazione.
+     *   Il suggerimento segue le regole di Wordle anche per le lettere ripetute: una lettera della guessed word
+     *   è segnata '?' solo finché nella parola segreta restano occorrenze non già indovinate ('+') o segnalate.
+     */
+    public static class SecretWord {
+        public static final int ALPHABET = 26;
+        public final String word;
+        /*  epoca di gioco aperta dall'estrazione di questa parola    */
+        public final long epoch;
+        private final int[] letterCounts;
+
+        public SecretWord(String word, long epoch) {
+            this.word = word;
+            this.epoch = epoch;
+            this.letterCounts = new int[ALPHABET];
+            for (int i = 0; i < word.length(); i++)
+                letterCounts[word.charAt(i) - 'a']++;
+        }
+
+        private SecretWord(SecretWord prepared, long epoch) {
+            this.word = prepared.word;
+            this.epoch = epoch;
+            this.letterCounts = prepared.letterCounts;
+        }
+
+        /*  la stessa parola, con la tabella delle lettere già calcolata, nell'epoca indicata   */
+        public SecretWord withEpoch(long epoch) {
+            return new SecretWord(this, epoch);
+        }
+
+        /*
+         *   scrittura in hint del suggerimento per guess ('+' posizione corretta, '?' lettera presente altrove,
+         *   'x' lettera assente); counts è un array di appoggio di ALPHABET elementi riutilizzato dal chiamante
+         */
+        public void hint(CharSequence guess, char[] hint, int[] counts) {
+            System.arraycopy(letterCounts, 0, counts, 0, ALPHABET);
+            for (int i = 0; i < Vocabulary.WORD_LENGTH; i++) {
+                char c = guess.charAt(i);
+                if (c == word.charAt(i)) {
+                    hint[i] = '+';
+                    counts[c - 'a']--;
+                }
+                else
+                    hint[i] = 'x';
+            }
+            for (int i = 0; i < Vocabulary.WORD_LENGTH; i++) {
+                int letter = guess.charAt(i) - 'a';
+                if (hint[i] != '+' && counts[letter] > 0) {
+                    hint[i] = '?';
+                    counts[letter]--;
+                }
+            }
+        }
+    }
+
+    /*
+     *   Vocabolario condiviso da tutte le sessioni, costruito una sola volta a partire dal file delle parole.
+     *   Il file ha record di lunghezza fissa: 10 lettere minuscole seguite da '\n', in ordine alfabetico.
+     */
+    public interface Vocabulary {
+        int WORD_LENGTH = 10;
+        int RECORD_LENGTH = WORD_LENGTH + 1;
+
+        boolean contains(CharSequence word);
+
+        /*  parola in posizione index (0 <= index < size()) in ordine alfabetico    */
+        String word(int index);
+
+        int size();
+
+        /*  true se il file è stato modificato dopo la costruzione di questo vocabolario */
+        boolean isStale();
+
+        /*
+         *   costruzione del vocabolario secondo vocabularyMode: packed (indice in heap) oppure mapped (file mappato)
+         */
+        static Vocabulary load(String fileName, String mode) throws IOException {
+            if (mode.equals("mapped"))
+                return MappedVocabulary.load(fileName);
+            return PackedVocabulary.load(fileName);
+        }
+    }
+
+    /*
+     *   Vocabolario caricato in memoria una sola volta all'avvio: ogni parola di 10 lettere viene codificata
+     *   in un long (5 bit per lettera, 'a' = 1 ... 'z' = 26, prima lettera nei bit più significativi).
+     *   Con questa codifica l'ordine numerico coincide con quello alfabetico di words.txt, quindi la ricerca
+     *   è una ricerca binaria su un long[] senza I/O e senza allocazioni.
+     */
+    public static class PackedVocabulary implements Vocabulary {
+        private final long[] words;
+        private final String fileName;
+        private final long lastModified;
+
+        private PackedVocabulary(long[] words, String fileName, long lastModified) {
+            this.words = words;
+            this.fileName = fileName;
+            this.lastModified = lastModified;
+        }
+
+        /*
+         *   lettura del file delle parole (una per riga) e costruzione dell'indice ordinato
+         */
+        public static PackedVocabulary load(String fileName) throws IOException {
+            File file = new File(fileName);
+            long lastModified = file.lastModified();
+            long[] words = new long[(int) (file.length() / RECORD_LENGTH) + 1];
+            int size = 0;
+            try (BufferedReader reader = new BufferedReader(new FileReader(file))) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    if (line.isEmpty())
+                        continue;
+                    long code = encode(line);
+                    if (code < 0)
+                        throw new IOException("parola non valida in " + fileName + ": " + line);
+                    if (size == words.length)
+                        words = Arrays.copyOf(words, size * 2);
+                    words[size++] = code;
+                }
+            }
+            words = Arrays.copyOf(words, size);
+            Arrays.sort(words);
+            return new PackedVocabulary(words, fileName, lastModified);
+        }
+
+        /*
+         *   codifica di una parola di 10 lettere minuscole, -1 se la parola non è codificabile
+         */
+        public static long encode(CharSequence word) {
+            if (word.length() != WORD_LENGTH)
+                return -1;
+            long code = 0;
+            for (int i = 0; i < WORD_LENGTH; i++) {
+                char c = word.charAt(i);
+                if (c < 'a' || c > 'z')
+                    return -1;
+                code = (code << 5) | (c - 'a' + 1);
+            }
+            return code;
+        }
+
+        public static String decode(long code) {
+            char[] word = new char[WORD_LENGTH];
+            for (int i = WORD_LENGTH - 1; i >= 0; i--) {
+                word[i] = (char) ('a' + (code & 0x1F) - 1);
+                code >>>= 5;
+            }
+            return new String(word);
+        }
+
+        @Override
+        public boolean contains(CharSequence word) {
+            long code = encode(word);
+            return code >= 0 && Arrays.binarySearch(words, code) >= 0;
+        }
+
+        @Override
+        public String word(int index) {
+            return decode(words[index]);
+        }
+
+        @Override
+        public int size() {
+            return words.length;
+        }
+
+        @Override
+        public boolean isStale() {
+            return new File(fileName).lastModified() != lastModified;
+        }
+    }
+
+    /*
+     *   Vocabolario per dizionari molto grandi: il file viene mappato in memoria in sola lettura e la ricerca
+     *   binaria confronta direttamente i byte dei record da 11 byte con i caratteri della parola cercata,
+     *   senza creare String. L'heap occupato non dipende dalla dimensione del dizionario e la mappatura è
+     *   condivisa da tutte le sessioni (le letture assolute su un ByteBuffer non ne modificano lo stato).
+     *   Il file è mappato a blocchi di CHUNK_RECORDS record (un MappedByteBuffer è indirizzabile con un int), così
+     *   il dizionario non è limitato a 2 GiB. I record sono verificati una volta al caricamento, direttamente sulla
+     *   mappatura (parole di lettere minuscole in ordine strettamente crescente, la ricerca binaria lo presuppone).
+     *   Le sessioni possono usare ancora il vocabolario precedente dopo un ricaricamento: il nuovo file delle parole
+     *   va quindi sostituito con una rinomina atomica (scrittura di un file temporaneo e mv), che lascia intatte le
+     *   pagine mappate del vecchio; riscriverlo o troncarlo sul posto provoca errori di accesso alla mappatura.
+     */
+    public static class MappedVocabulary implements Vocabulary {
+        /*  record per blocco mappato: 2^26 record da 11 byte, circa 700 MB  */
+        private static final int CHUNK_SHIFT = 26;
+        private static final int CHUNK_RECORDS = 1 << CHUNK_SHIFT;
+        private final MappedByteBuffer[] chunks;
+        private final int size;
+        private final String fileName;
+        private final long lastModified;
+
+        private MappedVocabulary(MappedByteBuffer[] chunks, int size, String fileName, long lastModified) {
+            this.chunks = chunks;
+            this.size = size;
+            this.fileName = fileName;
+            this.lastModified = lastModified;
+        }
+
+        public static MappedVocabulary load(String fileName) throws IOException {
+            File file = new File(fileName);
+            long lastModified = file.lastModified();
+            try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+                long length = channel.size();
+                /*  l'ultimo record può non avere il '\n' finale    */
+                long count = (length + 1) / RECORD_LENGTH;
+                if (count == 0 || (length % RECORD_LENGTH != 0 && length % RECORD_LENGTH != WORD_LENGTH))
+                    throw new IOException(fileName + " non ha record di " + RECORD_LENGTH + " byte");
+                if (count > Integer.MAX_VALUE)
+                    throw new IOException(fileName + " supera il numero massimo di parole (" + Integer.MAX_VALUE + ")");
+                /*  la mappatura resta valida anche dopo la chiusura del canale  */
+                MappedByteBuffer[] chunks = new MappedByteBuffer[(int) ((count + CHUNK_RECORDS - 1) >>> CHUNK_SHIFT)];
+                for (int i = 0; i < chunks.length; i++) {
+                    long start = (long) i * CHUNK_RECORDS * RECORD_LENGTH;
+                    chunks[i] = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(length - start, (long) CHUNK_RECORDS * RECORD_LENGTH));
+                }
+                MappedVocabulary vocabulary = new MappedVocabulary(chunks, (int) count, fileName, lastModified);
+                vocabulary.validate(length);
+                /*  un file riscritto durante il caricamento verrà ricaricato al controllo successivo  */
+                if (channel.size() != length || file.lastModified() != lastModified)
+                    throw new IOException(fileName + " modificato durante il caricamento");
+                return vocabulary;
+            }
+        }
+
+        /*  byte i-esimo del record in posizione index   */
+        private byte get(int index, int i) {
+            return chunks[index >>> CHUNK_SHIFT].get((index & (CHUNK_RECORDS - 1)) * RECORD_LENGTH + i);
+        }
+
+        /*
+         *   verifica dei record: 10 lettere minuscole seguite da '\n' e ordinati in modo strettamente crescente
+         */
+        private void validate(long length) throws IOException {
+            for (int index = 0; index < size; index++) {
+                for (int i = 0; i < WORD_LENGTH; i++) {
+                    byte c = get(index, i);
+                    if (c < 'a' || c > 'z')
+                        throw new IOException("record " + index + " non valido in " + fileName);
+                }
+                if ((long) index * RECORD_LENGTH + WORD_LENGTH < length && get(index, WORD_LENGTH) != '\n')
+                    throw new IOException("record " + index + " non valido in " + fileName);
+                if (index > 0 && compareRecords(index - 1, index) >= 0)
+                    throw new IOException(fileName + " non è ordinato: record " + index);
+            }
+        }
+
+        private int compareRecords(int first, int second) {
+            for (int i = 0; i < WORD_LENGTH; i++) {
+                int diff = get(first, i) - get(second, i);
+                if (diff != 0)
+                    return diff;
+            }
+            return 0;
+        }
+
+        /*
+         *   confronto tra il record in posizione index e la parola, come String.compareTo
+         */
+        private int compare(int index, CharSequence word) {
+            MappedByteBuffer chunk = chunks[index >>> CHUNK_SHIFT];
+            int offset = (index & (CHUNK_RECORDS - 1)) * RECORD_LENGTH;
+            for (int i = 0; i < WORD_LENGTH; i++) {
+                int diff = (chunk.get(offset + i) & 0xFF) - word.charAt(i);
+                if (diff != 0)
+                    return diff;
+            }
+            return 0;
+        }
+
+        @Override
+        public boolean contains(CharSequence word) {
+            if (word.length() != WORD_LENGTH)
+                return false;
+            int low = 0;
+            int high = size - 1;
+            while (low <= high) {
+                int mid = (low + high) >>> 1;
+                int cmp = compare(mid, word);
+                if (cmp < 0)
+                    low = mid + 1;
+                else if (cmp > 0)
+                    high = mid - 1;
+                else
+                    return true;
+            }
+            return false;
+        }
+
+        @Override
+        public String word(int index) {
+            byte[] word = new byte[WORD_LENGTH];
+            chunks[index >>> CHUNK_SHIFT].get((index & (CHUNK_RECORDS - 1)) * RECORD_LENGTH, word);
+            return new String(word, StandardCharsets.US_ASCII);
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
+
+        @Override
+        public boolean isStale() {
+            return new File(fileName).lastModified() != lastModified;
+        }
+    }
+
+    /*
+     *   Runnable eseguito periodicamente dallo scheduler: se il file delle parole è cambiato costruisce un
+     *   nuovo indice e lo sostituisce a quello corrente, le ricerche in corso continuano sul vecchio indice
+     */
+    public static class VocabularyReloader implements Runnable {
+        @Override
+        public void run() {
+            if (!vocabulary.isStale())
+                return;
+            try {
+                vocabulary = Vocabulary.load(wordsFile, vocabularyMode);
+                logger.log("Vocabolario ricaricato: " + vocabulary.size() + " parole.");
+            } catch (IOException e) {
+                /*  in caso di errore resta in uso il vocabolario precedente */
+                e.printStackTrace();
+            }
+        }
+    }
+
+    /*
+     *   ricerca della parola all'interno del vocabolario
+     */
+    public static boolean checkVocabulary(String word) {
+        return checkVocabulary((CharSequence) word);
+    }
+
+    public static boolean checkVocabulary(CharSequence word) {
+        long start = System.nanoTime();
+        boolean found = vocabulary.contains(word);
+        vocabularyLatency.recordSince(start);
+        return found;
+    }
+
+    /*
+     *   Risolutore usato dal comando ASSIST e dallo strumento "solve": a partire dai tentativi di una partita
+     *   (parola proposta e suggerimento) trova le parole del vocabolario ancora compatibili e le ordina per
+     *   informazione attesa, cioè l'entropia dei suggerimenti che ciascuna produrrebbe sulle altre.
+     *   -ogni parola è un bit in bitset di long: per ogni posizione e lettera le parole con quella lettera in
+     *    quella posizione, per ogni lettera e k le parole con almeno k occorrenze. I vincoli di un suggerimento
+     *    diventano AND e AND NOT tra bitset, senza confrontare le parole una per una
+     *   -la valutazione dei candidati è divisa in blocchi eseguiti con un parallel stream (ForkJoinPool comune),
+     *    ogni blocco con i propri array di appoggio
+     *   -con più di sample candidati l'entropia è stimata su sample parole segrete prese a intervalli regolari, e
+     *    solo i candidati migliori secondo una prima stima su un campione più piccolo vengono valutati per intero
+     *   -i risultati restano in una cache LRU indicizzata dall'insieme dei tentativi (l'ordine non conta)
+     *   Gli indici sono in heap, circa HEAP_PER_WORD byte per parola del vocabolario, anche con vocabularyMode = mapped.
+     */
+    static class Solver {
+        /*  byte di heap per parola: 546 bitset (posizioni e occorrenze), lettere e insieme delle lettere  */
+        static final int HEAP_PER_WORD = (Vocabulary.WORD_LENGTH * SecretWord.ALPHABET + SecretWord.ALPHABET * (Vocabulary.WORD_LENGTH + 1)) / 8
+                + Vocabulary.WORD_LENGTH + Integer.BYTES;
+        /*  parole restituite al massimo da una soluzione   */
+        static final int MAX_TOP = 20;
+        /*  suggerimenti possibili: 3 simboli per ciascuna delle 10 posizioni   */
+        private static final int PATTERNS = 59049;
+        private static final int[] POWERS = new int[Vocabulary.WORD_LENGTH];
+        static {
+            POWERS[0] = 1;
+            for (int i = 1; i < POWERS.length; i++)
+                POWERS[i] = POWERS[i - 1] * 3;
+        }
+        /*  candidati valutati da ciascun task del parallel stream    */
+        private static final int BLOCK = 256;
+        /*  candidati valutati sul campione completo quando la prima stima è fatta su un campione ridotto    */
+        private static final int SHORTLIST = 512;
+        final Vocabulary vocabulary;
+        private final int size;
+        /*  long per bitset */
+        private final int slots;
+        /*  lettere delle parole (0 = 'a'), WORD_LENGTH byte per parola nell'ordine del vocabolario    */
+        private final byte[] letters;
+        /*  insieme delle lettere di ciascuna parola, un bit per lettera    */
+        private final int[] masks;
+        /*  [posizione * ALPHABET + lettera]: parole con la lettera nella posizione  */
+        private final long[][] positions;
+        /*  [lettera * (WORD_LENGTH + 1) + k]: parole con almeno k occorrenze della lettera  */
+        private final long[][] counts;
+        private final int sample;
+        private final Map<String, Solution> cache;
+
+        Solver(Vocabulary vocabulary, int sample, int cacheSize) {
+            this.vocabulary = vocabulary;
+            this.size = vocabulary.size();
+            this.slots = (size + 63) >>> 6;
+            this.sample = Math.max(1, sample);
+            this.letters = new byte[size * Vocabulary.WORD_LENGTH];
+            this.masks = new int[size];
+            this.positions = new long[Vocabulary.WORD_LENGTH * SecretWord.ALPHABET][slots];
+            this.counts = new long[SecretWord.ALPHABET * (Vocabulary.WORD_LENGTH + 1)][slots];
+            int[] occurrences = new int[SecretWord.ALPHABET];
+            for (int w = 0; w < size; w++) {
+                String word = vocabulary.word(w);
+                long bit = 1L << w;
+                int slot = w >>> 6;
+                Arrays.fill(occurrences, 0);
+                for (int i = 0; i < Vocabulary.WORD_LENGTH; i++) {
+                    int letter = word.charAt(i) - 'a';
+                    letters[w * Vocabulary.WORD_LENGTH + i] = (byte) letter;
+                    masks[w] |= 1 << letter;
+                    positions[i * SecretWord.ALPHABET + letter][slot] |= bit;
+                    occurrences[letter]++;
+                }
+                for (int letter = 0; letter < SecretWord.ALPHABET; letter++)
+                    for (int k = 0; k <= occurrences[letter]; k++)
+                        counts[letter * (Vocabulary.WORD_LENGTH + 1) + k][slot] |= bit;
+            }
+            this.cache = Collections.synchronizedMap(new LinkedHashMap<>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, Solution> eldest) {
+                    return size() > cacheSize;
+                }
+            });
+        }
+
+        /*
+         *   soluzione dalla cache, calcolata al primo utilizzo; guesses sono codificate come in PackedVocabulary,
+         *   hints come in User (2 bit per lettera)
+         */
+        Solution assist(long[] guesses, int[] hints, int count) {
+            String key = key(guesses, hints, count);
+            Solution solution = cache.get(key);
+            if (solution == null) {
+                /*  due richieste uguali e contemporanee calcolano la stessa soluzione: nessun lock durante il calcolo */
+                solution = solve(guesses, hints, count);
+                cache.put(key, solution);
+            }
+            return solution;
+        }
+
+        private static String key(long[] guesses, int[] hints, int count) {
+            String[] attempts = new String[count];
+            for (int t = 0; t < count; t++)
+                attempts[t] = Long.toString(guesses[t], 36) + ':' + Integer.toString(hints[t], 36);
+            Arrays.sort(attempts);
+            return String.join(" ", attempts);
+        }
+
+        /*
+         *   candidati e classifica per informazione attesa, senza cache
+         */
+        Solution solve(long[] guesses, int[] hints, int count) {
+            int[] words = members(candidates(guesses, hints, count));
+            int[] ranked = words;
+            if (words.length > sample) {
+                /*  molti candidati (tipicamente prima del primo tentativo): una stima su sample / 8 parole segrete
+                    sceglie i SHORTLIST candidati da valutare sul campione completo  */
+                double[] rough = entropies(words, spread(words, Math.max(1, sample / 8)));
+                int[] shortlist = top(rough, SHORTLIST);
+                ranked = new int[shortlist.length];
+                for (int i = 0; i < shortlist.length; i++)
+                    ranked[i] = words[shortlist[i]];
+                /*  ordine alfabetico, così a parità di entropia vince la prima parola come senza preselezione  */
+                Arrays.sort(ranked);
+            }
+            double[] bits = entropies(ranked, spread(words, sample));
+            int[] best = top(bits, MAX_TOP);
+            String[] bestWords = new String[best.length];
+            double[] bestBits = new double[best.length];
+            for (int i = 0; i < best.length; i++) {
+                bestWords[i] = vocabulary.word(ranked[best[i]]);
+                bestBits[i] = bits[best[i]];
+            }
+            return new Solution(words.length, bestWords, bestBits);
+        }
+
+        /*  n parole prese a intervalli regolari da words (tutte se sono al più n)   */
+        private static int[] spread(int[] words, int n) {
+            if (words.length <= n)
+                return words;
+            int[] spread = new int[n];
+            for (int j = 0; j < n; j++)
+                spread[j] = words[(int) ((long) j * words.length / n)];
+            return spread;
+        }
+
+        /*
+         *   entropia di ciascuna parola di guesses sulle parole segrete secrets, a blocchi in parallelo
+         */
+        private double[] entropies(int[] guesses, int[] secrets) {
+            double[] bits = new double[guesses.length];
+            IntStream.range(0, (guesses.length + BLOCK - 1) / BLOCK).parallel().forEach(block -> {
+                int[] histogram = new int[PATTERNS];
+                int[] patterns = new int[secrets.length];
+                int[] remaining = new int[SecretWord.ALPHABET];
+                int end = Math.min(guesses.length, (block + 1) * BLOCK);
+                for (int g = block * BLOCK; g < end; g++)
+                    bits[g] = entropy(guesses[g], secrets, histogram, patterns, remaining);
+            });
+            return bits;
+        }
+
+        /*
+         *   indici dei k valori più alti di scores in ordine decrescente, a parità il primo indice
+         */
+        private static int[] top(double[] scores, int k) {
+            int top = Math.min(k, scores.length);
+            int[] best = new int[top];
+            int found = 0;
+            for (int g = 0; g < scores.length; g++) {
+                int i = found < top ? found++ : top;
+                while (i > 0 && scores[best[i - 1]] < scores[g]) {
+                    if (i < top)
+                        best[i] = best[i - 1];
+                    i--;
+                }
+                if (i < top)
+                    best[i] = g;
+            }
+            return best;
+        }
+
+        /*
+         *   bitset delle parole compatibili con tutti i tentativi
+         */
+        long[] candidates(long[] guesses, int[] hints, int count) {
+            long[] set = new long[slots];
+            Arrays.fill(set, -1L);
+            if ((size & 63) != 0)
+                set[slots - 1] = (1L << size) - 1;
+            int[] present = new int[SecretWord.ALPHABET];
+            boolean[] exact = new boolean[SecretWord.ALPHABET];
+            for (int t = 0; t < count; t++) {
+                Arrays.fill(present, 0);
+                Arrays.fill(exact, false);
+                for (int i = 0; i < Vocabulary.WORD_LENGTH; i++) {
+                    int letter = (int) ((guesses[t] >>> ((Vocabulary.WORD_LENGTH - 1 - i) * 5)) & 0x1F) - 1;
+                    int symbol = (hints[t] >>> (i * 2)) & 3;
+                    long[] here = positions[i * SecretWord.ALPHABET + letter];
+                    if (symbol == 2) {
+                        and(set, here);
+                        present[letter]++;
+                    }
+                    else {
+                        /*  '?' e 'x': la parola segreta ha un'altra lettera in questa posizione  */
+                        andNot(set, here);
+                        if (symbol == 1)
+                            present[letter]++;
+                        /*  una 'x' vuol dire che tutte le occorrenze sono già state indicate da '+' e '?'  */
+                        else
+                            exact[letter] = true;
+                    }
+                }
+                for (int letter = 0; letter < SecretWord.ALPHABET; letter++) {
+                    int base = letter * (Vocabulary.WORD_LENGTH + 1);
+                    if (present[letter] > 0)
+                        and(set, counts[base + present[letter]]);
+                    if (exact[letter])
+                        andNot(set, counts[base + present[letter] + 1]);
+                }
+            }
+            return set;
+        }
+
+        private static void and(long[] set, long[] other) {
+            for (int i = 0; i < set.length; i++)
+                set[i] &= other[i];
+        }
+
+        private static void andNot(long[] set, long[] other) {
+            for (int i = 0; i < set.length; i++)
+                set[i] &= ~other[i];
+        }
+
+        private static int[] members(long[] set) {
+            int count = 0;
+            for (long word : set)
+                count += Long.bitCount(word);
+            int[] members = new int[count];
+            int next = 0;
+            for (int slot = 0; slot < set.length; slot++)
+                for (long word = set[slot]; word != 0; word &= word - 1)
+                    members[next++] = (slot << 6) + Long.numberOfTrailingZeros(word);
+            return members;
+        }
+
+        /*
+         *   entropia (in bit) dei suggerimenti che guess produce sulle parole segrete secrets
+         */
+        private double entropy(int guess, int[] secrets, int[] histogram, int[] patterns, int[] remaining) {
+            int g = guess * Vocabulary.WORD_LENGTH;
+            int guessMask = masks[guess];
+            for (int j = 0; j < secrets.length; j++) {
+                int s = secrets[j] * Vocabulary.WORD_LENGTH;
+                int common = guessMask & masks[secrets[j]];
+                int pattern = 0;
+                /*  stesso algoritmo di SecretWord.hint, con il suggerimento in base 3 ('x' = 0, '?' = 1, '+' = 2);
+                    senza lettere in comune il suggerimento è tutto 'x'  */
+                if (common != 0) {
+                    for (int i = 0; i < Vocabulary.WORD_LENGTH; i++)
+                        remaining[letters[s + i]]++;
+                    for (int i = 0; i < Vocabulary.WORD_LENGTH; i++) {
+                        if (letters[g + i] == letters[s + i]) {
+                            pattern += 2 * POWERS[i];
+                            remaining[letters[g + i]]--;
+                        }
+                    }
+                    for (int i = 0; i < Vocabulary.WORD_LENGTH; i++) {
+                        int letter = letters[g + i];
+                        if ((common & (1 << letter)) != 0 && letter != letters[s + i] && remaining[letter] > 0) {
+                            pattern += POWERS[i];
+                            remaining[letter]--;
+                        }
+                    }
+                    /*  remaining torna a zero per la prossima parola segreta   */
+                    for (int i = 0; i < Vocabulary.WORD_LENGTH; i++)
+                        remaining[letters[s + i]] = 0;
+                }
+                patterns[j] = pattern;
+                histogram[pattern]++;
+            }
+            /*  H = log2(n) - somma(c log2 c) / n; l'istogramma viene azzerato durante la lettura   */
+            double sum = 0;
+            for (int j = 0; j < secrets.length; j++) {
+                int c = histogram[patterns[j]];
+                if (c > 0) {
+                    sum += c * Math.log(c);
+                    histogram[patterns[j]] = 0;
+                }
+            }
+            return (Math.log(secrets.length) - sum / secrets.length) / Math.log(2);
+        }
+
+        /*
+         *   codifica di un suggerimento di '+', '?' e 'x' come in User, -1 se non valido
+         */
+        static int hintCode(CharSequence hint) {
+            if (hint.length() != Vocabulary.WORD_LENGTH)
+                return -1;
+            int code = 0;
+            for (int i = Vocabulary.WORD_LENGTH - 1; i >= 0; i--) {
+                char c = hint.charAt(i);
+                if (c != '+' && c != '?' && c != 'x')
+                    return -1;
+                code = (code << 2) | (c == '+' ? 2 : c == '?' ? 1 : 0);
+            }
+            return code;
+        }
+    }
+
+    /*
+     *   risultato del risolutore: numero di parole compatibili e le migliori (al più Solver.MAX_TOP) con
+     *   l'informazione attesa in bit
+     */
+    static final class Solution {
+        final int candidates;
+        final String[] words;
+        final double[] bits;
+
+        Solution(int candidates, String[] words, double[] bits) {
+            this.candidates = candidates;
+            this.words = words;
+            this.bits = bits;
+        }
+
+        /*  "parola:bit" delle prime n parole separate da spazi, dopo il numero di candidati */
+        String format(int n) {
+            StringBuilder result = new StringBuilder().append(candidates);
+            for (int i = 0; i < Math.min(n, words.length); i++)
+                result.append(' ').append(words[i]).append(':').append(String.format(Locale.ROOT, "%.2f", bits[i]));
+            return result.toString();
+        }
+    }
+
+    /*
+     *   risolutore del vocabolario in uso, ricostruito quando il vocabolario viene ricaricato
+     */
+    private static Solver solver() {
+        Vocabulary current = vocabulary;
+        Solver result = solver;
+        if (result == null || result.vocabulary != current) {
+            result = new Solver(current, assistSample, assistCacheSize);
+            solver = result;
+        }
+        return result;
+    }
+
+    /*
+     *   strumento a riga di comando: parole compatibili con i tentativi <parola>=<suggerimento> e migliori proposte
+     */
+    private static void printSolution(List<String> attempts) throws IOException {
+        vocabulary = Vocabulary.load(wordsFile, vocabularyMode);
+        long[] guesses = new long[attempts.size()];
+        int[] hints = new int[attempts.size()];
+        for (int t = 0; t < attempts.size(); t++) {
+            String[] attempt = attempts.get(t).split("=");
+            guesses[t] = attempt.length == 2 ? PackedVocabulary.encode(attempt[0]) : -1;
+            hints[t] = attempt.length == 2 ? Solver.hintCode(attempt[1]) : -1;
+            if (guesses[t] < 0 || hints[t] < 0)
+                throw new IllegalArgumentException("tentativo non valido (atteso parola=suggerimento): " + attempts.get(t));
+        }
+        long start = System.nanoTime();
+        Solver solver = solver();
+        long built = System.nanoTime();
+        Solution solution = solver.solve(guesses, hints, guesses.length);
+        long solved = System.nanoTime();
+        System.out.println(solution.candidates + " parole compatibili su " + vocabulary.size() + " (indici in "
+                + TimeUnit.NANOSECONDS.toMillis(built - start) + " ms, soluzione in " + TimeUnit.NANOSECONDS.toMillis(solved - built) + " ms)");
+        for (int i = 0; i < solution.words.length; i++)
+            System.out.println((i + 1) + ") " + solution.words[i] + " " + String.format(Locale.ROOT, "%.2f", solution.bits[i]) + " bit");
+    }
+
+    /*
+     *   Invio delle condivisioni ai client del gruppo multicast tramite un unico DatagramChannel:
+     *   -i thread di gioco accodano il messaggio in una coda lock-free e ritornano subito
+     *   -se la coda ha già shareQueueCapacity messaggi il nuovo messaggio viene scartato e conteggiato
+     *   -il thread di invio attende al più shareFlushMillis dopo il primo messaggio e impacchetta più
+     *    messaggi, separati da '\n', in un solo datagram di al più shareMaxDatagram byte
+     *   -il messaggio di terminazione STOP viaggia sempre in un datagram da solo: i client meno recenti smettono di
+     *    leggere il datagram appena lo incontrano e perderebbero le condivisioni impacchettate dopo di esso
+     */
+    public static class ShareBroadcaster implements Runnable {
+        private static final byte[] STOP = "STOP".getBytes();
+        private final DatagramChannel channel;
+        private final InetSocketAddress group;
+        private final ConcurrentLinkedQueue<byte[]> queue = new ConcurrentLinkedQueue<>();
+        private final AtomicInteger queued = new AtomicInteger();
+        private final int capacity;
+        private final long flushWindowNanos;
+        private final ByteBuffer datagram;
+        private final Thread sender = new Thread(this, "share-broadcaster");
+        private volatile boolean running = true;
+        /*  contatori: messaggi accettati, scartati per coda piena, datagram inviati    */
+        private final LongAdder accepted = new LongAdder();
+        private final LongAdder dropped = new LongAdder();
+        private final LongAdder datagrams = new LongAdder();
+
+        public ShareBroadcaster(String address, int port, int capacity, long flushWindowMillis, int maxDatagram) throws IOException {
+            this.channel = DatagramChannel.open();
+            this.group = new InetSocketAddress(InetAddress.getByName(address), port);
+            this.capacity = capacity;
+            this.flushWindowNanos = TimeUnit.MILLISECONDS.toNanos(flushWindowMillis);
+            this.datagram = ByteBuffer.allocate(maxDatagram);
+            this.sender.setDaemon(true);
+            this.sender.start();
+        }
+
+        /*
+         *   accodamento di un messaggio, false se è stato scartato perché la coda è piena
+         */
+        public boolean share(String message) {
+            if (queued.incrementAndGet() > capacity) {
+                queued.decrementAndGet();
+                dropped.increment();
+                return false;
+            }
+            queue.add(message.getBytes());
+            accepted.increment();
+            LockSupport.unpark(sender);
+            return true;
+        }
+
+        @Override
+        public void run() {
+            while (running || !queue.isEmpty()) {
+                byte[] message = queue.poll();
+                if (message == null) {
+                    LockSupport.parkNanos(this, TimeUnit.MILLISECONDS.toNanos(100));
+                    continue;
+                }
+                queued.decrementAndGet();
+                datagram.clear();
+                /*  un messaggio più grande del datagram viene comunque inviato da solo   */
+                ByteBuffer oversize = message.length > datagram.capacity() ? ByteBuffer.wrap(message) : null;
+                if (oversize == null && Arrays.equals(message, STOP)) {
+                    datagram.put(message).flip();
+                }
+                else if (oversize == null) {
+                    datagram.put(message);
+                    long deadline = System.nanoTime() + flushWindowNanos;
+                    while (true) {
+                        byte[] next = queue.peek();
+                        if (next == null) {
+                            long remaining = deadline - System.nanoTime();
+                            if (remaining <= 0 || !running)
+                                break;
+                            LockSupport.parkNanos(this, remaining);
+                            continue;
+                        }
+                        /*  il datagram in costruzione viene inviato prima di STOP  */
+                        if (next.length + 1 > datagram.remaining() || Arrays.equals(next, STOP))
+                            break;
+                        queue.poll();
+                        queued.decrementAndGet();
+                        datagram.put((byte) '\n').put(next);
+                    }
+                    datagram.flip();
+                }
+                try {
+                    channel.send(oversize != null ? oversize : datagram, group);
+                    datagrams.increment();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        }
+
+        public long accepted() {
+            return accepted.sum();
+        }
+
+        public long dropped() {
+            return dropped.sum();
+        }
+
+        public long datagrams() {
+            return datagrams.sum();
+        }
+
+        public int queueDepth() {
+            return queued.get();
+        }
+
+        /*
+         *   chiusura: i messaggi ancora in coda vengono inviati prima di chiudere il canale
+         */
+        public void close() {
+            running = false;
+            LockSupport.unpark(sender);
+            try {
+                sender.join(TimeUnit.SECONDS.toMillis(2));
+                channel.close();
+            } catch (InterruptedException | IOException e) {
+                e.printStackTrace();
+            }
+            System.out.printf("Condivisioni UDP: %d accettate, %d scartate, %d datagram inviati%n",
+                    accepted(), dropped(), datagrams());
+        }
+    }
+
+    /*
+     *      metodo utilizzato per aggiornare i dati degli utenti presenti del file JSON per renderlo sempre consistente
+     */
+    private static void updateUsers() throws IOException {
+        /*  l'archivio paginato contiene anche gli utenti non residenti: va sempre riscritto per intero    */
+        if (pagedUsers != null) {
+            writeUsersSnapshot();
+            return;
+        }
+        usersLock.lock();
+        long start = System.nanoTime();
+        try {
+            /*  aggiornamento dei dati utente nel file JSON mediante Gson (o nel formato binario)   */
+            try (FileOutputStream output = new FileOutputStream(usersFile, false)) {
+                writeUsers(output, usersFormat);
+            }
+        } finally {
+            updateUsersLatency.recordSince(start);
+            usersLock.unlock();
+        }
+    }
+
+    /*
+     *   scrittura atomica dello snapshot degli utenti: file temporaneo rinominato su usersFile,
+     *   così un crash durante la scrittura non lascia mai un users.json troncato
+     */
+    private static void writeUsersSnapshot() throws IOException {
+        usersLock.lock();
+        long start = System.nanoTime();
+        try {
+            File target = new File(usersFile).getAbsoluteFile();
+            File temp = new File(target.getParentFile(), target.getName() + ".tmp");
+            List<User> written = null;
+            try (FileOutputStream output = new FileOutputStream(temp)) {
+                if (pagedUsers != null)
+                    written = pagedUsers.writeMerged(users, output);
+                else
+                    writeUsers(output, usersFormat);
+                output.getFD().sync();
+            }
+            Files.move(temp.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            if (pagedUsers != null) {
+                pagedUsers.reopen();
+                markPersisted(written);
+                evictUsers();
+            }
+        } finally {
+            snapshotLatency.recordSince(start);
+            usersLock.unlock();
+        }
+    }
+
+    /*
+     *   le modifiche contenute nelle copie scritte nello snapshot sono ora nell'archivio
+     */
+    private static void markPersisted(List<User> written) {
+        for (User copy : written) {
+            User live = users.get(copy.username);
+            if (live == null)
+                continue;
+            ReentrantLock lock = live.lock();
+            lock.lock();
+            try {
+                live.persisted = Math.max(live.persisted, copy.changes);
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    /*
+     *   rimozione dalla memoria degli utenti in eccesso rispetto a userCacheSize, dal meno recente: solo utenti
+     *   senza sessioni aperte e con tutte le modifiche già scritte nell'archivio (al prossimo LOGIN vengono riletti).
+     *   Restituisce il numero di utenti senza sessioni che restano in memoria solo per modifiche non ancora salvate
+     */
+    private static int evictUsers() {
+        int excess = users.size() - userCacheSize;
+        if (excess <= 0 || leaderboardLoader != null)
+            return 0;
+        List<Map.Entry<Long,User>> candidates = new ArrayList<>();
+        int unsaved = 0;
+        for (User user : users.values()) {
+            if (user.sessions == 0 && user.persisted == user.changes)
+                candidates.add(new AbstractMap.SimpleEntry<>(user.lastAccess, user));
+            else if (user.sessions == 0)
+                unsaved++;
+        }
+        candidates.sort(Map.Entry.comparingByKey());
+        int evicted = 0;
+        for (Map.Entry<Long,User> candidate : candidates) {
+            if (evicted == excess)
+                break;
+            User user = candidate.getValue();
+            ReentrantLock lock = user.lock();
+            lock.lock();
+            try {
+                /*  condizioni ricontrollate sotto il lock: nel frattempo l'utente può aver eseguito il login */
+                if (user.sessions == 0 && user.persisted == user.changes && users.remove(user.username, user))
+                    evicted++;
+            } finally {
+                lock.unlock();
+            }
+        }
+        evictedUsers.add(evicted);
+        return unsaved;
+    }
+
+    /*
+     *   controllo periodico dei residenti in modalità lazy: gli utenti in eccesso già salvati vengono rimossi anche
+     *   tra due snapshot. Con il journal le modifiche entrano nell'archivio solo alla compattazione, quindi se
+     *   restano in eccesso utenti con modifiche non salvate viene chiesta una compattazione anticipata
+     */
+    private static void trimUsers() {
+        if (users.size() <= userCacheSize)
+            return;
+        int unsaved;
+        usersLock.lock();
+        try {
+            unsaved = evictUsers();
+        } finally {
+            usersLock.unlock();
+        }
+        if (unsaved > 0 && users.size() > userCacheSize && persistence instanceof UserJournal)
+            ((UserJournal) persistence).requestCompaction();
+    }
+
+    /*
+     *   Strategia di persistenza dei dati utente, scelta con persistenceMode in server.properties
+     */
+    private interface UserPersistence {
+        /*  nuovo utente registrato  */
+        void userRegistered(User user) throws IOException;
+
+        /*  true se userChanged usa il tentativo (UserChange), da costruire sotto il lock dell'utente  */
+        default boolean recordsChanges() {
+            return false;
+        }
+
+        /*  l'utente ha modificato il proprio stato di gioco con un tentativo (change null se non richiesto)    */
+        void userChanged(User user, UserChange change) throws IOException;
+
+        /*  salvataggio finale alla chiusura del server  */
+        void close() throws IOException;
+    }
+
+    /*
+     *   Campi di un utente modificati da un tentativo di SENDWORD, per il journal: suggerimento aggiunto, tentativi
+     *   rimasti e partite giocate e, a partita conclusa, l'esito con le statistiche che ne dipendono. I valori sono
+     *   assoluti e il suggerimento ha la sua posizione, quindi riapplicare un tentativo già contenuto nello stato
+     *   (ad esempio accodato durante una compattazione) non cambia il risultato.
+     */
+    static class UserChange {
+        String username;
+        long epoch;
+        int matchPlayed;
+        int remainingTrials;
+        int hintIndex;
+        String hint;
+        /*  presenti solo a partita conclusa (null altrimenti, omessi da Gson)   */
+        Boolean won;
+        Integer matchWon;
+        Integer lastStreak;
+        Integer streakRecord;
+        /*  partite vinte al tentativo hintIndex + 1, solo in caso di vittoria   */
+        Integer wins;
+
+        /*  tentativo appena registrato nell'utente, letto sotto il suo lock  */
+        static UserChange of(User user) {
+            UserChange change = new UserChange();
+            change.username = user.username;
+            change.epoch = user.epoch;
+            change.matchPlayed = user.matchPlayed;
+            change.remainingTrials = user.remainingTrials;
+            change.hintIndex = user.hintCount() - 1;
+            change.hint = user.hint(change.hintIndex);
+            if (user.hasWonToday || user.remainingTrials == 0) {
+                change.won = user.hasWonToday;
+                change.matchWon = user.matchWon;
+                change.lastStreak = user.lastStreak;
+                change.streakRecord = user.streakRecord;
+                /*  il tentativo vincente è l'ultimo suggerimento: guessDistribution[12 - tentativi rimasti prima]  */
+                if (user.hasWonToday)
+                    change.wins = user.guessDistribution[change.hintIndex];
+            }
+            return change;
+        }
+
+        /*  riapplicazione del tentativo, ignorata se lo stato dell'utente lo contiene già o è di un'epoca successiva */
+        void apply(User user) {
+            if (epoch < user.epoch || (epoch == user.epoch && user.hintCount() > hintIndex))
+                return;
+            user.refresh(epoch);
+            user.addHint(hint);
+            user.matchPlayed = matchPlayed;
+            user.remainingTrials = remainingTrials;
+            if (won != null) {
+                user.hasWonToday = won;
+                user.lastMatchWon = won;
+                user.matchWon = matchWon;
+                user.lastStreak = lastStreak;
+                user.streakRecord = streakRecord;
+                if (wins != null)
+                    user.guessDistribution[hintIndex] = wins;
+            }
+        }
+    }
+
+    /*
+     *   persistenza originale: l'intero file JSON viene riscritto ad ogni modifica
+     */
+    private static class JsonPersistence implements UserPersistence {
+        @Override
+        public void userRegistered(User user) throws IOException {
+            updateUsers();
+        }
+
+        @Override
+        public void userChanged(User user, UserChange change) throws IOException {
+            updateUsers();
+        }
+
+        @Override
+        public void close() throws IOException {
+            updateUsers();
+        }
+    }
+
+    /*
+     *   Snapshot asincrono: i thread delle richieste segnano soltanto che lo stato è cambiato, un unico thread
+     *   scrive usersFile (in modo atomico) al più una volta ogni snapshotIntervalMillis, accorpando in una sola
+     *   scrittura tutte le modifiche arrivate nel frattempo. In caso di crash si perde al più un intervallo.
+     */
+    private static class SnapshotWriter implements UserPersistence {
+        private final AtomicBoolean dirty = new AtomicBoolean(false);
+        private final ScheduledExecutorService writer = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "users-snapshot");
+            thread.setDaemon(true);
+            return thread;
+        });
+        /*  metriche: modifiche segnalate, snapshot scritti e latenza di scrittura  */
+        private final LongAdder changes = new LongAdder();
+        private final LongAdder writes = new LongAdder();
+        private final LongAdder totalLatencyNanos = new LongAdder();
+        private volatile long lastLatencyNanos;
+        private volatile long maxLatencyNanos;
+
+        SnapshotWriter(long intervalMillis) {
+            writer.scheduleWithFixedDelay(this::flushQuietly, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+        }
+
+        private void markDirty() {
+            changes.increment();
+            dirty.set(true);
+        }
+
+        @Override
+        public void userRegistered(User user) {
+            markDirty();
+        }
+
+        @Override
+        public void userChanged(User user, UserChange change) {
+            markDirty();
+        }
+
+        /*
+         *   scrittura dello snapshot solo se qualcosa è cambiato dall'ultima volta
+         */
+        void flush() throws IOException {
+            if (!dirty.getAndSet(false))
+                return;
+            long start = System.nanoTime();
+            try {
+                writeUsersSnapshot();
+            } catch (IOException e) {
+                /*  lo snapshot non è stato scritto: si riprova al prossimo intervallo    */
+                dirty.set(true);
+                throw e;
+            }
+            long latency = System.nanoTime() - start;
+            writes.increment();
+            totalLatencyNanos.add(latency);
+            lastLatencyNanos = latency;
+            if (latency > maxLatencyNanos)
+                maxLatencyNanos = latency;
+        }
+
+        private void flushQuietly() {
+            try {
+                flush();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+
+        public long changes() {
+            return changes.sum();
+        }
+
+        public long writes() {
+            return writes.sum();
+        }
+
+        /*  scritture evitate grazie all'accorpamento rispetto a una scrittura per modifica  */
+        public long writesSaved() {
+            return Math.max(0, changes.sum() - writes.sum());
+        }
+
+        public double averageLatencyMillis() {
+            long count = writes.sum();
+            return count == 0 ? 0 : totalLatencyNanos.sum() / 1e6 / count;
+        }
+
+        public double lastLatencyMillis() {
+            return lastLatencyNanos / 1e6;
+        }
+
+        public double maxLatencyMillis() {
+            return maxLatencyNanos / 1e6;
+        }
+
+        /*
+         *   chiusura: si attende l'eventuale scrittura in corso e si esegue l'ultimo flush
+         */
+        @Override
+        public void close() throws IOException {
+            writer.shutdown();
+            try {
+                if (!writer.awaitTermination(4, TimeUnit.SECONDS))
+                    System.out.println("Lo snapshot in corso non è terminato nei tempi previsti.");
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            flush();
+            System.out.printf("Snapshot utenti: %d modifiche, %d scritture (%d evitate), latenza media %.2f ms, massima %.2f ms%n",
+                    changes(), writes(), writesSaved(), averageLatencyMillis(), maxLatencyMillis());
+        }
+    }
+
+    /*
+     *   Journal append-only dello stato degli utenti:
+     *   -ogni modifica accoda un record di una riga: REGISTER con lo stato dell'utente, GUESS con i soli campi
+     *    modificati da un tentativo (UserChange), così la crescita del journal dipende dalla modifica e non dalla
+     *    dimensione dell'utente; i record UPDATE con l'utente completo delle versioni precedenti vengono ancora letti
+     *   -un unico thread scrive i record accumulati in un solo batch e ne esegue un solo fsync (group commit),
+     *    il thread della richiesta attende soltanto il completamento del batch che contiene il suo record
+     *   -quando il journal supera journalCompactBytes, o periodicamente, viene compattato riscrivendo usersFile
+     *    e svuotando il journal
+     *   All'avvio lo stato è ricostruito leggendo usersFile e riapplicando i record del journal.
+     */
+    private static class UserJournal implements UserPersistence, Runnable {
+        private static final String REGISTER = "REGISTER";
+        private static final String GUESS = "GUESS";
+        /*  record vuoto accodato per richiedere una compattazione al thread di scrittura   */
+        private static final Entry COMPACT = new Entry(null);
+        private final File file;
+        private final long compactBytes;
+        private final LinkedBlockingQueue<Entry> queue = new LinkedBlockingQueue<>();
+        private final Thread writer = new Thread(this, "user-journal");
+        /*  compattazione già accodata e non ancora eseguita: le richieste successive vengono ignorate   */
+        private final AtomicBoolean compactionPending = new AtomicBoolean(false);
+        private FileOutputStream output;
+        private volatile boolean running = true;
+
+        /*  record del journal, serializzato con Gson su una riga: user per REGISTER (e UPDATE), change per GUESS   */
+        private static class Record {
+            String op;
+            User user;
+            UserChange change;
+
+            Record(String op, User user, UserChange change) {
+                this.op = op;
+                this.user = user;
+                this.change = change;
+            }
+        }
+
+        /*  record in attesa di scrittura con il future completato dopo l'fsync del batch   */
+        private static class Entry {
+            final byte[] line;
+            final CompletableFuture<Void> done = new CompletableFuture<>();
+
+            Entry(byte[] line) {
+                this.line = line;
+            }
+        }
+
+        UserJournal(String fileName, long compactBytes) {
+            this.file = new File(fileName);
+            this.compactBytes = compactBytes;
+            this.writer.setDaemon(true);
+        }
+
+        /*
+         *   rilettura del journal sopra lo snapshot già caricato da getUsers(); un'ultima riga incompleta
+         *   (crash durante la scrittura) viene ignorata
+         */
+        void replay() throws IOException {
+            if (!file.exists())
+                return;
+            int applied = 0;
+            try (BufferedReader reader = new BufferedReader(new FileReader(file))) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    Record record;
+                    try {
+                        record = compactGson.fromJson(line, Record.class);
+                    } catch (JsonParseException e) {
+                        System.out.println("Record del journal incompleto ignorato.");
+                        break;
+                    }
+                    if (record != null && record.change != null) {
+                        if (replay(record.change))
+                            applied++;
+                        continue;
+                    }
+                    /*  i record ROTATE delle versioni precedenti non servono più: il reset è pigro (User.refresh)  */
+                    if (record == null || record.user == null)
+                        continue;
+                    /*  lo stato riapplicato non è ancora nell'archivio: resta in memoria fino alla compattazione */
+                    record.user.changes = 1;
+                    if (users.put(record.user.username, record.user) == null && pagedUsers != null && !pagedUsers.contains(record.user.username))
+                        pagedUsers.added();
+                    applied++;
+                }
+            }
+            System.out.println("Journal: " + applied + " record riapplicati.");
+        }
+
+        /*
+         *   tentativo riapplicato all'utente residente o, in modalità lazy, letto dall'archivio e reso residente
+         */
+        private static boolean replay(UserChange change) throws IOException {
+            User user = users.get(change.username);
+            if (user == null && pagedUsers != null && (user = pagedUsers.load(change.username)) != null)
+                users.put(change.username, user);
+            if (user == null)
+                return false;
+            change.apply(user);
+            /*  lo stato riapplicato non è ancora nell'archivio: resta in memoria fino alla compattazione */
+            user.changes = Math.max(user.changes, 1);
+            return true;
+        }
+
+        void start() throws IOException {
+            output = new FileOutputStream(file, true);
+            writer.start();
+        }
+
+        void requestCompaction() {
+            if (compactionPending.compareAndSet(false, true))
+                queue.add(COMPACT);
+        }
+
+        int queueDepth() {
+            return queue.size();
+        }
+
+        private void append(String op, User user, UserChange change) throws IOException {
+            Entry entry = new Entry((compactGson.toJson(new Record(op, user, change)) + "\n").getBytes(StandardCharsets.UTF_8));
+            queue.add(entry);
+            await(entry);
+        }
+
+        private static void await(Entry entry) throws IOException {
+            try {
+                entry.done.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException();
+            } catch (ExecutionException e) {
+                throw new IOException(e.getCause());
+            }
+        }
+
+        @Override
+        public void userRegistered(User user) throws IOException {
+            append(REGISTER, user, null);
+        }
+
+        @Override
+        public boolean recordsChanges() {
+            return true;
+        }
+
+        @Override
+        public void userChanged(User user, UserChange change) throws IOException {
+            append(GUESS, null, change);
+        }
+
+        @Override
+        public void close() throws IOException {
+            running = false;
+            Entry last = new Entry(null);
+            queue.add(last);
+            await(last);
+        }
+
+        @Override
+        public void run() {
+            List<Entry> batch = new ArrayList<>();
+            while (true) {
+                try {
+                    batch.add(queue.take());
+                } catch (InterruptedException e) {
+                    return;
+                }
+                queue.drainTo(batch);
+                boolean compact = false;
+                try {
+                    for (Entry entry : batch) {
+                        if (entry == COMPACT)
+                            compact = true;
+                        else if (entry.line != null)
+                            output.write(entry.line);
+                    }
+                    output.getFD().sync();
+                    /*  i record scritti vengono confermati subito, la richiesta di chiusura solo dopo lo snapshot finale */
+                    for (Entry entry : batch)
+                        if (entry.line != null)
+                            entry.done.complete(null);
+                    if (compact || !running || output.getChannel().size() > compactBytes)
+                        compact();
+                    for (Entry entry : batch)
+                        entry.done.complete(null);
+                } catch (IOException e) {
+                    e.printStackTrace();
+                    for (Entry entry : batch)
+                        entry.done.completeExceptionally(e);
+                }
+                batch.clear();
+                if (!running && queue.isEmpty()) {
+                    try {
+                        output.close();
+                    } catch (IOException e) {
+                        e.printStackTrace();
+                    }
+                    return;
+                }
+            }
+        }
+
+        /*
+         *   compattazione: snapshot atomico di tutti gli utenti e troncamento del journal; i record già scritti
+         *   sono contenuti nello snapshot, quelli accodati nel frattempo finiscono nel journal svuotato
+         */
+        private void compact() throws IOException {
+            compactionPending.set(false);
+            writeUsersSnapshot();
+            output.getChannel().truncate(0);
+            output.getFD().sync();
+        }
+    }
+
+    /*
+     *   Partita conclusa (vinta o con i tentativi esauriti), registrata nello storico (GameHistory):
+     *   parola segreta ed epoca, giocatore, esito, istanti di inizio (primo tentativo) e fine, e per ogni tentativo
+     *   la parola proposta (codificata come in PackedVocabulary, 0 se non nota) e il suggerimento (2 bit per lettera
+     *   come in User). Le parole proposte non sono nell'archivio utenti: dopo un riavvio a partita in corso quelle
+     *   precedenti al riavvio, e l'inizio della partita, risultano 0.
+     */
+    static final class GameRecord {
+        final long epoch;
+        final String word;
+        final String username;
+        final boolean won;
+        final long start;
+        final long end;
+        final long[] guesses;
+        final int[] hints;
+
+        GameRecord(long epoch, String word, String username, boolean won, long start, long end, long[] guesses, int[] hints) {
+            this.epoch = epoch;
+            this.word = word;
+            this.username = username;
+            this.won = won;
+            this.start = start;
+            this.end = end;
+            this.guesses = guesses;
+            this.hints = hints;
+        }
+
+        /*
+         *   partita appena conclusa dall'utente, letta sotto il suo lock
+         */
+        static GameRecord of(User user, SecretWord secret, boolean won) {
+            int trials = user.hintCount();
+            long[] guesses = new long[trials];
+            int[] hints = new int[trials];
+            for (int i = 0; i < trials; i++) {
+                guesses[i] = user.guess(i);
+                hints[i] = user.hintCode(i);
+            }
+            return new GameRecord(secret.epoch, secret.word, user.username, won, user.gameStart, System.currentTimeMillis(), guesses, hints);
+        }
+
+        void write(DataOutputStream output) throws IOException {
+            output.writeLong(epoch);
+            output.writeUTF(word);
+            output.writeUTF(username);
+            output.writeBoolean(won);
+            output.writeLong(start);
+            output.writeLong(end);
+            output.writeByte(guesses.length);
+            for (int i = 0; i < guesses.length; i++) {
+                output.writeLong(guesses[i]);
+                output.writeInt(hints[i]);
+            }
+        }
+
+        static GameRecord read(DataInputStream input) throws IOException {
+            long epoch = input.readLong();
+            String word = input.readUTF();
+            String username = input.readUTF();
+            boolean won = input.readBoolean();
+            long start = input.readLong();
+            long end = input.readLong();
+            int trials = input.readUnsignedByte();
+            long[] guesses = new long[trials];
+            int[] hints = new int[trials];
+            for (int i = 0; i < trials; i++) {
+                guesses[i] = input.readLong();
+                hints[i] = input.readInt();
+            }
+            return new GameRecord(epoch, word, username, won, start, end, guesses, hints);
+        }
+    }
+
+    /*
+     *   Aggregati dello storico, combinabili tra segmenti (merge): partite e vittorie, distribuzione delle vittorie
+     *   per numero di tentativi, statistiche per parola segreta e per giornata (epoca). Ogni utente conclude al più
+     *   una partita per epoca, quindi le partite di una giornata sono i suoi giocatori attivi.
+     *   L'occupazione non dipende dal numero di partite: al più una voce per parola del vocabolario e per giornata.
+     */
+    static final class HistorySummary {
+        /*  partite, vittorie e tentativi totali di una parola o di una giornata    */
+        static final class Tally {
+            String word;
+            long games;
+            long wins;
+            long trials;
+
+            void add(long games, long wins, long trials) {
+                this.games += games;
+                this.wins += wins;
+                this.trials += trials;
+            }
+
+            double winRate() {
+                return games == 0 ? 0 : (double) wins / games;
+            }
+
+            double averageTrials() {
+                return games == 0 ? 0 : (double) trials / games;
+            }
+        }
+
+        long games;
+        long wins;
+        final long[] distribution = new long[User.MAX_TRIALS];
+        final HashMap<String, Tally> words = new HashMap<>();
+        final TreeMap<Long, Tally> days = new TreeMap<>();
+
+        void add(GameRecord record) {
+            int trials = record.guesses.length;
+            int won = record.won ? 1 : 0;
+            games++;
+            wins += won;
+            if (record.won && trials > 0)
+                distribution[trials - 1]++;
+            words.computeIfAbsent(record.word, w -> new Tally()).add(1, won, trials);
+            Tally day = days.computeIfAbsent(record.epoch, e -> new Tally());
+            day.word = record.word;
+            day.add(1, won, trials);
+        }
+
+        HistorySummary merge(HistorySummary other) {
+            games += other.games;
+            wins += other.wins;
+            for (int i = 0; i < distribution.length; i++)
+                distribution[i] += other.distribution[i];
+            other.words.forEach((word, tally) -> words.computeIfAbsent(word, w -> new Tally()).add(tally.games, tally.wins, tally.trials));
+            other.days.forEach((epoch, tally) -> {
+                Tally day = days.computeIfAbsent(epoch, e -> new Tally());
+                day.word = tally.word;
+                day.add(tally.games, tally.wins, tally.trials);
+            });
+            return this;
+        }
+
+        /*
+         *   le n parole più difficili: minor percentuale di vittorie, poi più tentativi in media
+         *   (parola=vittorie/partite:tentativi medi:partite)
+         */
+        List<String> hardest(int n) {
+            PriorityQueue<Map.Entry<String, Tally>> easiest = new PriorityQueue<>(
+                    Comparator.comparingDouble((Map.Entry<String, Tally> e) -> -e.getValue().winRate())
+                            .thenComparingDouble(e -> e.getValue().averageTrials()));
+            for (Map.Entry<String, Tally> entry : words.entrySet()) {
+                easiest.add(entry);
+                if (easiest.size() > n)
+                    easiest.poll();
+            }
+            List<String> result = new ArrayList<>();
+            while (!easiest.isEmpty()) {
+                Map.Entry<String, Tally> entry = easiest.poll();
+                Tally tally = entry.getValue();
+                result.add(entry.getKey() + "=" + format(tally.winRate()) + ":" + format(tally.averageTrials()) + ":" + tally.games);
+            }
+            Collections.reverse(result);
+            return result;
+        }
+
+        /*
+         *   le ultime n giornate, dalla più recente: data/parola=giocatori:vittorie
+         */
+        List<String> daily(int n) {
+            List<String> result = new ArrayList<>();
+            for (Map.Entry<Long, Tally> entry : days.descendingMap().entrySet()) {
+                if (result.size() == n)
+                    break;
+                Tally day = entry.getValue();
+                LocalDate date = Instant.ofEpochMilli(entry.getKey()).atZone(ZoneId.systemDefault()).toLocalDate();
+                result.add(date + "/" + day.word + "=" + day.games + ":" + day.wins);
+            }
+            return result;
+        }
+
+        private static String format(double value) {
+            return String.format(Locale.ROOT, "%.2f", value);
+        }
+
+        void write(DataOutputStream output) throws IOException {
+            output.writeLong(games);
+            output.writeLong(wins);
+            for (long count : distribution)
+                output.writeLong(count);
+            output.writeInt(words.size());
+            for (Map.Entry<String, Tally> entry : words.entrySet()) {
+                output.writeUTF(entry.getKey());
+                writeTally(output, entry.getValue());
+            }
+            output.writeInt(days.size());
+            for (Map.Entry<Long, Tally> entry : days.entrySet()) {
+                output.writeLong(entry.getKey());
+                output.writeUTF(entry.getValue().word);
+                writeTally(output, entry.getValue());
+            }
+        }
+
+        static HistorySummary read(DataInputStream input) throws IOException {
+            HistorySummary summary = new HistorySummary();
+            summary.games = input.readLong();
+            summary.wins = input.readLong();
+            for (int i = 0; i < summary.distribution.length; i++)
+                summary.distribution[i] = input.readLong();
+            for (int i = input.readInt(); i > 0; i--)
+                summary.words.put(input.readUTF(), readTally(input));
+            for (int i = input.readInt(); i > 0; i--) {
+                long epoch = input.readLong();
+                String word = input.readUTF();
+                Tally day = readTally(input);
+                day.word = word;
+                summary.days.put(epoch, day);
+            }
+            return summary;
+        }
+
+        private static void writeTally(DataOutputStream output, Tally tally) throws IOException {
+            output.writeLong(tally.games);
+            output.writeLong(tally.wins);
+            output.writeLong(tally.trials);
+        }
+
+        private static Tally readTally(DataInputStream input) throws IOException {
+            Tally tally = new Tally();
+            tally.add(input.readLong(), input.readLong(), input.readLong());
+            return tally;
+        }
+    }
+
+    /*
+     *   Storico delle partite in un log append-only a segmenti compressi nella cartella historyDir:
+     *   -games-NNNNNN.log: flusso GZIP di GameRecord; il thread di scrittura accoda i record in lotti e fa un
+     *    flush di sincronizzazione del compressore dopo ogni lotto, così il file resta leggibile fino all'ultimo
+     *    lotto anche se il server termina senza chiuderlo
+     *   -superati historySegmentBytes il segmento viene chiuso e i suoi aggregati scritti in games-NNNNNN.sum;
+     *    ad ogni avvio si apre un segmento nuovo e quello lasciato aperto dall'esecuzione precedente viene chiuso
+     *   Le interrogazioni (comando HISTORY e java ServerMain history) usano gli aggregati: all'avvio si leggono i
+     *   .sum e si scorrono in parallelo, in streaming, solo i segmenti che ne sono privi; poi gli aggregati sono
+     *   aggiornati ad ogni partita registrata, senza mai tenere in memoria i record.
+     *   Le partite arrivano da una coda limitata: a coda piena vengono scartate e conteggiate, come i log.
+     */
+    public static class GameHistory implements Runnable {
+        private static final int MAGIC = 0x57474853;   // "WGHS"
+        private static final int VERSION = 1;
+        /*  record vuoto accodato per chiudere il segmento attivo alla chiusura del server  */
+        private static final GameRecord CLOSE = new GameRecord(0, "", "", false, 0, 0, new long[0], new int[0]);
+        private final File dir;
+        private final long segmentBytes;
+        private final ArrayBlockingQueue<GameRecord> queue;
+        private final LongAdder dropped = new LongAdder();
+        private final Thread writer = new Thread(this, "game-history");
+        /*  aggregati di tutto lo storico (letti dalle interrogazioni, sotto il lock di this) e del segmento attivo  */
+        private final HistorySummary total;
+        private HistorySummary segmentSummary = new HistorySummary();
+        private int segment;
+        private FileOutputStream file;
+        private DataOutputStream output;
+
+        private GameHistory(File dir, long segmentBytes, int capacity, HistorySummary total, int segment) {
+            this.dir = dir;
+            this.segmentBytes = segmentBytes;
+            this.queue = new ArrayBlockingQueue<>(capacity);
+            this.total = total;
+            this.segment = segment;
+            this.writer.setDaemon(true);
+        }
+
+        /*
+         *   apertura dello storico: aggregati dei segmenti esistenti e nuovo segmento attivo
+         */
+        static GameHistory open(File dir, long segmentBytes, int capacity) throws IOException {
+            dir.mkdirs();
+            List<File> segments = segments(dir);
+            HistorySummary total = summarize(segments, true);
+            int last = segments.isEmpty() ? 0 : number(segments.get(segments.size() - 1));
+            GameHistory history = new GameHistory(dir, segmentBytes, capacity, total, last + 1);
+            history.openSegment();
+            history.writer.start();
+            System.out.println("Storico delle partite: " + total.games + " partite in " + segments.size() + " segmenti.");
+            return history;
+        }
+
+        /*  segmenti della cartella in ordine di scrittura  */
+        static List<File> segments(File dir) {
+            File[] files = dir.listFiles((d, name) -> name.matches("games-\\d{6}\\.log"));
+            List<File> segments = new ArrayList<>(files == null ? List.of() : Arrays.asList(files));
+            segments.sort(Comparator.comparingInt(GameHistory::number));
+            return segments;
+        }
+
+        private static int number(File segment) {
+            String name = segment.getName();
+            return Integer.parseInt(name.substring("games-".length(), name.length() - ".log".length()));
+        }
+
+        private static File summaryFile(File segment) {
+            String name = segment.getName();
+            return new File(segment.getParentFile(), name.substring(0, name.length() - ".log".length()) + ".sum");
+        }
+
+        /*
+         *   aggregati di tutti i segmenti: quelli chiusi dal loro .sum, gli altri scorrendoli in parallelo;
+         *   con seal = true (solo il server, che non scriverà più nei segmenti esistenti) il .sum mancante viene scritto
+         */
+        static HistorySummary summarize(List<File> segments, boolean seal) throws IOException {
+            try {
+                return segments.parallelStream().map(segment -> {
+                    try {
+                        File summaryFile = summaryFile(segment);
+                        if (summaryFile.exists()) {
+                            try (DataInputStream input = new DataInputStream(new BufferedInputStream(new FileInputStream(summaryFile)))) {
+                                return HistorySummary.read(input);
+                            }
+                        }
+                        HistorySummary summary = scan(segment);
+                        if (seal)
+                            writeSummary(summaryFile, summary);
+                        return summary;
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                }).reduce(HistorySummary::merge).orElseGet(HistorySummary::new);
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            }
+        }
+
+        /*
+         *   lettura in streaming dei record di un segmento; la coda di un segmento non chiuso (o troncato da un
+         *   crash a metà di un lotto) termina la lettura senza errori
+         */
+        static HistorySummary scan(File segment) throws IOException {
+            HistorySummary summary = new HistorySummary();
+            try (DataInputStream input = new DataInputStream(new BufferedInputStream(new GZIPInputStream(new FileInputStream(segment), 65536)))) {
+                if (input.readInt() != MAGIC || input.readUnsignedByte() != VERSION)
+                    throw new IOException("segmento dello storico non valido: " + segment);
+                while (true)
+                    summary.add(GameRecord.read(input));
+            } catch (EOFException e) {
+                /*  fine del segmento   */
+            } catch (ZipException e) {
+                System.out.println("Segmento dello storico " + segment.getName() + " troncato: " + e.getMessage());
+            }
+            return summary;
+        }
+
+        private static void writeSummary(File target, HistorySummary summary) throws IOException {
+            File temp = new File(target.getParentFile(), target.getName() + ".tmp");
+            try (DataOutputStream output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)))) {
+                summary.write(output);
+            }
+            Files.move(temp.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+
+        private void openSegment() throws IOException {
+            file = new FileOutputStream(new File(dir, String.format("games-%06d.log", segment)));
+            output = new DataOutputStream(new BufferedOutputStream(new GZIPOutputStream(file, 65536, true), 65536));
+            output.writeInt(MAGIC);
+            output.writeByte(VERSION);
+            output.flush();
+            segmentSummary = new HistorySummary();
+        }
+
+        /*  chiusura del segmento attivo (coda GZIP) e scrittura dei suoi aggregati    */
+        private void sealSegment() throws IOException {
+            output.close();
+            writeSummary(new File(dir, String.format("games-%06d.sum", segment)), segmentSummary);
+            segment++;
+        }
+
+        void append(GameRecord record) {
+            if (!queue.offer(record))
+                dropped.increment();
+        }
+
+        int queueDepth() {
+            return queue.size();
+        }
+
+        long dropped() {
+            return dropped.sum();
+        }
+
+        synchronized long games() {
+            return total.games;
+        }
+
+        /*
+         *   HISTORY hardest [n] | distribution | daily [n], senza "OK"
+         */
+        synchronized String query(String name, int n) {
+            StringBuilder result = new StringBuilder();
+            result.append(total.games);
+            switch (name) {
+                case "hardest":
+                    total.hardest(n).forEach(entry -> result.append(' ').append(entry));
+                    break;
+                case "distribution":
+                    result.append(' ').append(total.wins).append(' ').append(total.games - total.wins);
+                    for (long count : total.distribution)
+                        result.append(' ').append(count);
+                    break;
+                case "daily":
+                    total.daily(n).forEach(entry -> result.append(' ').append(entry));
+                    break;
+                default:
+                    return null;
+            }
+            return result.toString();
+        }
+
+        /*
+         *   scrittura delle partite ancora in coda e chiusura del segmento attivo
+         */
+        void close() {
+            try {
+                queue.put(CLOSE);
+                writer.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        @Override
+        public void run() {
+            List<GameRecord> batch = new ArrayList<>();
+            while (true) {
+                try {
+                    batch.add(queue.take());
+                } catch (InterruptedException e) {
+                    return;
+                }
+                queue.drainTo(batch);
+                boolean closing = false;
+                try {
+                    for (GameRecord record : batch) {
+                        if (record == CLOSE) {
+                            closing = true;
+                            continue;
+                        }
+                        record.write(output);
+                        segmentSummary.add(record);
+                    }
+                    output.flush();
+                    synchronized (this) {
+                        for (GameRecord record : batch)
+                            if (record != CLOSE)
+                                total.add(record);
+                    }
+                    if (closing) {
+                        sealSegment();
+                        return;
+                    }
+                    if (file.getChannel().size() >= segmentBytes) {
+                        sealSegment();
+                        openSegment();
+                    }
+                } catch (IOException e) {
+                    e.printStackTrace();
+                    if (closing)
+                        return;
+                }
+                batch.clear();
+            }
+        }
+    }
+
+    /*
+     *   strumento per l'operatore: interrogazione dello storico senza avviare il server, leggendo in parallelo
+     *   anche il segmento attivo di un server in esecuzione (senza scrivere i .sum)
+     */
+    private static void printHistory(String query, int n) throws IOException {
+        HistorySummary summary = GameHistory.summarize(GameHistory.segments(new File(historyDir)), false);
+        System.out.println(summary.games + " partite, " + summary.wins + " vinte, " + summary.days.size() + " giornate");
+        switch (query) {
+            case "hardest":
+                summary.hardest(n).forEach(System.out::println);
+                break;
+            case "distribution":
+                for (int i = 0; i < summary.distribution.length; i++)
+                    System.out.println("vinte al tentativo " + (i + 1) + ": " + summary.distribution[i]);
+                System.out.println("perse: " + (summary.games - summary.wins));
+                break;
+            case "daily":
+                summary.daily(n).forEach(System.out::println);
+                break;
+            default:
+                System.out.println("interrogazioni: hardest [n], distribution, daily [n]");
+        }
+    }
+
+    /*
+     *   metodo utilizzato per vedere eseguire il login
+     */
+    private static int login(String username, String password) throws IOException {
+        /*  in modalità lazy un utente non residente viene letto dall'archivio senza renderlo residente: solo il
+            login riuscito lo carica in memoria (acquireUser), quelli con password errata non occupano heap    */
+        User user = users.get(username);
+        if (user == null && pagedUsers != null)
+            user = pagedUsers.load(username);
+        if(user != null){ //username exists
+            if(user.password.equals(password)) {
+                /* se la password è corretta  */
+                return 1;
+            }
+            else /* nel caso di password errata */
+                return -1;
+        }
+        else    /*  nel caso in cui l'username non sia registrato   */
+            return 0;
+    }
+
+    /*
+     *   utente residente oppure, in modalità lazy, letto dall'archivio e reso residente; null se non esiste.
+     *   La lettura avviene sotto il lock dell'utente, così non si sovrappone a una rimozione (evictUsers)
+     */
+    private static User findUser(String username) throws IOException {
+        User user = users.get(username);
+        if (user != null || pagedUsers == null)
+            return user;
+        ReentrantLock lock = User.lockFor(username);
+        lock.lock();
+        try {
+            user = users.get(username);
+            if (user == null && (user = pagedUsers.load(username)) != null) {
+                LeaderboardLoader loader = leaderboardLoader;
+                user.ranked = loader == null || loader.passed(username);
+                user.lastAccess = System.nanoTime();
+                users.put(username, user);
+                loadedUsers.increment();
+            }
+            return user;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /*
+     *   utente di una sessione che ha eseguito il login: finché non viene rilasciato resta in memoria
+     */
+    private static User acquireUser(String username) throws IOException {
+        ReentrantLock lock = User.lockFor(username);
+        lock.lock();
+        try {
+            User user = findUser(username);
+            if (user != null) {
+                user.sessions++;
+                user.lastAccess = System.nanoTime();
+            }
+            return user;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private static void releaseUser(User user) {
+        ReentrantLock lock = user.lock();
+        lock.lock();
+        try {
+            user.sessions--;
+            user.lastAccess = System.nanoTime();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /*
+     *   metodo utilizzato per eseguire la registrazione degli utenti
+     */
+    private static int register(String username, String password) throws IOException {
+        /*  se l'utente non è già registrato non è presente nel file JSON (e quindi nella ConcurrentHashMap)    */
+        /*  il controllo e l'inserimento avvengono sotto il lock dello username: due registrazioni concorrenti
+            dello stesso username non possono riuscire entrambe, neanche contro un utente non residente */
+        User user = new User(username, password);
+        user.changes = 1;
+        user.ranked = true;
+        user.lastAccess = System.nanoTime();
+        ReentrantLock lock = user.lock();
+        lock.lock();
+        try {
+            if (users.containsKey(username) || pagedUsers != null && pagedUsers.contains(username))
+                /*  nel caso in cui l'username esista già   */
+                return 0;
+            users.put(username, user);
+            if (pagedUsers != null)
+                pagedUsers.added();
+        } finally {
+            lock.unlock();
+        }
+        persistence.userRegistered(user);
+        return 1;
+    }
+
+    /*
+     *   Struttura dati contenente i dati di uno User all'interno della HashMap e del file JSON.
+     *   La rappresentazione in memoria è compatta: la distribuzione dei tentativi è un int[12] e i suggerimenti
+     *   del giorno sono codificati a 2 bit per lettera ('x' = 0, '?' = 1, '+' = 2), tre suggerimenti per long.
+     *   Il formato JSON resta quello originale grazie a UserAdapter.
+     *   Concorrenza: lo stato di un utente viene letto e modificato solo tenendo il suo lock (lock()), preso da
+     *   un insieme fisso di lock a strisce indicizzato dall'hash dello username. Sessioni di utenti diversi
+     *   non si bloccano a vicenda (salvo collisioni di striscia), la rotazione della parola non tocca gli utenti
+     *   e la persistenza serializza una copia coerente di ciascun utente (snapshot()) senza un lock globale.
+     *   Non si tiene mai più di un lock di striscia alla volta, quindi non ci sono stalli.
+     */
+    static class User {
+        public static final int MAX_TRIALS = 12;
+        private static final int HINT_BITS = 2 * Vocabulary.WORD_LENGTH;
+        private static final int HINTS_PER_LONG = Long.SIZE / HINT_BITS;
+        /*  numero di strisce (potenza di 2): abbastanza da rendere rare le collisioni tra i thread attivi,
+            senza il costo di un lock per ciascuno degli utenti registrati */
+        private static final int LOCK_STRIPES = 1024;
+        private static final ReentrantLock[] LOCKS = new ReentrantLock[LOCK_STRIPES];
+        static {
+            for (int i = 0; i < LOCK_STRIPES; i++)
+                LOCKS[i] = new ReentrantLock();
+        }
+        public String username;
+        public String password;
+        public int matchPlayed;
+        public int matchWon;
+        public int lastStreak;
+        public int streakRecord;
+        public boolean lastMatchWon;
+        public int remainingTrials;
+        /*  guessDistribution[i] = partite vinte al tentativo i+1   */
+        public final int[] guessDistribution = new int[MAX_TRIALS];
+        public boolean hasWonToday;
+        /*  suggerimenti del giorno (wordSuggestions nel file JSON) */
+        private final long[] hints = new long[(MAX_TRIALS + HINTS_PER_LONG - 1) / HINTS_PER_LONG];
+        private int hintCount;
+        /*  epoca di gioco a cui si riferiscono remainingTrials, hasWonToday e i suggerimenti  */
+        public long epoch;
+        /*  residenza in memoria (modalità lazy), sotto il lock dell'utente e non serializzata: sessioni che hanno
+            eseguito il login, modifiche allo stato e quante di esse sono già nell'archivio, ultimo accesso per
+            l'LRU e presenza nelle classifiche  */
+        int sessions;
+        long changes;
+        long persisted;
+        long lastAccess;
+        boolean ranked;
+        /*  limiti di frequenza dell'utente, creati al primo SENDWORD/SHARE e usati sotto il suo lock  */
+        TokenBucket sendwordLimit;
+        TokenBucket shareLimit;
+        /*  partita in corso per lo storico (GameRecord), non serializzata: parole proposte codificate come in
+            PackedVocabulary (allocate al primo tentativo) e istante del primo tentativo   */
+        long[] guesses;
+        long gameStart;
+
+        public User(String username, String password) {
+            this.username = username;
+            this.password = password;
+            this.matchPlayed = 0;
+            this.matchWon = 0;
+            this.lastStreak = 0;
+            this.streakRecord = 0;
+            this.lastMatchWon = false;
+            this.remainingTrials = 12;
+            this.hasWonToday = false;
+        }
+
+        /*
+         *   lock della striscia a cui appartiene l'utente (ReentrantLock e non synchronized, per non bloccare
+         *   il carrier thread dei virtual thread)
+         */
+        public ReentrantLock lock() {
+            return lockFor(username);
+        }
+
+        /*  lock di striscia di uno username, anche quando l'utente non è (ancora) in memoria   */
+        public static ReentrantLock lockFor(String username) {
+            int h = username.hashCode();
+            return LOCKS[(h ^ (h >>> 16)) & (LOCK_STRIPES - 1)];
+        }
+
+        /*
+         *   copia dell'utente letta sotto il suo lock: la persistenza serializza la copia, così un record non
+         *   mescola mai lo stato di prima e di dopo una SENDWORD concorrente
+         */
+        public User snapshot() {
+            ReentrantLock lock = lock();
+            lock.lock();
+            try {
+                User copy = new User(username, password);
+                copy.matchPlayed = matchPlayed;
+                copy.matchWon = matchWon;
+                copy.lastStreak = lastStreak;
+                copy.streakRecord = streakRecord;
+                copy.lastMatchWon = lastMatchWon;
+                copy.remainingTrials = remainingTrials;
+                System.arraycopy(guessDistribution, 0, copy.guessDistribution, 0, MAX_TRIALS);
+                copy.hasWonToday = hasWonToday;
+                System.arraycopy(hints, 0, copy.hints, 0, hints.length);
+                copy.hintCount = hintCount;
+                copy.epoch = epoch;
+                copy.changes = changes;
+                return copy;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        /*
+         *   numero medio di tentativi delle partite vinte (NaN se l'utente non ha mai vinto)
+         */
+        public double averageGuesses() {
+            if (matchWon == 0)
+                return Double.NaN;
+            long guesses = 0;
+            for (int i = 0; i < MAX_TRIALS; i++)
+                guesses += (long) (i + 1) * guessDistribution[i];
+            return (double) guesses / matchWon;
+        }
+
+        /*
+         *   reset pigro dello stato giornaliero, eseguito al primo accesso dopo l'estrazione di una nuova parola
+         */
+        public void refresh(long currentEpoch) {
+            if (this.epoch != currentEpoch) {
+                this.remainingTrials = 12;
+                this.hasWonToday = false;
+                this.hintCount = 0;
+                this.epoch = currentEpoch;
+                this.guesses = null;
+                this.gameStart = 0;
+            }
+        }
+
+        /*
+         *   parola proposta per il prossimo suggerimento, da registrare prima di addHint
+         */
+        public void addGuess(CharSequence guess) {
+            if (hintCount == MAX_TRIALS)
+                return;
+            if (guesses == null) {
+                guesses = new long[MAX_TRIALS];
+                if (hintCount == 0)
+                    gameStart = System.currentTimeMillis();
+            }
+            guesses[hintCount] = PackedVocabulary.encode(guess);
+        }
+
+        /*  parola proposta all'i-esimo tentativo codificata, 0 se non nota   */
+        long guess(int index) {
+            return guesses == null ? 0 : guesses[index];
+        }
+
+        /*  i-esimo suggerimento codificato con 2 bit per lettera   */
+        int hintCode(int index) {
+            return (int) ((hints[index / HINTS_PER_LONG] >>> ((index % HINTS_PER_LONG) * HINT_BITS)) & ((1L << HINT_BITS) - 1));
+        }
+
+        /*
+         *   aggiunta di un suggerimento composto dai caratteri '+', '?' e 'x'
+         */
+        public void addHint(CharSequence hint) {
+            if (hintCount == MAX_TRIALS)
+                return;
+            long code = 0;
+            for (int i = Vocabulary.WORD_LENGTH - 1; i >= 0; i--) {
+                char c = hint.charAt(i);
+                code = (code << 2) | (c == '+' ? 2 : c == '?' ? 1 : 0);
+            }
+            int slot = hintCount / HINTS_PER_LONG;
+            int shift = (hintCount % HINTS_PER_LONG) * HINT_BITS;
+            hints[slot] = (hints[slot] & ~(((1L << HINT_BITS) - 1) << shift)) | (code << shift);
+            hintCount++;
+        }
+
+        public void addHint(char[] hint) {
+            addHint(CharBuffer.wrap(hint));
+        }
+
+        public int hintCount() {
+            return hintCount;
+        }
+
+        /*
+         *   scrittura dell'i-esimo suggerimento in fondo a out
+         */
+        public void appendHint(int index, StringBuilder out) {
+            long code = hints[index / HINTS_PER_LONG] >>> ((index % HINTS_PER_LONG) * HINT_BITS);
+            for (int i = 0; i < Vocabulary.WORD_LENGTH; i++) {
+                int symbol = (int) (code & 3);
+                out.append(symbol == 2 ? '+' : symbol == 1 ? '?' : 'x');
+                code >>>= 2;
+            }
+        }
+
+        public String hint(int index) {
+            StringBuilder out = new StringBuilder(Vocabulary.WORD_LENGTH);
+            appendHint(index, out);
+            return out.toString();
+        }
+    }
+
+    /*
+     *   Serializzazione Gson di User nel formato JSON originale: guessDistribution come oggetto
+     *   {"1": n, ..., "12": n} e wordSuggestions come array di stringhe
+     */
+    static class UserAdapter extends TypeAdapter<User> {
+        @Override
+        public void write(JsonWriter out, User user) throws IOException {
+            if (user == null) {
+                out.nullValue();
+                return;
+            }
+            user = user.snapshot();
+            out.beginObject();
+            out.name("username").value(user.username);
+            out.name("password").value(user.password);
+            out.name("matchPlayed").value(user.matchPlayed);
+            out.name("matchWon").value(user.matchWon);
+            out.name("lastStreak").value(user.lastStreak);
+            out.name("streakRecord").value(user.streakRecord);
+            out.name("lastMatchWon").value(user.lastMatchWon);
+            out.name("remainingTrials").value(user.remainingTrials);
+            out.name("guessDistribution").beginObject();
+            for (int i = 0; i < User.MAX_TRIALS; i++)
+                out.name(Integer.toString(i + 1)).value(user.guessDistribution[i]);
+            out.endObject();
+            out.name("hasWonToday").value(user.hasWonToday);
+            out.name("wordSuggestions").beginArray();
+            for (int i = 0; i < user.hintCount(); i++)
+                out.value(user.hint(i));
+            out.endArray();
+            out.name("epoch").value(user.epoch);
+            out.endObject();
+        }
+
+        @Override
+        public User read(JsonReader in) throws IOException {
+            if (in.peek() == JsonToken.NULL) {
+                in.nextNull();
+                return null;
+            }
+            User user = new User(null, null);
+            in.beginObject();
+            while (in.hasNext()) {
+                switch (in.nextName()) {
+                    case "username": user.username = in.nextString(); break;
+                    case "password": user.password = in.nextString(); break;
+                    case "matchPlayed": user.matchPlayed = in.nextInt(); break;
+                    case "matchWon": user.matchWon = in.nextInt(); break;
+                    case "lastStreak": user.lastStreak = in.nextInt(); break;
+                    case "streakRecord": user.streakRecord = in.nextInt(); break;
+                    case "lastMatchWon": user.lastMatchWon = in.nextBoolean(); break;
+                    case "remainingTrials": user.remainingTrials = in.nextInt(); break;
+                    case "hasWonToday": user.hasWonToday = in.nextBoolean(); break;
+                    case "epoch": user.epoch = in.nextLong(); break;
+                    case "guessDistribution":
+                        in.beginObject();
+                        while (in.hasNext()) {
+                            int trial = Integer.parseInt(in.nextName());
+                            int wins = in.nextInt();
+                            if (trial >= 1 && trial <= User.MAX_TRIALS)
+                                user.guessDistribution[trial - 1] = wins;
+                        }
+                        in.endObject();
+                        break;
+                    case "wordSuggestions":
+                        in.beginArray();
+                        while (in.hasNext())
+                            user.addHint(in.nextString());
+                        in.endArray();
+                        break;
+                    default:
+                        in.skipValue();
+                        break;
+                }
+            }
+            in.endObject();
+            return user;
+        }
+    }
+
+    /*
+     *   Classifica degli utenti secondo un punteggio calcolato dalle statistiche (win rate, record di vittorie
+     *   consecutive, media dei tentativi). È un treap (albero binario di ricerca bilanciato in modo casuale) in
+     *   cui ogni nodo conosce la dimensione del proprio sottoalbero, ordinato per punteggio decrescente e a
+     *   parità per username:
+     *   -inserimento e rimozione di un utente in O(log n), eseguiti nel percorso di SENDWORD
+     *   -posizione di un utente in O(log n) e prime k posizioni in O(log n + k), senza mai scorrere users
+     *   Gli utenti senza punteggio (NaN, ad esempio senza partite giocate) non sono in classifica.
+     *   Il punteggio precedente di un utente non viene memorizzato: chi modifica l'utente lo calcola prima della
+     *   modifica tenendo il lock dell'utente (lock di striscia, poi lock della classifica: mai l'ordine inverso).
+     */
+    static class Leaderboard {
+        private static final class Node {
+            final double key;
+            final String username;
+            final int priority;
+            int size = 1;
+            Node left;
+            Node right;
+
+            Node(double key, String username, int priority) {
+                this.key = key;
+                this.username = username;
+                this.priority = priority;
+            }
+        }
+
+        final String name;
+        /*  true se un punteggio più basso è migliore (media dei tentativi): nell'albero la chiave è negata   */
+        private final boolean lowerIsBetter;
+        private final ToDoubleFunction<User> score;
+        private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+        private final Random random = new Random();
+        private Node root;
+
+        Leaderboard(String name, boolean lowerIsBetter, ToDoubleFunction<User> score) {
+            this.name = name;
+            this.lowerIsBetter = lowerIsBetter;
+            this.score = score;
+        }
+
+        /*  punteggio attuale dell'utente, da leggere tenendo il suo lock  */
+        double score(User user) {
+            return score.applyAsDouble(user);
+        }
+
+        /*
+         *   spostamento dell'utente dal punteggio before a quello attuale
+         */
+        void update(User user, double before) {
+            double after = score(user);
+            if (Double.compare(before, after) == 0)
+                return;
+            lock.writeLock().lock();
+            try {
+                if (!Double.isNaN(before))
+                    root = remove(root, key(before), user.username);
+                if (!Double.isNaN(after))
+                    root = insert(root, new Node(key(after), user.username, random.nextInt()));
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+
+        void add(User user) {
+            update(user, Double.NaN);
+        }
+
+        /*  posizione dell'utente (1 = primo), 0 se non è in classifica  */
+        int rank(User user) {
+            double current = score(user);
+            if (Double.isNaN(current))
+                return 0;
+            double key = key(current);
+            lock.readLock().lock();
+            try {
+                int rank = 0;
+                Node node = root;
+                while (node != null) {
+                    int c = compare(key, user.username, node);
+                    if (c == 0)
+                        return rank + size(node.left) + 1;
+                    if (c < 0)
+                        node = node.left;
+                    else {
+                        rank += size(node.left) + 1;
+                        node = node.right;
+                    }
+                }
+                return 0;
+            } finally {
+                lock.readLock().unlock();
+            }
+        }
+
+        int size() {
+            lock.readLock().lock();
+            try {
+                return size(root);
+            } finally {
+                lock.readLock().unlock();
+            }
+        }
+
+        /*
+         *   prime k posizioni in fondo a out, nel formato " username=punteggio"
+         */
+        void appendTop(int k, StringBuilder out) {
+            lock.readLock().lock();
+            try {
+                ArrayDeque<Node> path = new ArrayDeque<>();
+                Node node = root;
+                while ((node != null || !path.isEmpty()) && k > 0) {
+                    while (node != null) {
+                        path.push(node);
+                        node = node.left;
+                    }
+                    node = path.pop();
+                    out.append(' ').append(node.username).append('=').append(format(lowerIsBetter ? -node.key : node.key));
+                    k--;
+                    node = node.right;
+                }
+            } finally {
+                lock.readLock().unlock();
+            }
+        }
+
+        private double key(double score) {
+            return lowerIsBetter ? -score : score;
+        }
+
+        private static String format(double value) {
+            if (value == Math.rint(value))
+                return Long.toString((long) value);
+            return String.format(Locale.ROOT, "%.3f", value);
+        }
+
+        /*  ordine della classifica: chiave decrescente, poi username crescente  */
+        private static int compare(double key, String username, Node node) {
+            int c = Double.compare(node.key, key);
+            return c != 0 ? c : username.compareTo(node.username);
+        }
+
+        private static int size(Node node) {
+            return node == null ? 0 : node.size;
+        }
+
+        private static void resize(Node node) {
+            node.size = 1 + size(node.left) + size(node.right);
+        }
+
+        private static Node insert(Node node, Node item) {
+            if (node == null)
+                return item;
+            if (item.priority > node.priority) {
+                Node[] parts = split(node, item.key, item.username);
+                item.left = parts[0];
+                item.right = parts[1];
+                resize(item);
+                return item;
+            }
+            if (compare(item.key, item.username, node) < 0)
+                node.left = insert(node.left, item);
+            else
+                node.right = insert(node.right, item);
+            resize(node);
+            return node;
+        }
+
+        private static Node remove(Node node, double key, String username) {
+            if (node == null)
+                return null;
+            int c = compare(key, username, node);
+            if (c == 0)
+                return merge(node.left, node.right);
+            if (c < 0)
+                node.left = remove(node.left, key, username);
+            else
+                node.right = remove(node.right, key, username);
+            resize(node);
+            return node;
+        }
+
+        /*  divisione del sottoalbero in nodi che precedono (key, username) e nodi che lo seguono */
+        private static Node[] split(Node node, double key, String username) {
+            if (node == null)
+                return new Node[2];
+            if (compare(key, username, node) > 0) {
+                Node[] parts = split(node.right, key, username);
+                node.right = parts[0];
+                resize(node);
+                parts[0] = node;
+                return parts;
+            }
+            Node[] parts = split(node.left, key, username);
+            node.left = parts[1];
+            resize(node);
+            parts[1] = node;
+            return parts;
+        }
+
+        /*  unione di due sottoalberi in cui tutti i nodi di left precedono quelli di right  */
+        private static Node merge(Node left, Node right) {
+            if (left == null)
+                return right;
+            if (right == null)
+                return left;
+            if (left.priority > right.priority) {
+                left.right = merge(left.right, right);
+                resize(left);
+                return left;
+            }
+            right.left = merge(left, right.left);
+            resize(right);
+            return right;
+        }
+    }
+
+    /*
+     *   punteggi dell'utente in tutte le classifiche, da calcolare prima di modificarne le statistiche;
+     *   scores è un buffer della sessione con un elemento per classifica
+     */
+    private static double[] leaderboardScores(User user, double[] scores) {
+        for (int i = 0; i < leaderboards.length; i++)
+            scores[i] = leaderboards[i].score(user);
+        return scores;
+    }
+
+    private static void updateLeaderboards(User user, double[] before) {
+        for (int i = 0; i < leaderboards.length; i++)
+            leaderboards[i].update(user, before[i]);
+    }
+
+    /*
+     *   costruzione delle classifiche all'avvio, dopo il caricamento degli utenti (unica scansione di users);
+     *   in modalità lazy gli utenti non residenti vengono aggiunti in background da LeaderboardLoader
+     */
+    private static void buildLeaderboards() throws IOException {
+        for (User user : users.values()) {
+            addToLeaderboards(user);
+            user.ranked = true;
+        }
+        if (pagedUsers != null) {
+            leaderboardLoader = new LeaderboardLoader(new File(usersFile));
+            Thread loader = new Thread(leaderboardLoader, "leaderboard-loader");
+            loader.setDaemon(true);
+            loader.start();
+        }
+    }
+
+    private static void addToLeaderboards(User user) {
+        for (Leaderboard leaderboard : leaderboards)
+            leaderboard.add(user);
+    }
+
+    private static Leaderboard leaderboard(String name) {
+        for (Leaderboard leaderboard : leaderboards)
+            if (leaderboard.name.equalsIgnoreCase(name))
+                return leaderboard;
+        return null;
+    }
+
+    /*
+     *   Token bucket: rate gettoni al secondo accumulabili fino a burst, ogni comando ne consuma uno.
+     *   Non è thread-safe: lo usa una sola sessione alla volta oppure chi tiene il lock dell'utente.
+     */
+    static class TokenBucket {
+        private final double tokensPerNano;
+        private final double burst;
+        private double tokens;
+        private long last;
+
+        TokenBucket(double rate, int burst) {
+            this.tokensPerNano = rate / 1e9;
+            this.burst = Math.max(1, burst);
+            this.tokens = this.burst;
+            this.last = System.nanoTime();
+        }
+
+        boolean tryTake(long now) {
+            tokens = Math.min(burst, tokens + (now - last) * tokensPerNano);
+            last = now;
+            if (tokens < 1)
+                return false;
+            tokens--;
+            return true;
+        }
+    }
+
+    /*
+     *   Codifica del protocollo testuale senza String intermedie:
+     *   -le risposte fisse sono codificate una volta sola all'avvio (byte[] con il terminatore di riga), le parti
+     *    variabili (numeri, suggerimenti) vengono scritte direttamente nel ResponseBuffer della connessione
+     *   -i comandi vengono riconosciuti confrontando i byte della riga con i nomi già codificati, senza split()
+     *    né msgType.valueOf()
+     *   Il charset è quello di default, come InputStreamReader e PrintWriter usati in precedenza.
+     */
+    static final class Protocol {
+        static final Charset CHARSET = Charset.defaultCharset();
+        static final byte[] LINE_END = System.lineSeparator().getBytes(CHARSET);
+        private static final msgType[] COMMANDS = msgType.values();
+        private static final byte[][] COMMAND_NAMES = new byte[COMMANDS.length][];
+        static {
+            for (msgType type : COMMANDS)
+                COMMAND_NAMES[type.ordinal()] = type.name().getBytes(StandardCharsets.US_ASCII);
+        }
+
+        static final byte[] OK = text(msgType.OK + " ");
+        static final byte[] NOTOK = text(msgType.NOTOK + " ");
+        static final byte[] ALREADY_LOGGED = line(msgType.NOTOK + " Hai già eseguito il login");
+        static final byte[] UNKNOWN_USER = line(msgType.NOTOK + " questo username non esiste!");
+        static final byte[] LOGGED_IN = line(msgType.OK + " login eseguito con successo, benvenuto!");
+        static final byte[] WRONG_PASSWORD = line(msgType.NOTOK + " password errata!");
+        static final byte[] USER_EXISTS = line(msgType.NOTOK + " questo username esiste già.");
+        static final byte[] REGISTERED = line(msgType.OK + " utente registrato con successo!");
+        static final byte[] LOGGED_OUT = line(msgType.OK + " utente disconnesso.");
+        static final byte[] NOT_LOGGED = line(msgType.NOTOK + " non hai eseguito il login.");
+        static final byte[] NO_TRIALS_LEFT = line(msgType.NOTOK + " hai finito i tentativi.");
+        static final byte[] ALREADY_WON = line(msgType.NOTOK + " hai già vinto la partita di oggi!");
+        static final byte[] CAN_PLAY = text(msgType.OK + " puoi giocare. Hai ancora ");
+        static final byte[] TRIALS = line(" tentativi.");
+        static final byte[] SENDWORD_THROTTLED = line(msgType.NOTOK + " troppi tentativi ravvicinati, riprova tra poco.");
+        static final byte[] CANNOT_PLAY = line(msgType.NOTOK + " non puoi giocare");
+        static final byte[] WON = line(msgType.OK + " hai vinto!");
+        static final byte[] TRIALS_AVAILABLE = text(": hai a disposizione ");
+        static final byte[] TRIALS_OVER = line(": hai finito i tentativi per oggi!");
+        static final byte[] NOT_IN_VOCABULARY = line(msgType.NOTOK + " la tua guessed word non è nel vocabolario");
+        static final byte[] SHARE_THROTTLED = line(msgType.NOTOK + " troppe condivisioni ravvicinate, riprova tra poco.");
+        static final byte[] QUERY_THROTTLED = line(msgType.NOTOK + " troppe richieste ravvicinate, riprova tra poco.");
+        static final byte[] NOTHING_TO_SHARE = line(msgType.NOTOK + " non hai ancora niente da condividere.");
+        static final byte[] SHARED = line(msgType.OK + " i tuoi risultati sono stati condivisi.");
+        static final byte[] SHARE_QUEUE_FULL = line(msgType.NOTOK + " troppe condivisioni in corso, riprova più tardi.");
+        static final byte[] GOODBYE = line(msgType.OK + " arrivederci!");
+        static final byte[] DISABLED = line(msgType.NOTOK + " comando non abilitato.");
+        static final byte[] NOT_AUTHORIZED = line(msgType.NOTOK + " chiave di amministrazione non valida.");
+        static final byte[] UNKNOWN_LEADERBOARD = line(msgType.NOTOK + " classifica sconosciuta: winrate, streak oppure guesses.");
+        static final byte[] INVALID_POSITIONS = line(msgType.NOTOK + " numero di posizioni non valido.");
+        static final byte[] HISTORY_DISABLED = line(msgType.NOTOK + " storico delle partite non abilitato.");
+        static final byte[] INVALID_ENTRIES = line(msgType.NOTOK + " numero di voci non valido.");
+        static final byte[] UNKNOWN_QUERY = line(msgType.NOTOK + " interrogazione sconosciuta: hardest, distribution oppure daily.");
+        static final byte[] WORD_RECEIVED = line(msgType.OK + " parola ricevuta.");
+        static final byte[] INVALID_CLUSTER_COMMAND = line(msgType.NOTOK + " comando del cluster non valido.");
+        static final byte[] INVALID_VERSION = line(msgType.NOTOK + " versione del protocollo non valida.");
+        static final byte[] INVALID_COMMAND = line(msgType.NOTOK + " comando non valido.");
+        static final byte[] SERVER_FULL = line(msgType.NOTOK + " server pieno, riprova più tardi.");
+        static final byte[] OVERLOADED = line(msgType.NOTOK + " server sovraccarico, riprova più tardi.");
+
+        private Protocol() {
+        }
+
+        static byte[] text(String text) {
+            return text.getBytes(CHARSET);
+        }
+
+        static byte[] line(String text) {
+            return (text + System.lineSeparator()).getBytes(CHARSET);
+        }
+
+        /*
+         *   lunghezza dell'identificativo "#<id>" all'inizio di line[from, to) (protocollo 2), 0 se assente
+         */
+        static int requestIdLength(byte[] line, int from, int to) {
+            if (to > from && line[from] == '#') {
+                for (int i = from + 1; i < to; i++)
+                    if (line[i] == ' ')
+                        return i - from;
+            }
+            return 0;
+        }
+
+        /*
+         *   comando con il nome contenuto in line[start, end), null se sconosciuto
+         */
+        static msgType command(byte[] line, int start, int end) {
+            int length = end - start;
+            for (int i = 0; i < COMMAND_NAMES.length; i++) {
+                byte[] name = COMMAND_NAMES[i];
+                if (name.length == length && Arrays.equals(name, 0, length, line, start, end))
+                    return COMMANDS[i];
+            }
+            return null;
+        }
+    }
+
+    /*
+     *   Buffer di uscita riutilizzato da una connessione: le risposte di un lotto di comandi vengono scritte qui
+     *   come byte e inviate con una sola scrittura sul socket. Cresce solo se una risposta non ci sta.
+     */
+    static final class ResponseBuffer {
+        private byte[] bytes = new byte[512];
+        private int length;
+
+        private void ensure(int extra) {
+            if (length + extra > bytes.length)
+                bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, length + extra));
+        }
+
+        ResponseBuffer put(byte[] encoded) {
+            return put(encoded, 0, encoded.length);
+        }
+
+        ResponseBuffer put(byte[] source, int offset, int count) {
+            ensure(count);
+            System.arraycopy(source, offset, bytes, length, count);
+            length += count;
+            return this;
+        }
+
+        ResponseBuffer put(char ascii) {
+            ensure(1);
+            bytes[length++] = (byte) ascii;
+            return this;
+        }
+
+        /*  suggerimento o altri caratteri ASCII  */
+        ResponseBuffer put(char[] ascii) {
+            ensure(ascii.length);
+            for (char c : ascii)
+                bytes[length++] = (byte) c;
+            return this;
+        }
+
+        /*  cifre decimali scritte da destra a sinistra, senza Long.toString   */
+        ResponseBuffer put(long value) {
+            if (value == Long.MIN_VALUE)
+                return put(Long.toString(value));
+            ensure(20);
+            if (value < 0) {
+                bytes[length++] = '-';
+                value = -value;
+            }
+            int digits = 1;
+            for (long rest = value / 10; rest > 0; rest /= 10)
+                digits++;
+            for (int i = length + digits - 1; i >= length; i--) {
+                bytes[i] = (byte) ('0' + value % 10);
+                value /= 10;
+            }
+            length += digits;
+            return this;
+        }
+
+        /*  testo variabile: i caratteri ASCII sono copiati direttamente, il resto passa dal charset   */
+        ResponseBuffer put(CharSequence text) {
+            int count = text.length();
+            ensure(count);
+            for (int i = 0; i < count; i++) {
+                char c = text.charAt(i);
+                if (c >= 0x80)
+                    return put(text.subSequence(i, count).toString().getBytes(Protocol.CHARSET));
+                bytes[length++] = (byte) c;
+            }
+            return this;
+        }
+
+        ResponseBuffer endLine() {
+            return put(Protocol.LINE_END);
+        }
+
+        /*  riga di testo costruita al momento, per le risposte poco frequenti  */
+        ResponseBuffer line(CharSequence text) {
+            return put(text).endLine();
+        }
+
+        int length() {
+            return length;
+        }
+
+        void clear() {
+            length = 0;
+        }
+
+        void writeTo(OutputStream output) throws IOException {
+            output.write(bytes, 0, length);
+        }
+
+        /*  copia del contenuto, per le risposte consegnate a un altro thread (modalità nio)  */
+        ByteBuffer copy() {
+            return ByteBuffer.wrap(Arrays.copyOf(bytes, length));
+        }
+    }
+
+    /*
+     *   Vista CharSequence su una parte di un byte[] (un carattere per byte), usata per la guessed word:
+     *   vocabolario, suggerimento e confronto con la parola segreta la leggono senza creare una String.
+     *   I byte non ASCII diventano caratteri fuori da 'a'..'z', quindi parole non valide.
+     */
+    static final class ByteChars implements CharSequence {
+        private byte[] bytes;
+        private int offset;
+        private int length;
+
+        ByteChars wrap(byte[] bytes, int offset, int length) {
+            this.bytes = bytes;
+            this.offset = offset;
+            this.length = length;
+            return this;
+        }
+
+        @Override
+        public int length() {
+            return length;
+        }
+
+        @Override
+        public char charAt(int index) {
+            return (char) (bytes[offset + index] & 0xFF);
+        }
+
+        @Override
+        public CharSequence subSequence(int start, int end) {
+            return toString().substring(start, end);
+        }
+
+        @Override
+        public String toString() {
+            return new String(bytes, offset, length, Protocol.CHARSET);
+        }
+    }
+
+    /*
+     *   Lettura delle righe di una connessione direttamente dal byte[] di un buffer riutilizzato: la riga
+     *   restituita da next() è valida fino alla chiamata successiva
+     */
+    static final class LineReader {
+        private final InputStream input;
+        private final byte[] buffer;
+        /*  dati letti ma non ancora restituiti: buffer[position, limit)  */
+        private int position;
+        private int limit;
+        private int lineStart;
+
+        LineReader(InputStream input, int capacity) {
+            this.input = input;
+            this.buffer = new byte[capacity];
+        }
+
+        /*
+         *   lunghezza della prossima riga (senza "\r\n"), -1 a fine stream
+         */
+        int next() throws IOException {
+            int scanned = position;
+            while (true) {
+                for (int i = scanned; i < limit; i++) {
+                    if (buffer[i] == '\n') {
+                        lineStart = position;
+                        position = i + 1;
+                        int end = i > lineStart && buffer[i - 1] == '\r' ? i - 1 : i;
+                        return end - lineStart;
+                    }
+                }
+                if (position > 0) {
+                    System.arraycopy(buffer, position, buffer, 0, limit - position);
+                    limit -= position;
+                    position = 0;
+                }
+                /*  riga più lunga del buffer: il client non rispetta il protocollo  */
+                if (limit == buffer.length)
+                    throw new IOException("riga di protocollo troppo lunga");
+                scanned = limit;
+                int read = input.read(buffer, limit, buffer.length - limit);
+                if (read < 0)
+                    return -1;
+                limit += read;
+            }
+        }
+
+        byte[] buffer() {
+            return buffer;
+        }
+
+        int lineStart() {
+            return lineStart;
+        }
+
+        /*  true se c'è già almeno un altro byte da leggere senza bloccarsi  */
+        boolean ready() throws IOException {
+            return position < limit || input.available() > 0;
+        }
+    }
+
+    /*
+     *   ammissione di una nuova connessione: oltre maxSessions sessioni aperte il client riceve subito un NOTOK e
+     *   la connessione viene chiusa, invece di occupare un thread; il permesso viene restituito da ClientSession.close()
+     */
+    private static boolean admit(Socket socket) {
+        if (sessionPermits.tryAcquire())
+            return true;
+        rejectedSessions.increment();
+        try (socket) {
+            socket.getOutputStream().write(Protocol.SERVER_FULL);
+        } catch (IOException e) {
+            /*  il client ha già chiuso la connessione  */
+        }
+        return false;
+    }
+
+    /*
+     *   Stato di un client connesso: esegue i comandi del protocollo testuale indipendentemente
+     *   da come le righe vengono lette dal socket (thread dedicato o reactor NIO)
+     */
+    public static class ClientSession {
+        /*
+         *   versione più alta del protocollo supportata dal server:
+         *   1 - una riga di risposta per ogni riga di comando, nello stesso ordine (ClientMain originale)
+         *   2 - negoziata con "HELLO 2": ogni comando può essere preceduto da un identificativo "#<id>", che viene
+         *       ripetuto in testa alla risposta, così il client può inviare più comandi senza attendere le risposte
+         */
+        public static final int PROTOCOL_VERSION = 2;
+        private userState clientUserState;
+        private int protocolVersion = 1;
+        /*  risposte dirette al client, codificate direttamente in byte (Protocol)    */
+        private final ResponseBuffer out;
+        /*  player mantiene il riferimento allo User che sta attualmente giocando la partita (prima del login è null)   */
+        private User player;
+        /*  utente trattenuto in memoria dal login di questa sessione (acquireUser), rilasciato da LOGOUT o dalla
+            chiusura; separato da player perché in modalità nio la chiusura può arrivare dal thread di I/O  */
+        private User held;
+        /*  buffer riutilizzati ad ogni SENDWORD per la costruzione del suggerimento   */
+        private final char[] hint = new char[Vocabulary.WORD_LENGTH];
+        private final int[] hintCounts = new int[SecretWord.ALPHABET];
+        /*  punteggi in classifica dell'utente prima di un SENDWORD */
+        private final double[] scores = new double[leaderboards.length];
+        /*  token del comando in esecuzione: inizio e fine di ciascuno nella riga, senza split()   */
+        private static final int MAX_TOKENS = 6;
+        private final int[] tokenStart = new int[MAX_TOKENS];
+        private final int[] tokenEnd = new int[MAX_TOKENS];
+        private int tokens;
+        private int requestIdLength;
+        private byte[] line;
+        /*  guessed word letta direttamente dai byte della riga */
+        private final ByteChars guess = new ByteChars();
+        private final AtomicBoolean closed = new AtomicBoolean(false);
+        /*  limiti di frequenza della connessione (null se disabilitati)  */
+        private final TokenBucket sendwordLimit = sendwordRate > 0 ? new TokenBucket(sendwordRate, sendwordBurst) : null;
+        private final TokenBucket shareLimit = shareRate > 0 ? new TokenBucket(shareRate, shareBurst) : null;
+        private final TokenBucket queryLimit = queryRate > 0 ? new TokenBucket(queryRate, queryBurst) : null;
+        private final TokenBucket assistLimit = assistRate > 0 ? new TokenBucket(assistRate, assistBurst) : null;
+        /*  latenza di esecuzione per ciascun tipo di comando, indicizzata per ordinal()   */
+        private static final LatencyHistogram[] commandLatency = new LatencyHistogram[msgType.values().length];
+        static {
+            for (msgType type : msgType.values())
+                commandLatency[type.ordinal()] = metrics.histogram("command." + type);
+        }
+        public ClientSession(ResponseBuffer out) {
+            this.out = out;
+            this.player = null;
+            activeSessions.increment();
+        }
+
+        /*
+         *   fine della sessione (EXIT, disconnessione o errore), può essere chiamato più volte
+         */
+        public void close() {
+            if (closed.compareAndSet(false, true)) {
+                activeSessions.decrement();
+                sessionPermits.release();
+                release();
+            }
+        }
+
+        /*
+         *   controllo dei limiti di frequenza di SENDWORD (share = false) o SHARE, della connessione e dell'utente
+         */
+        private boolean withinRate(boolean share) {
+            TokenBucket connectionLimit = share ? shareLimit : sendwordLimit;
+            /*  senza utente non c'è un limite per utente: i chiamanti rispondono prima con NOT_LOGGED  */
+            if (connectionLimit == null || player == null)
+                return true;
+            long now = System.nanoTime();
+            boolean allowed;
+            ReentrantLock lock = player.lock();
+            lock.lock();
+            try {
+                if (share && player.shareLimit == null)
+                    player.shareLimit = new TokenBucket(shareRate, shareBurst);
+                else if (!share && player.sendwordLimit == null)
+                    player.sendwordLimit = new TokenBucket(sendwordRate, sendwordBurst);
+                allowed = connectionLimit.tryTake(now) && (share ? player.shareLimit : player.sendwordLimit).tryTake(now);
+            } finally {
+                lock.unlock();
+            }
+            if (!allowed)
+                throttledCommands.increment();
+            return allowed;
+        }
+
+        /*
+         *   controllo del limite di frequenza della connessione per i comandi di sola lettura (assist = false) o ASSIST
+         */
+        private boolean withinQueryRate(boolean assist) {
+            TokenBucket limit = assist ? assistLimit : queryLimit;
+            if (limit == null || limit.tryTake(System.nanoTime()))
+                return true;
+            throttledCommands.increment();
+            return false;
+        }
+
+        /*
+         *   in modalità cluster solo il nodo proprietario dell'utente ne esegue LOGIN e REGISTER: agli altri
+         *   il client (o il router) riceve l'indirizzo del nodo giusto
+         */
+        private boolean ownedHere(String username) {
+            if (cluster == null || cluster.owns(username))
+                return true;
+            out.put(Protocol.NOTOK).line("utente gestito dal nodo " + cluster.owner(username));
+            return false;
+        }
+
+        private synchronized void hold(User user) {
+            held = user;
+            /*  sessione chiusa durante il login    */
+            if (closed.get())
+                release();
+        }
+
+        private synchronized void release() {
+            if (held != null) {
+                releaseUser(held);
+                held = null;
+            }
+        }
+
+        /*
+         *   restituisce true quando il client ha richiesto la terminazione della sessione (EXIT)
+         */
+        public boolean isInterrupted() {
+            return this.clientUserState == userState.INTERRUPTED;
+        }
+
+        /*
+         *   scansione della riga line[from, to): identificativo della richiesta (protocollo 2) e token separati da
+         *   spazi, con la stessa suddivisione di split(" "); restituisce l'indice del primo byte del comando
+         */
+        private int scan(byte[] line, int from, int to) {
+            this.line = line;
+            requestIdLength = protocolVersion >= 2 ? Protocol.requestIdLength(line, from, to) : 0;
+            if (requestIdLength > 0)
+                from += requestIdLength + 1;
+            tokens = 0;
+            int count = 0;
+            int start = from;
+            for (int i = from; i <= to; i++) {
+                if (i < to && line[i] != ' ')
+                    continue;
+                if (count < MAX_TOKENS) {
+                    tokenStart[count] = start;
+                    tokenEnd[count] = i;
+                }
+                count++;
+                /*  come split(" "), i token vuoti in fondo alla riga non contano    */
+                if (i > start)
+                    tokens = count;
+                start = i + 1;
+            }
+            return from;
+        }
+
+        /*  i-esimo token come String (username, password e comandi poco frequenti)   */
+        private String token(int i) {
+            return new String(line, tokenStart[i], tokenEnd[i] - tokenStart[i], Protocol.CHARSET);
+        }
+
+        /*  i-esimo token come intero, senza creare String   */
+        private int intToken(int i) {
+            int start = tokenStart[i];
+            int end = tokenEnd[i];
+            boolean negative = end > start && line[start] == '-';
+            if (negative)
+                start++;
+            if (start == end || end - start > 9)
+                throw new NumberFormatException();
+            int value = 0;
+            for (int j = start; j < end; j++) {
+                int digit = line[j] - '0';
+                if (digit < 0 || digit > 9)
+                    throw new NumberFormatException();
+                value = value * 10 + digit;
+            }
+            return negative ? -value : value;
+        }
+
+        /*
+         *   esecuzione di un singolo comando ricevuto dal client, contenuto in line[offset, offset + length)
+         *   (senza terminatore di riga); la risposta viene scritta in coda al ResponseBuffer della sessione
+         */
+        public void handleMessage(byte[] line, int offset, int length) throws IOException {
+            /*  la parola segreta viene letta una sola volta per non mescolare due rotazioni nello stesso comando  */
+            SecretWord secret = secretWord;
+            long start = System.nanoTime();
+            /*  dalla versione 2 il comando può essere preceduto dall'identificativo della richiesta  */
+            scan(line, offset, offset + length);
+            /*  ogni comando risponde con esattamente una riga: l'identificativo ne diventa il prefisso  */
+            if (requestIdLength > 0)
+                out.put(line, offset, requestIdLength).put(' ');
+            msgType command = tokens > 0 ? Protocol.command(line, tokenStart[0], tokenEnd[0]) : null;
+            /*  comando sconosciuto o senza i parametri obbligatori  */
+            if (command == null || tokens < 1 + requiredArguments(command)) {
+                out.put(Protocol.INVALID_COMMAND);
+                return;
+            }
+            /*  controllo di msgType per vedere il tipo di richiesta effettuata dall'utente */
+            switch (command) {
+                case LOGIN:
+                    /*  se player!=null allora è già stato eseguito il login    */
+                    if (player != null)
+                        out.put(Protocol.ALREADY_LOGGED);
+                    else {
+                        String username = token(1);
+                        if (!ownedHere(username))
+                            break;
+                        switch (login(username, token(2))) {
+                            case 0:
+                                out.put(Protocol.UNKNOWN_USER);
+                                break;
+                            case 1:
+                                out.put(Protocol.LOGGED_IN);
+                                /*  se il login è stato eseguito con successo l'utente passa allo stato di LOGGED   */
+                                this.clientUserState = userState.LOGGED;
+                                /*  se l'utente ha eseguito il login correttamente mantengo un suo riferimento in player*/
+                                player = acquireUser(username);
+                                hold(player);
+                                logger.log(player.username + " ha effettuato il login.");
+                                break;
+                            case -1:
+                                out.put(Protocol.WRONG_PASSWORD);
+                                break;
+                            default:
+                                break;
+                        }
+                    }
+                    break;
+                case REGISTER: {
+                    String username = token(1);
+                    if (!ownedHere(username))
+                        break;
+                    switch (register(username, token(2))) {
+                        case 0:
+                            out.put(Protocol.USER_EXISTS);
+                            break;
+                        case 1:
+                            logger.log(username + " registrato.");
+                            out.put(Protocol.REGISTERED);
+                            break;
+                        default:
+                            break;
+                    }
+                    break;
+                }
+                case LOGOUT:
+                    if(player!=null) {
+                        logger.log(player.username + " ha effettuato il logout.");
+                        release();
+                        player = null;
+                        /*  una partita in corso termina con il logout: come prima del login nessuno stato  */
+                        clientUserState = null;
+                        out.put(Protocol.LOGGED_OUT);
+                    }
+                    else
+                        out.put(Protocol.NOT_LOGGED);
+                    break;
+                case PLAYWORDLE:
+                    if(player!=null) {
+                        ReentrantLock lock = player.lock();
+                        lock.lock();
+                        try {
+                            /*  se è stata estratta una nuova parola lo stato giornaliero dell'utente viene resettato  */
+                            player.refresh(secret.epoch);
+                            if(player.remainingTrials == 0){
+                                out.put(Protocol.NO_TRIALS_LEFT);
+                            }
+                            else if(player.hasWonToday){
+                                out.put(Protocol.ALREADY_WON);
+                            }
+                            else {
+                                /*  se l'utente porta a termine la richiesta di giocare passa allo stato d'INGAME*/
+                                logger.log(player.username + " ha accesso alla partita.");
+                                clientUserState = userState.INGAME;
+                                out.put(Protocol.CAN_PLAY).put(player.remainingTrials).put(Protocol.TRIALS);
+                            }
+                        } finally {
+                            lock.unlock();
+                        }
+                    }
+                    else
+                        out.put(Protocol.NOT_LOGGED);
+                    break;
+                case SENDWORD:
+                    /*  controllo se il giocatore è entrato in partita; i tentativi troppo ravvicinati vengono
+                        rifiutati prima della ricerca nel vocabolario   */
+                    if (player == null)
+                        out.put(Protocol.NOT_LOGGED);
+                    else if (clientUserState == userState.INGAME && !withinRate(false))
+                        out.put(Protocol.SENDWORD_THROTTLED);
+                    else if (clientUserState == userState.INGAME){
+                        /*  la guessed word resta nei byte della riga  */
+                        ByteChars guessedWord = guess.wrap(line, tokenStart[1], tokenEnd[1] - tokenStart[1]);
+                        /*  i controlli sulla parola non toccano lo stato dell'utente e restano fuori dal lock   */
+                        boolean won = secret.word.contentEquals(guessedWord);
+                        boolean valid = won || checkVocabulary(guessedWord);
+                        boolean changed = false;
+                        UserChange change = null;
+                        GameRecord game = null;
+                        ReentrantLock lock = player.lock();
+                        lock.lock();
+                        try {
+                            /*  se è stata estratta una nuova parola lo stato giornaliero dell'utente viene resettato  */
+                            player.refresh(secret.epoch);
+                            double[] scores = leaderboardScores(player, this.scores);
+                            /*  lo stesso utente può giocare da più sessioni: la partita potrebbe essere già conclusa   */
+                            if (player.hasWonToday || player.remainingTrials == 0) {
+                                clientUserState = userState.LOGGED;
+                                out.put(Protocol.CANNOT_PLAY);
+                            }
+                            /*Se il giocatore ha indovinato la parola ha vinto e aggiorno le sue statistiche   */
+                            else if(won) {
+                                /*  al primo tentativo corretto di SENDWORD incremento il numero di partite giocate */
+                                if(player.remainingTrials == 12)
+                                    player.matchPlayed++;
+                                out.put(Protocol.WON);
+                                logger.log(player.username + " ha vinto la partita.");
+                                player.addGuess(guessedWord);
+                                player.addHint("++++++++++");
+                                player.guessDistribution[12 - player.remainingTrials]++;
+                                player.remainingTrials--;
+                                player.matchWon++;
+                                player.hasWonToday = true;
+                                player.lastMatchWon = true;
+                                player.lastStreak++;
+                                if (player.lastStreak > player.streakRecord)
+                                    player.streakRecord = player.lastStreak;
+                                clientUserState = userState.LOGGED;
+                                game = GameRecord.of(player, secret, true);
+                                changed = true;
+                            }
+                            /*  controllo se la GuessedWord è nel vocabolario, in quel caso conteggio il tentativo  */
+                            else if (valid){
+                                /*  al primo tentativo corretto di SENDWORD incremento il numero di partite giocate */
+                                if(player.remainingTrials == 12)
+                                    player.matchPlayed++;
+                                player.remainingTrials--;
+                                /*  costruzione del suggerimento da inviare all'utente  */
+                                secret.hint(guessedWord, hint, hintCounts);
+                                player.addGuess(guessedWord);
+                                player.addHint(hint);
+                                /*  controllo dei tentativi rimanenti   */
+                                if (player.remainingTrials >0) {
+                                    /*  se il giocatore non ha ancora esaurito i tentativi  */
+                                    out.put(Protocol.OK).put(hint).put(Protocol.TRIALS_AVAILABLE).put(player.remainingTrials).put(Protocol.TRIALS);
+                                }
+                                else{
+                                    /*  se il giocatore ha esaurito i tentativi e ha parso la partita giornaliera   */
+                                    clientUserState = userState.LOGGED;
+                                    player.lastStreak = 0;
+                                    player.lastMatchWon = false;
+                                    game = GameRecord.of(player, secret, false);
+                                    out.put(Protocol.OK).put(hint).put(Protocol.TRIALS_OVER);
+                                }
+                                changed = true;
+                            }
+                            else
+                                /*  se la parola non è nel vocabolario lo notifico al giocatore */
+                                out.put(Protocol.NOT_IN_VOCABULARY);
+                            /*  sotto il lock dell'utente, così le classifiche vedono le modifiche nello stesso ordine;
+                                un utente non ancora in classifica vi entra con lo stato attuale (LeaderboardLoader)  */
+                            if (changed) {
+                                if (persistence.recordsChanges())
+                                    change = UserChange.of(player);
+                                player.changes++;
+                                if (player.ranked)
+                                    updateLeaderboards(player, scores);
+                            }
+                        } finally {
+                            lock.unlock();
+                        }
+                        /*  Al termine aggiorno i dati dell'utente per renderli consistenti nel file users.json:
+                            fuori dal lock, così un fsync del journal non blocca gli altri utenti della stessa striscia */
+                        if (changed)
+                            persistence.userChanged(player, change);
+                        if (game != null && history != null)
+                            history.append(game);
+                    }
+                    else
+                        /*  se il giocatore non è in partita non può giocare    */
+                        out.put(Protocol.CANNOT_PLAY);
+                    break;
+                case SENDSTATS:
+                    if (!withinQueryRate(false)) {
+                        out.put(Protocol.QUERY_THROTTLED);
+                        break;
+                    }
+                    /* controllo se l'utente ha eseguito il login */
+                    if(player != null) {
+                        /*  le statistiche dell'utente che ne fa richiesta vengono scritte direttamente nella risposta */
+                        ReentrantLock lock = player.lock();
+                        lock.lock();
+                        try {
+                            /*  un utente senza partite giocate ha win rate 0 (e non NaN)  */
+                            float winRate = player.matchPlayed == 0 ? 0 : (float) player.matchWon / player.matchPlayed;
+                            out.put(Protocol.OK).put(player.matchPlayed);
+                            /*  stesso formato di Float.toString del protocollo originale    */
+                            out.put(' ').put(Float.toString(winRate));
+                            out.put(' ').put(player.lastStreak);
+                            out.put(' ').put(player.streakRecord);
+                            for (int i=1;i<13;i++)
+                                out.put(' ').put(player.guessDistribution[i - 1]);
+                            out.endLine();
+                        } finally {
+                            lock.unlock();
+                        }
+                    }
+                    else
+                        out.put(Protocol.NOT_LOGGED);
+                    break;
+                case SHARE:
+                    /*  controllo se l'utente ha eseguito il login  */
+                    if(player==null)
+                        out.put(Protocol.NOT_LOGGED);
+                    else if (!withinRate(true))
+                        out.put(Protocol.SHARE_THROTTLED);
+                    else {
+                        StringBuilder wordSuggestions = new StringBuilder();
+                        ReentrantLock lock = player.lock();
+                        lock.lock();
+                        try {
+                            /*  se è stata estratta una nuova parola lo stato giornaliero dell'utente viene resettato  */
+                            player.refresh(secret.epoch);
+                            for (int i = 0; i < player.hintCount(); i++) {
+                                player.appendHint(i, wordSuggestions.append(" "));
+                            }
+                        } finally {
+                            lock.unlock();
+                        }
+                        /*  se il giocatore non ha ancora usato tentativi non ha niente da condividere  */
+                        if (wordSuggestions.length() == 0)
+                            out.put(Protocol.NOTHING_TO_SHARE);
+                        /*  condivisione dei propri risultati agli altri giocatori  */
+                        else if (broadcaster.share(player.username + wordSuggestions))
+                            out.put(Protocol.SHARED);
+                        else
+                            out.put(Protocol.SHARE_QUEUE_FULL);
+                    }
+                    break;
+                case EXIT:
+                    /*  invio del messaggio di terminazione */
+                    broadcaster.share("STOP");
+                    this.clientUserState = userState.INTERRUPTED;
+                    out.put(Protocol.GOODBYE);
+                    break;
+                case STATS:
+                    /*  comando di amministrazione STATS <statsKey>: metriche del server su una sola riga  */
+                    if (!withinQueryRate(false))
+                        out.put(Protocol.QUERY_THROTTLED);
+                    else if (!statsEnabled)
+                        out.put(Protocol.DISABLED);
+                    else if (statsKey.isEmpty() || tokens < 2 || !MessageDigest.isEqual(statsKey.getBytes(StandardCharsets.UTF_8), token(1).getBytes(StandardCharsets.UTF_8)))
+                        out.put(Protocol.NOT_AUTHORIZED);
+                    else
+                        out.put(Protocol.OK).line(metrics.report());
+                    break;
+                case RANKING:
+                    /*  RANKING [winrate|streak|guesses] [k]: prime k posizioni della classifica, precedute dal numero
+                        di utenti classificati e dalla posizione del giocatore (0 se non ha eseguito il login o non è
+                        ancora in classifica)  */
+                    if (!withinQueryRate(false)) {
+                        out.put(Protocol.QUERY_THROTTLED);
+                        break;
+                    }
+                    Leaderboard board = tokens > 1 ? leaderboard(token(1)) : leaderboards[0];
+                    if (board == null) {
+                        out.put(Protocol.UNKNOWN_LEADERBOARD);
+                        break;
+                    }
+                    int top = 10;
+                    try {
+                        if (tokens > 2)
+                            top = Math.max(1, Math.min(100, intToken(2)));
+                    } catch (NumberFormatException e) {
+                        out.put(Protocol.INVALID_POSITIONS);
+                        break;
+                    }
+                    int position = 0;
+                    if (player != null) {
+                        ReentrantLock lock = player.lock();
+                        lock.lock();
+                        try {
+                            position = board.rank(player);
+                        } finally {
+                            lock.unlock();
+                        }
+                    }
+                    StringBuilder ranking = new StringBuilder();
+                    ranking.append(board.size()).append(' ').append(position);
+                    board.appendTop(top, ranking);
+                    out.put(Protocol.OK).line(ranking);
+                    break;
+                case HISTORY:
+                    /*  HISTORY hardest [n] | distribution | daily [n]: aggregati dello storico delle partite di questo
+                        server, preceduti dal numero di partite registrate   */
+                    if (!withinQueryRate(false)) {
+                        out.put(Protocol.QUERY_THROTTLED);
+                        break;
+                    }
+                    if (history == null) {
+                        out.put(Protocol.HISTORY_DISABLED);
+                        break;
+                    }
+                    int entries = 10;
+                    try {
+                        if (tokens > 2)
+                            entries = Math.max(1, Math.min(100, intToken(2)));
+                    } catch (NumberFormatException e) {
+                        out.put(Protocol.INVALID_ENTRIES);
+                        break;
+                    }
+                    String result = history.query(tokens > 1 ? token(1) : "hardest", entries);
+                    if (result == null)
+                        out.put(Protocol.UNKNOWN_QUERY);
+                    else
+                        out.put(Protocol.OK).line(result);
+                    break;
+                case ASSIST:
+                    /*  ASSIST [k]: numero di parole ancora compatibili con i suggerimenti della partita in corso e le
+                        prime k per informazione attesa; i tentativi di cui il server non conosce la parola (partita
+                        iniziata prima di un riavvio) non vengono considerati   */
+                    if (!assistEnabled) {
+                        out.put(Protocol.DISABLED);
+                        break;
+                    }
+                    if (player == null) {
+                        out.put(Protocol.NOT_LOGGED);
+                        break;
+                    }
+                    if (!withinQueryRate(true)) {
+                        out.put(Protocol.QUERY_THROTTLED);
+                        break;
+                    }
+                    int suggestions = 5;
+                    try {
+                        if (tokens > 1)
+                            suggestions = Math.max(1, Math.min(Solver.MAX_TOP, intToken(1)));
+                    } catch (NumberFormatException e) {
+                        out.put(Protocol.INVALID_ENTRIES);
+                        break;
+                    }
+                    long[] guesses;
+                    int[] hintCodes;
+                    int attempts = 0;
+                    ReentrantLock assistLock = player.lock();
+                    assistLock.lock();
+                    try {
+                        player.refresh(secret.epoch);
+                        guesses = new long[player.hintCount()];
+                        hintCodes = new int[player.hintCount()];
+                        for (int i = 0; i < player.hintCount(); i++) {
+                            if (player.guess(i) > 0) {
+                                guesses[attempts] = player.guess(i);
+                                hintCodes[attempts++] = player.hintCode(i);
+                            }
+                        }
+                    } finally {
+                        assistLock.unlock();
+                    }
+                    /*  la soluzione viene calcolata fuori dal lock dell'utente */
+                    out.put(Protocol.OK).line(solver().assist(guesses, hintCodes, attempts).format(suggestions));
+                    break;
+                case CLUSTER:
+                    /*  comandi interni tra i nodi: CLUSTER <clusterKey> WORD | ROTATE <epoca> <parola>   */
+                    if (cluster == null || tokens < 3 || !cluster.authorized(token(1)))
+                        out.put(Protocol.INVALID_COMMAND);
+                    else if (token(2).equals("WORD") && secret != null)
+                        out.put(Protocol.OK).put(secret.epoch).put(' ').line(secret.word);
+                    else if (token(2).equals("ROTATE") && tokens == 5) {
+                        try {
+                            installSecretWord(Cluster.parseWord(token(3), token(4)));
+                            out.put(Protocol.WORD_RECEIVED);
+                        } catch (IOException e) {
+                            out.put(Protocol.NOTOK).line(e.getMessage());
+                        }
+                    }
+                    else
+                        out.put(Protocol.INVALID_CLUSTER_COMMAND);
+                    break;
+                case HELLO:
+                    /*  negoziazione della versione: si adotta la più alta supportata sia dal client che dal server  */
+                    try {
+                        int requested = intToken(1);
+                        protocolVersion = Math.max(1, Math.min(requested, PROTOCOL_VERSION));
+                        out.put(Protocol.OK).put(protocolVersion).endLine();
+                    } catch (NumberFormatException e) {
+                        out.put(Protocol.INVALID_VERSION);
+                    }
+                    break;
+                default:
+                    /*  OK e NOTOK non sono comandi: la risposta mantiene una riga per ogni richiesta   */
+                    out.put(Protocol.INVALID_COMMAND);
+                    break;
+            }
+            commandLatency[command.ordinal()].recordSince(start);
+        }
+
+        /*  parametri obbligatori di ciascun comando (quelli che la versione con split() leggeva senza controllo)   */
+        private static int requiredArguments(msgType command) {
+            switch (command) {
+                case LOGIN:
+                case REGISTER:
+                    return 2;
+                case SENDWORD:
+                case HELLO:
+                    return 1;
+                default:
+                    return 0;
+            }
+        }
+    }
+
+    /*
+     *   Classe Runnable utilizzata per gestire ciascun client connesso al server
+     */
+    public static class ClientHandler implements Runnable {
+        /*  dimensione massima di una riga di protocollo: oltre la connessione viene chiusa   */
+        private static final int LINE_BUFFER_SIZE = 8192;
+        /*  lettura delle righe provenienti dal client in un buffer di byte riutilizzato    */
+        private final LineReader in;
+        private final OutputStream output;
+        private final ResponseBuffer out = new ResponseBuffer();
+        private final ClientSession session;
+        Socket socket;
+        public ClientHandler(Socket socket) throws IOException {
+            this.socket = socket;
+            this.in = new LineReader(this.socket.getInputStream(), LINE_BUFFER_SIZE);
+            /*  le risposte si accumulano in out e vengono inviate con una sola scrittura quando non ci sono
+                altri comandi già ricevuti da eseguire (una scrittura per ogni lotto letto)   */
+            this.output = this.socket.getOutputStream();
+            /*  una connessione senza comandi per idleTimeoutSeconds viene chiusa (SocketTimeoutException)    */
+            if (idleTimeoutSeconds > 0)
+                this.socket.setSoTimeout(idleTimeoutSeconds * 1000);
+            /*  ultima istruzione: se il costruttore fallisce il permesso di admit() non è ancora della sessione  */
+            this.session = new ClientSession(this.out);
+        }
+
+        private void flush() throws IOException {
+            if (out.length() > 0) {
+                out.writeTo(output);
+                out.clear();
+            }
+        }
+
+        @Override
+        public void run() {
+            try {
+                int length;
+                /*  next() restituisce -1 quando il client chiude la connessione senza EXIT    */
+                while (!this.session.isInterrupted() && (length = this.in.next()) >= 0) {
+                    this.session.handleMessage(this.in.buffer(), this.in.lineStart(), length);
+                    if (!this.in.ready()) {
+                        flush();
+                        replyFlushes.increment();
+                    }
+                }
+            } catch (SocketTimeoutException e) {
+                idleSessions.increment();
+            } catch (IOException e) {
+                /*  connessione interrotta dal client: la sessione termina come dopo EXIT   */
+            } catch (RuntimeException e) {
+                /*  errore nell'esecuzione di un comando: la sessione termina, come in modalità nio    */
+                e.printStackTrace();
+            } finally {
+                /*  risposte rimaste nel buffer, ad esempio quella di EXIT seguita da altri comandi */
+                try {
+                    flush();
+                } catch (IOException e) {
+                    /*  il client ha già chiuso la connessione  */
+                }
+                this.session.close();
+                try {
+                    this.socket.close();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        }
+    }
+    /*
+     *   Front end event-driven alternativo al modello thread-per-connessione (serverMode = nio):
+     *   -un thread acceptor accetta le connessioni e le distribuisce round-robin tra ioThreads selettori
+     *   -ogni selettore legge i byte dei suoi client e li spezza in righe in un ByteBuffer per connessione
+     *   -le righe vengono eseguite da un pool di worker limitato, in ordine per ciascuna connessione
+     *   -se un client accumula più di connectionPendingLines righe da eseguire o connectionOutgoingBytes byte di
+     *    risposte non letti, il selettore smette di leggere dalla sua connessione (niente OP_READ) finché i worker
+     *    e le scritture non riportano le code sotto i limiti: il client che non legge le risposte resta fermo
+     *    invece di far crescere le code senza limite
+     *   Il protocollo testuale è lo stesso di ClientHandler, quindi ClientMain funziona senza modifiche.
+     */
+    public static class NioServer {
+        /*  dimensione massima di una riga di protocollo: oltre la connessione viene chiusa   */
+        private static final int READ_BUFFER_SIZE = 1024;
+        private final ServerSocketChannel acceptChannel;
+        private final IoLoop[] loops;
+        private final ThreadPoolExecutor workers;
+        private volatile boolean running = true;
+
+        public NioServer(int port, int ioThreads, int workerThreads, int workerQueue) throws IOException {
+            this.acceptChannel = ServerSocketChannel.open();
+            this.acceptChannel.bind(new InetSocketAddress(port), acceptBacklog);
+            this.workers = new ThreadPoolExecutor(workerThreads, workerThreads, 0L, TimeUnit.MILLISECONDS,
+                    new ArrayBlockingQueue<>(workerQueue));
+            this.loops = new IoLoop[ioThreads];
+            for (int i = 0; i < ioThreads; i++)
+                this.loops[i] = new IoLoop();
+        }
+
+        /*
+         *   avvio dei selettori e ciclo di accettazione delle connessioni (bloccante fino a shutdown())
+         */
+        public void serve() throws IOException {
+            for (int i = 0; i < loops.length; i++)
+                new Thread(loops[i], "nio-io-" + i).start();
+            int next = 0;
+            while (running) {
+                SocketChannel channel;
+                try {
+                    channel = acceptChannel.accept();
+                } catch (ClosedChannelException e) {
+                    break;
+                }
+                if (!admit(channel.socket()))
+                    continue;
+                channel.configureBlocking(false);
+                channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+                loops[next].register(new Connection(channel, loops[next]));
+                next = (next + 1) % loops.length;
+            }
+        }
+
+        public int workerQueueDepth() {
+            return workers.getQueue().size();
+        }
+
+        public void shutdown() {
+            running = false;
+            try {
+                acceptChannel.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+            for (IoLoop loop : loops)
+                loop.selector.wakeup();
+            workers.shutdown();
+            try {
+                /*  Attesa della terminazione dei comandi in corso con timeout di QUATTRO secondi    */
+                if (!workers.awaitTermination(4, TimeUnit.SECONDS)) {
+                    System.out.println("I worker NIO non hanno terminato i task nei tempi previsti.");
+                }
+            } catch (InterruptedException e) {
+                throw new RuntimeException(e);
+            }
+        }
+
+        /*
+         *   thread di I/O: un Selector che gestisce letture e scritture di un sottoinsieme delle connessioni
+         */
+        private class IoLoop implements Runnable {
+            private final Selector selector;
+            /*  operazioni richieste da altri thread (registrazioni, richieste di scrittura) da eseguire sul selettore */
+            private final ConcurrentLinkedQueue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+
+            IoLoop() throws IOException {
+                this.selector = Selector.open();
+            }
+
+            void execute(Runnable task) {
+                tasks.add(task);
+                selector.wakeup();
+            }
+
+            void register(Connection connection) {
+                execute(() -> {
+                    try {
+                        connection.key = connection.channel.register(selector, SelectionKey.OP_READ, connection);
+                    } catch (ClosedChannelException e) {
+                        connection.close();
+                    }
+                });
+            }
+
+            /*
+             *   chiusura delle connessioni senza letture né scritture da idleTimeoutSeconds
+             */
+            private void closeIdle(long now) {
+                long timeout = TimeUnit.SECONDS.toNanos(idleTimeoutSeconds);
+                for (SelectionKey key : selector.keys()) {
+                    Connection connection = (Connection) key.attachment();
+                    if (now - connection.lastActivity > timeout && !connection.scheduled.get()) {
+                        idleSessions.increment();
+                        connection.close();
+                    }
+                }
+            }
+
+            @Override
+            public void run() {
+                long lastIdleCheck = System.nanoTime();
+                while (running) {
+                    try {
+                        /*  con il timeout di inattività il selettore si risveglia almeno una volta al secondo  */
+                        if (idleTimeoutSeconds > 0)
+                            selector.select(1000);
+                        else
+                            selector.select();
+                        if (idleTimeoutSeconds > 0 && System.nanoTime() - lastIdleCheck > TimeUnit.SECONDS.toNanos(1)) {
+                            lastIdleCheck = System.nanoTime();
+                            closeIdle(lastIdleCheck);
+                        }
+                        Runnable task;
+                        while ((task = tasks.poll()) != null)
+                            task.run();
+                        Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                        while (keys.hasNext()) {
+                            SelectionKey key = keys.next();
+                            keys.remove();
+                            Connection connection = (Connection) key.attachment();
+                            try {
+                                if (key.isValid() && key.isReadable())
+                                    connection.read();
+                                if (key.isValid() && key.isWritable())
+                                    connection.write();
+                            } catch (IOException e) {
+                                connection.close();
+                            }
+                        }
+                    } catch (IOException e) {
+                        e.printStackTrace();
+                        break;
+                    }
+                }
+                /*  chiusura di tutte le connessioni gestite dal selettore   */
+                for (SelectionKey key : selector.keys())
+                    ((Connection) key.attachment()).close();
+                try {
+                    selector.close();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        }
+
+        /*
+         *   connessione di un client: framing delle righe in ingresso, coda dei comandi e delle risposte.
+         *   Quando è presente almeno una riga completa la connessione stessa viene sottomessa ai worker,
+         *   che eseguono i comandi uno alla volta tramite la ClientSession associata.
+         */
+        private class Connection implements Runnable {
+            private final SocketChannel channel;
+            private final IoLoop loop;
+            private SelectionKey key;
+            private final ByteBuffer readBuffer = ByteBuffer.allocate(READ_BUFFER_SIZE);
+            /*  righe complete in attesa di essere eseguite */
+            private final ConcurrentLinkedQueue<byte[]> pending = new ConcurrentLinkedQueue<>();
+            /*  true se la connessione è già in coda (o in esecuzione) su un worker */
+            private final AtomicBoolean scheduled = new AtomicBoolean(false);
+            /*  risposte codificate in attesa di essere scritte sul socket  */
+            private final ConcurrentLinkedQueue<ByteBuffer> outgoing = new ConcurrentLinkedQueue<>();
+            /*  dimensione delle due code, confrontata con connectionPendingLines e connectionOutgoingBytes   */
+            private final AtomicInteger pendingLines = new AtomicInteger();
+            private final AtomicLong outgoingBytes = new AtomicLong();
+            /*  true mentre le letture sono sospese perché una delle code ha superato il limite    */
+            private volatile boolean paused = false;
+            /*  la sessione scrive le risposte in replies, che viene svuotato dopo ogni lotto di comandi  */
+            private final ResponseBuffer replies = new ResponseBuffer();
+            private final ClientSession session = new ClientSession(replies);
+            /*  impostato dopo EXIT: la connessione viene chiusa appena le risposte sono state scritte    */
+            private volatile boolean closing = false;
+            /*  ultimo istante (nanoTime) di lettura o scrittura, per la chiusura delle connessioni inattive  */
+            private volatile long lastActivity = System.nanoTime();
+
+            Connection(SocketChannel channel, IoLoop loop) {
+                this.channel = channel;
+                this.loop = loop;
+            }
+
+            /*
+             *   eseguito dal thread di I/O: lettura dei byte disponibili ed estrazione delle righe complete
+             */
+            void read() throws IOException {
+                lastActivity = System.nanoTime();
+                if (channel.read(readBuffer) == -1) {
+                    close();
+                    return;
+                }
+                readBuffer.flip();
+                int start = readBuffer.position();
+                int lines = 0;
+                for (int i = start; i < readBuffer.limit(); i++) {
+                    if (readBuffer.get(i) == '\n') {
+                        int end = i;
+                        if (end > start && readBuffer.get(end - 1) == '\r')
+                            end--;
+                        byte[] line = new byte[end - start];
+                        readBuffer.get(start, line);
+                        pending.add(line);
+                        lines++;
+                        start = i + 1;
+                    }
+                }
+                pendingLines.addAndGet(lines);
+                readBuffer.position(start);
+                readBuffer.compact();
+                /*  buffer pieno senza terminatore di riga: il client non rispetta il protocollo */
+                if (!readBuffer.hasRemaining()) {
+                    close();
+                    return;
+                }
+                updateInterest();
+                if (!pending.isEmpty())
+                    schedule();
+            }
+
+            /*
+             *   eseguito dal thread di I/O: OP_READ solo se entrambe le code sono sotto i limiti, OP_WRITE se ci
+             *   sono risposte da scrivere
+             */
+            void updateInterest() {
+                if (key == null || !key.isValid())
+                    return;
+                boolean full = pendingLines.get() >= connectionPendingLines || outgoingBytes.get() >= connectionOutgoingBytes;
+                if (full && !paused)
+                    pausedReads.increment();
+                paused = full;
+                key.interestOps((full ? 0 : SelectionKey.OP_READ) | (outgoing.isEmpty() ? 0 : SelectionKey.OP_WRITE));
+            }
+
+            /*
+             *   eseguito dal thread di I/O: scrittura delle risposte accodate dai worker
+             */
+            void write() throws IOException {
+                lastActivity = System.nanoTime();
+                ByteBuffer buffer;
+                while ((buffer = outgoing.peek()) != null) {
+                    channel.write(buffer);
+                    /*  socket pieno: si riprova al prossimo evento OP_WRITE    */
+                    if (buffer.hasRemaining())
+                        return;
+                    outgoing.poll();
+                    outgoingBytes.addAndGet(-buffer.limit());
+                }
+                updateInterest();
+                if (closing)
+                    close();
+            }
+
+            private void schedule() {
+                if (scheduled.compareAndSet(false, true)) {
+                    try {
+                        workers.execute(this);
+                    } catch (RejectedExecutionException e) {
+                        /*  pool saturo: le richieste in attesa vengono rifiutate subito invece di accumularsi  */
+                        ResponseBuffer rejected = new ResponseBuffer();
+                        byte[] line;
+                        while ((line = pending.poll()) != null) {
+                            pendingLines.decrementAndGet();
+                            /*  con il protocollo 2 anche il rifiuto porta l'identificativo della richiesta  */
+                            int requestId = session.protocolVersion >= 2 ? Protocol.requestIdLength(line, 0, line.length) : 0;
+                            if (requestId > 0)
+                                rejected.put(line, 0, requestId).put(' ');
+                            rejected.put(Protocol.OVERLOADED);
+                        }
+                        if (rejected.length() > 0)
+                            send(rejected.copy());
+                        scheduled.set(false);
+                    }
+                }
+            }
+
+            private void send(ByteBuffer reply) {
+                outgoingBytes.addAndGet(reply.limit());
+                outgoing.add(reply);
+                loop.execute(this::updateInterest);
+            }
+
+            /*
+             *   eseguito da un worker: esecuzione in ordine dei comandi accodati; le risposte dell'intero lotto
+             *   vengono inviate al thread di I/O con un'unica richiesta di scrittura
+             */
+            @Override
+            public void run() {
+                byte[] line;
+                try {
+                    while (!closing && (line = pending.poll()) != null) {
+                        pendingLines.decrementAndGet();
+                        session.handleMessage(line, 0, line.length);
+                        if (session.isInterrupted())
+                            closing = true;
+                    }
+                } catch (Exception e) {
+                    /*  comando non valido o errore di I/O: come per ClientHandler la sessione termina */
+                    e.printStackTrace();
+                    close();
+                }
+                if (replies.length() > 0) {
+                    send(replies.copy());
+                    replies.clear();
+                    replyFlushes.increment();
+                }
+                /*  con le letture sospese e senza risposte da inviare il selettore va avvisato che la coda si è svuotata  */
+                else if (paused)
+                    loop.execute(this::updateInterest);
+                scheduled.set(false);
+                /*  una riga arrivata tra l'ultimo poll e il reset del flag verrebbe altrimenti ignorata */
+                if (!closing && !pending.isEmpty())
+                    schedule();
+            }
+
+            void close() {
+                closing = true;
+                session.close();
+                if (key != null)
+                    key.cancel();
+                try {
+                    channel.close();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        }
     }
 
     /*
-     *    Runnable utilizzato da un thread del server per avviare una nuova partita
-     *    -resetta i tentativi
-     *    -estrae una nuova secret word
-     *    -resetta lo stato di vittoria giornaliera
-     *    -resetta i suggerimenti
+     *   Anello di consistent hashing per la partizione degli utenti tra i nodi del cluster: ogni nodo occupa
+     *   virtualNodes punti dell'anello (hash di "host:porta#i") e uno username appartiene al nodo del primo punto
+     *   che segue il suo hash. Aggiungendo o togliendo un nodo cambia proprietario solo la parte di utenti
+     *   compresa tra i suoi punti; i punti sono in un long[] ordinato, la ricerca è binaria e non alloca.
      */
+    static class HashRing {
+        private final long[] points;
+        private final int[] owners;
 
-    public static class WordExtractor implements Runnable {
-        private static String extractSecretWord() throws IOException {
-            RandomAccessFile words = new RandomAccessFile("words.txt", "r");
-            long randomLocation = (long) (Math.random() * words.length());
-            randomLocation = randomLocation - randomLocation % 11;
-            words.seek(randomLocation);
-            String secretWord = words.readLine();
-            words.close();
-            return secretWord;
-        }
-        @Override
-        public void run() {
-            try {
-                secretWord = extractSecretWord();
-            } catch (IOException e) {
-                throw new RuntimeException(e);
+        HashRing(List<String> nodes, int virtualNodes) {
+            TreeMap<Long, Integer> ring = new TreeMap<>();
+            for (int node = 0; node < nodes.size(); node++)
+                for (int i = 0; i < virtualNodes; i++)
+                    ring.putIfAbsent(hash(nodes.get(node) + "#" + i), node);
+            points = new long[ring.size()];
+            owners = new int[ring.size()];
+            int i = 0;
+            for (Map.Entry<Long, Integer> point : ring.entrySet()) {
+                points[i] = point.getKey();
+                owners[i++] = point.getValue();
             }
-            for(String e: users.keySet()){
+        }
+
+        /*  indice del nodo proprietario della chiave   */
+        int owner(String key) {
+            int i = Arrays.binarySearch(points, hash(key));
+            if (i < 0)
+                i = -i - 1;
+            return owners[i == points.length ? 0 : i];
+        }
 
-                users.get(e).remainingTrials = 12;
-                users.get(e).hasWonToday = false;
-                users.get(e).wordSuggestions = new ArrayList<>();
+        /*
+         *   hash a 64 bit stabile tra JVM diverse (String.hashCode distribuisce male chiavi simili):
+         *   FNV-1a sui caratteri seguito dal rimescolamento finale di MurmurHash3
+         */
+        static long hash(String key) {
+            long h = 0xcbf29ce484222325L;
+            for (int i = 0; i < key.length(); i++) {
+                h ^= key.charAt(i);
+                h *= 0x100000001b3L;
             }
+            h ^= h >>> 33;
+            h *= 0xff51afd7ed558ccdL;
+            h ^= h >>> 33;
+            h *= 0xc4ceb9fe1a85ec53L;
+            h ^= h >>> 33;
+            return h;
+        }
+    }
+
+    /*
+     *   Modalità cluster (clusterNodes non vuoto): gli utenti sono partizionati tra più processi ServerMain con
+     *   HashRing, ciascuno con il proprio archivio. Il nodo 0 è il coordinatore: estrae la parola segreta e la
+     *   invia agli altri nodi ad ogni rotazione; gli altri la chiedono al coordinatore all'avvio e periodicamente.
+     *   I nodi comunicano con il protocollo testuale dei client, tramite il comando interno
+     *   CLUSTER <clusterKey> WORD | ROTATE <epoca> <parola>, rifiutato senza la chiave giusta.
+     *   I client si collegano al router (java ServerMain router), che inoltra i comandi al nodo proprietario.
+     */
+    static class Cluster {
+        private static final int CONNECT_TIMEOUT_MILLIS = 2000;
+        private static final int REPLY_TIMEOUT_MILLIS = 10000;
+        /*  indirizzi host:porta dei nodi, nell'ordine di clusterNodes   */
+        final List<String> nodes;
+        /*  indice di questo nodo, -1 per il router   */
+        final int self;
+        final HashRing ring;
+        private final String key;
+
+        Cluster(List<String> nodes, int self, int virtualNodes, String key) {
+            if (key.isEmpty())
+                throw new IllegalArgumentException("la modalità cluster richiede clusterKey");
+            if (self >= nodes.size())
+                throw new IllegalArgumentException("nodo " + self + " non presente in clusterNodes");
+            this.nodes = List.copyOf(nodes);
+            this.self = self;
+            this.ring = new HashRing(nodes, virtualNodes);
+            this.key = key;
+        }
+
+        boolean isCoordinator() {
+            return self == 0;
+        }
+
+        String owner(String username) {
+            return nodes.get(ring.owner(username));
+        }
+
+        boolean owns(String username) {
+            return ring.owner(username) == self;
+        }
+
+        /*  confronto a tempo costante, per non rivelare la chiave dai tempi di risposta   */
+        boolean authorized(String candidate) {
+            return MessageDigest.isEqual(key.getBytes(StandardCharsets.UTF_8), candidate.getBytes(StandardCharsets.UTF_8));
+        }
+
+        /*
+         *   nuova connessione al nodo, con timeout di connessione e di risposta
+         */
+        static Socket connect(String node) throws IOException {
+            Socket socket = new Socket();
             try {
-                updateUsers();
+                socket.connect(new InetSocketAddress(node.substring(0, node.lastIndexOf(':')), port(node)), CONNECT_TIMEOUT_MILLIS);
+                socket.setSoTimeout(REPLY_TIMEOUT_MILLIS);
             } catch (IOException e) {
-                throw new RuntimeException(e);
+                socket.close();
+                throw e;
             }
-            System.out.println("La nuova parola estratta e': " + secretWord);
+            return socket;
         }
-    }
 
+        static int port(String node) {
+            return Integer.parseInt(node.substring(node.lastIndexOf(':') + 1));
+        }
 
-    /*
-     *   ricerca binaria della parola all'interno del vocabolario
-     */
-    public static Boolean checkVocabulary(String word) throws IOException {
-        try (final RandomAccessFile words = new RandomAccessFile("words.txt", "r")) {
-            long start = 0;
-            long end = words.length();
-            String wordRidden;
-            while (start <= end) {
-                long mid = ((start + end) / 2);
-                mid = mid - mid % 11;
-                words.seek(mid);
-                wordRidden = words.readLine();
-                //System.out.println(wordRidden);
-                if (wordRidden.compareTo(word) == 0)
-                    return true;
-                else if (wordRidden.compareTo(word) < 0)
-                    start = mid + 10;
-                else
-                    end = mid - 10;
+        /*
+         *   comando interno su una connessione dedicata, restituisce la risposta; la connessione viene chiusa senza
+         *   EXIT, che farebbe inviare STOP ai client in ascolto delle condivisioni
+         */
+        String request(int node, String operation) throws IOException {
+            try (Socket socket = connect(nodes.get(node))) {
+                BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
+                PrintWriter out = new PrintWriter(new OutputStreamWriter(socket.getOutputStream()), true);
+                out.println(msgType.CLUSTER + " " + key + " " + operation);
+                String reply = in.readLine();
+                if (reply == null)
+                    throw new EOFException("il nodo " + nodes.get(node) + " ha chiuso la connessione");
+                return reply;
             }
-            return false;
         }
-    }
 
-    /*
-     *   metodo utilizzato per l'invio dei messaggi UDP ai client che fanno parte del gruppo di Broadcast
-     */
-    private static synchronized void sendUDPMessage(String message, String ipAddress, int port) throws IOException {
-        DatagramSocket socket = new DatagramSocket();
-        InetAddress group = InetAddress.getByName(ipAddress);
-        byte[] msg = message.getBytes();
-        DatagramPacket packet = new DatagramPacket(msg, msg.length, group, port);
-        socket.send(packet);
-        socket.close();
-    }
+        /*
+         *   invio della nuova parola a tutti gli altri nodi, in background per non rallentare la rotazione;
+         *   un nodo non raggiungibile la riceverà dalla sua prossima sincronizzazione (ClusterSync)
+         */
+        void publish(SecretWord word) {
+            Thread publisher = new Thread(() -> {
+                for (int node = 0; node < nodes.size(); node++) {
+                    if (node == self)
+                        continue;
+                    try {
+                        request(node, "ROTATE " + word.epoch + " " + word.word);
+                    } catch (IOException e) {
+                        logger.log("Nodo " + nodes.get(node) + " non raggiungibile per la nuova parola: " + e.getMessage());
+                    }
+                }
+            }, "cluster-publish");
+            publisher.setDaemon(true);
+            publisher.start();
+        }
 
-    /*
-     *      metodo utilizzato per aggiornare i dati degli utenti presenti del file JSON per renderlo sempre consistente
-     */
-    private static synchronized void updateUsers() throws IOException {
-        /*  aggiornamento dei dati utente nel file JSON mediante Gson */
-        JsonWriter jsonWriter = new JsonWriter(new FileWriter(usersFile, false));
-        jsonWriter.setIndent("  ");
-        gson.toJson(users, hm_type, jsonWriter);
-        jsonWriter.flush();
-        jsonWriter.close();
-    }
+        /*
+         *   parola attuale del coordinatore
+         */
+        SecretWord fetchWord() throws IOException {
+            String[] reply = request(0, "WORD").split(" ");
+            if (!reply[0].equals(msgType.OK.toString()) || reply.length != 3)
+                throw new IOException("risposta non valida dal coordinatore: " + String.join(" ", reply));
+            return parseWord(reply[1], reply[2]);
+        }
 
-    /*
-     *   metodo utilizzato per vedere eseguire il login
-     */
-    private static int login(String username, String password){
-        if(users.containsKey(username)){ //username exists
-            if(users.get(username).password.equals(password)) {
-                /* se la password è corretta  */
-                return 1;
+        static SecretWord parseWord(String epoch, String word) throws IOException {
+            if (word.length() != Vocabulary.WORD_LENGTH || !word.chars().allMatch(c -> c >= 'a' && c <= 'z'))
+                throw new IOException("parola non valida: " + word);
+            try {
+                return new SecretWord(word, Long.parseLong(epoch));
+            } catch (NumberFormatException e) {
+                throw new IOException("epoca non valida: " + epoch);
             }
-            else /* nel caso di password errata */
-                return -1;
         }
-        else    /*  nel caso in cui l'username non sia registrato   */
-            return 0;
     }
 
     /*
-     *   metodo utilizzato per eseguire la registrazione degli utenti
+     *   adozione di una parola ricevuta dal coordinatore: le rotazioni arrivate fuori ordine (epoca non più
+     *   recente di quella attuale) vengono ignorate
      */
-    private static int register(String username, String password) throws IOException {
-        /*  se l'utente non è già registrato non è presente nel file JSON (e quindi nella ConcurrentHashMap)    */
-        if(!users.containsKey(username)){
-            users.put(username, new User(username, password));
-            updateUsers();
-            return 1;
-        }
-        else    /*  nel caso in cui l'username esista già   */
-            return 0;
+    private static synchronized boolean installSecretWord(SecretWord word) {
+        SecretWord current = secretWord;
+        if (current != null && word.epoch <= current.epoch)
+            return false;
+        secretWord = word;
+        logger.log("La nuova parola ricevuta dal coordinatore e': " + word.word);
+        return true;
     }
 
     /*
-     *   Struttura dati contenente i dati di uno User all'interno della HashMap e del file JSON
+     *   sincronizzazione periodica della parola dei nodi diversi dal coordinatore, nel caso in cui un invio
+     *   del coordinatore sia andato perso
      */
-    private static class User {
-        public String username;
-        public String password;
-        public int matchPlayed;
-        public int matchWon;
-        public int lastStreak;
-        public int streakRecord;
-        public boolean lastMatchWon;
-        public int remainingTrials;
-        public HashMap<Integer, Integer> guessDistribution;
-        public boolean hasWonToday;
-        public ArrayList<String> wordSuggestions;
-
-        public User(String username, String password) {
-            this.username = username;
-            this.password = password;
-            this.matchPlayed = 0;
-            this.matchWon = 0;
-            this.lastStreak = 0;
-            this.streakRecord = 0;
-            this.lastMatchWon = false;
-            this.remainingTrials = 12;
-            this.hasWonToday = false;
-            this.guessDistribution = new HashMap<>();
-            this.wordSuggestions = new ArrayList<>();
-            for (int i=1;i<13;i++){
-                this.guessDistribution.put(i,0);
+    public static class ClusterSync implements Runnable {
+        @Override
+        public void run() {
+            try {
+                installSecretWord(cluster.fetchWord());
+            } catch (IOException e) {
+                logger.log("Coordinatore non raggiungibile: " + e.getMessage());
             }
         }
     }
 
     /*
-     *   Classe Runnable utilizzata per gestire ciascun client connesso al server
+     *   Router del cluster (java ServerMain router [config]): i client si collegano alla porta port come a un
+     *   server singolo e il router inoltra ogni riga al nodo giusto, una riga di risposta per ogni comando:
+     *   -LOGIN apre la connessione della sessione verso il nodo proprietario dell'utente; i comandi successivi
+     *    (PLAYWORDLE, SENDWORD, SHARE, ...) seguono la stessa connessione
+     *   -REGISTER di un utente di un altro nodo usa una connessione dedicata, senza spostare la sessione
+     *   -prima del login i comandi vanno al coordinatore; HELLO viene ripetuto su ogni nuova connessione, così la
+     *    versione del protocollo (e gli identificativi "#<id>") restano quelli negoziati dal client
+     *   -il comando interno CLUSTER non viene mai inoltrato
+     *   RANKING e STATS riguardano il nodo della sessione, cioè solo gli utenti di quel nodo.
      */
-    public static class ClientHandler implements Runnable {
-        private userState clientUserState;
-        /*  lettura bufferizzata dei dati provenienti dal client    */
+    public static class ClusterRouter implements Runnable {
+        private final Socket socket;
         private final BufferedReader in;
-        /*  scrittura formattata dei dati sullo stream di uscita    */
         private final PrintWriter out;
-        /*  player mantiene il riferimento allo User che sta attualmente giocando la partita (prima del login è null)   */
-        private User player;
-        Socket socket;
-        public ClientHandler(Socket socket) throws IOException {
+        /*  connessione verso il nodo della sessione (null prima del primo comando) e indice del nodo */
+        private Socket node;
+        private BufferedReader nodeIn;
+        private PrintWriter nodeOut;
+        private int nodeIndex = -1;
+        /*  ultima riga HELLO del client, ripetuta sulle nuove connessioni   */
+        private String hello;
+        private boolean loggedIn;
+
+        ClusterRouter(Socket socket) throws IOException {
             this.socket = socket;
-            this.player = null;
-            this.in = new BufferedReader(new InputStreamReader(this.socket.getInputStream()));
-            this.out = new PrintWriter(this.socket.getOutputStream(), true);
+            this.in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
+            this.out = new PrintWriter(new BufferedWriter(new OutputStreamWriter(socket.getOutputStream())), false);
+            if (idleTimeoutSeconds > 0)
+                socket.setSoTimeout(idleTimeoutSeconds * 1000);
         }
+
         @Override
         public void run() {
-            String msg;
-            String[] msgToken;
-            String guessedWord;
-            String [] guessedSplit;
-            String [] secretWordSplit;
-            StringBuilder stringCompared;
             try {
-                while (this.clientUserState!=userState.INTERRUPTED) {
-                    msg = this.in.readLine();
-                    msgToken = msg.split(" ");
-                    //msgToken[0] --> operazione
-                    //msgToken [n] --> parametri
-                    /*  controllo di msgType per vedere il tipo di richiesta effettuata dall'utente */
-                    switch (msgType.valueOf(msgToken[0])) {
-                        case LOGIN:
-                            /*  se player!=null allora è già stato eseguito il login    */
-                            if (player != null)
-                                this.out.println(msgType.NOTOK + " Hai già eseguito il login");
-                            else {
-                                switch (login(msgToken[1], msgToken[2])) {
-                                    case 0:
-                                        this.out.println(msgType.NOTOK + " questo username non esiste!");
-                                        break;
-                                    case 1:
-                                        this.out.println(msgType.OK +" login eseguito con successo, benvenuto!");
-                                        /*  se il login è stato eseguito con successo l'utente passa allo stato di LOGGED   */
-                                        this.clientUserState = userState.LOGGED;
-                                        /*  se l'utente ha eseguito il login correttamente mantengo un suo riferimento in player*/
-                                        player = users.get(msgToken[1]);
-                                        System.out.println(player.username + " ha effettuato il login.");
-                                        break;
-                                    case -1:
-                                        this.out.println(msgType.NOTOK + " password errata!");
-                                        break;
-                                    default:
-                                        break;
-                                }
-                            }
-                            break;
-                        case REGISTER:
-                            switch (register(msgToken[1], msgToken[2])) {
-                                case 0:
-                                    this.out.println(msgType.NOTOK + " questo username esiste già.");
-                                    break;
-                                case 1:
-                                    System.out.println(msgToken[1] + " registrato.");
-                                    this.out.println(msgType.OK + " utente registrato con successo!");
-                                    break;
-                                default:
-                                    break;
-                            }
-                            break;
-                        case LOGOUT:
-                            if(player!=null) {
-                                System.out.println(player.username + " ha effettuato il logout.");
-                                player = null;
-                                out.println(msgType.OK + " utente disconnesso.");
-                            }
-                            else
-                                out.println(msgType.NOTOK +" non hai eseguito il login.");
-                            break;
-                        case PLAYWORDLE:
-                            if(player!=null) {
-                                if(player.remainingTrials == 0){
-                                    out.println(msgType.NOTOK + " hai finito i tentativi.");
-                                }
-                                if(player.hasWonToday){
-                                    out.println(msgType.NOTOK + " hai già vinto la partita di oggi!");
-                                }
-                                else {
-                                    /*  se l'utente porta a termine la richiesta di giocare passa allo stato d'INGAME*/
-                                    System.out.println(player.username + " ha accesso alla partita.");
-                                    clientUserState = userState.INGAME;
-                                    out.println(msgType.OK + " puoi giocare. Hai ancora " + this.player.remainingTrials + " tentativi.");
-                                }
-                            }
-                            else
-                                out.println(msgType.NOTOK + " non hai eseguito il login.");
-                            break;
-                        case SENDWORD:
-                            /*  controllo se il giocatore è entrato in partita  */
-                            if (clientUserState == userState.INGAME){
-                                guessedWord = msgToken[1];
-                                /*Se il giocatore ha indovinato la parola ha vinto e aggiorno le sue statistiche   */
-                                if(guessedWord.equals(secretWord)) {
-                                    /*  al primo tentativo corretto di SENDWORD incremento il numero di partite giocate */
-                                    if(player.remainingTrials == 12)
-                                        player.matchPlayed++;
-                                    out.println(msgType.OK + " hai vinto!");
-                                    System.out.println(player.username + " ha vinto la partita.");
-                                    player.wordSuggestions.add("++++++++++");
-                                    player.guessDistribution.put(12 - player.remainingTrials + 1,player.guessDistribution.get(12 - player.remainingTrials + 1) +1);
-                                    player.remainingTrials--;
-                                    player.matchWon++;
-                                    player.hasWonToday = true;
-                                    player.lastMatchWon = true;
-                                    player.lastStreak++;
-                                    if (player.lastStreak > player.streakRecord)
-                                        player.streakRecord = player.lastStreak;
-                                    clientUserState = userState.LOGGED;
-                                }
-                                /*  controllo se la GuessedWord è nel vocabolario, in quel caso conteggio il tentativo  */
-                                else if (checkVocabulary(guessedWord)){
-                                    /*  al primo tentativo corretto di SENDWORD incremento il numero di partite giocate */
-                                    if(player.remainingTrials == 12)
-                                        player.matchPlayed++;
-                                    player.remainingTrials--;
-                                    stringCompared = new StringBuilder();
-                                    guessedSplit = guessedWord.split("");
-                                    secretWordSplit = secretWord.split("");
-                                    /*  costruzione del suggerimento da inviare all'utente  */
-                                    for (int i=0; i<10;i++){
-                                        if (secretWordSplit[i].equals(guessedSplit[i]))
-                                            stringCompared.append("+");
-                                        else if (secretWord.contains(guessedSplit[i]))
-                                            stringCompared.append("?");
-                                        else
-                                            stringCompared.append("x");
-                                    }
-                                    player.wordSuggestions.add(stringCompared.toString());
-                                    /*  controllo dei tentativi rimanenti   */
-                                    if (player.remainingTrials >0) {
-                                        /*  se il giocatore non ha ancora esaurito i tentativi  */
-                                        out.println(msgType.OK + " " + stringCompared + ": hai a disposizione " + player.remainingTrials + " tentativi.");
-                                    }
-                                    else{
-                                        /*  se il giocatore ha esaurito i tentativi e ha parso la partita giornaliera   */
-                                        clientUserState = userState.LOGGED;
-                                        player.lastStreak = 0;
-                                        player.lastMatchWon = false;
-                                        out.println(msgType.OK + " " + stringCompared + ": hai finito i tentativi per oggi!");
-                                    }
-                                    /*Al termine aggiorno i dati dell'utente per renderli consistenti nel file users.json   */
-                                    updateUsers();
-                                }
-                                else
-                                    /*  se la parola non è nel vocabolario lo notifico al giocatore */
-                                    out.println(msgType.NOTOK + " la tua guessed word non è nel vocabolario");
-                            }
-                            else
-                                /*  se il giocatore non è in partita non può giocare    */
-                                out.println(msgType.NOTOK + " non puoi giocare");
-                            break;
-                        case SENDSTATS:
-                            /* controllo se l'utente ha eseguito il login */
-                            if(player != null) {
-                                /*  creazione di un messaggio con le statistiche dell'utente che ne fa richiesta    */
-                                float winRate = (float) player.matchWon / player.matchPlayed;
-                                StringBuilder playerStats = new StringBuilder();
-                                playerStats.append(player.matchPlayed);
-                                playerStats.append(" ").append(winRate);
-                                playerStats.append(" ").append(player.lastStreak);
-                                playerStats.append(" ").append(player.streakRecord);
-                                for (int i=1;i<13;i++)
-                                    playerStats.append(" ").append(player.guessDistribution.get(i));
-                                out.println(msgType.OK + " " + playerStats);
-                            }
-                            else
-                                out.println(msgType.NOTOK + " non hai eseguito il login.");
-                            break;
-                        case SHARE:
-                            /*  controllo se l'utente ha eseguito il login  */
-                            if(player==null)
-                                out.println(msgType.NOTOK + " devi eseguire il login.");
-                                /*  se il giocatore ha ancora 12 tentativi a disposizione non ha niente da condividere  */
-                            else if(player.remainingTrials == 12)
-                                out.println(msgType.NOTOK + " non hai ancora niente da condividere.");
-                                /*  condivisione dei propri risultati agli altri giocatori  */
-                            else {
-                                StringBuilder wordSuggestions = new StringBuilder();
-                                for (String e : player.wordSuggestions) {
-                                    wordSuggestions.append(" ").append(e);
-                                }
-                                sendUDPMessage(player.username + wordSuggestions, udpAddress, udpPort);
-                                out.println(msgType.OK + " i tuoi risultati sono stati condivisi.");
-                            }
-                            break;
-                        case EXIT:
-                            /*  invio del messaggio di terminazione */
-                            sendUDPMessage("STOP",udpAddress,udpPort);
-                            this.clientUserState = userState.INTERRUPTED;
-                            out.println(msgType.OK + " arrivederci!");
-                            break;
-                        default:
-                            break;
-                    }
+                String line;
+                boolean exit = false;
+                while (!exit && (line = in.readLine()) != null) {
+                    String[] tokens = line.split(" ");
+                    /*  identificativo della richiesta (protocollo 2), ripetuto in testa alla risposta  */
+                    int c = tokens[0].startsWith("#") && tokens.length > 1 ? 1 : 0;
+                    String requestId = c == 1 ? tokens[0] + " " : "";
+                    String command = tokens[c];
+                    exit = command.equals(msgType.EXIT.toString());
+                    out.println(requestId + route(line.substring(requestId.length()), command, tokens.length > c + 1 ? tokens[c + 1] : null, requestId));
+                    if (!in.ready())
+                        out.flush();
                 }
             } catch (IOException e) {
-                throw new RuntimeException(e);
+                /*  client disconnesso o inattivo: la connessione verso il nodo viene chiusa senza EXIT */
+            } finally {
+                out.flush();
+                closeNode();
+                sessionPermits.release();
+                try {
+                    socket.close();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        }
+
+        /*
+         *   risposta al comando (senza l'identificativo della richiesta)
+         */
+        private String route(String line, String command, String username, String requestId) {
+            if (command.equals(msgType.CLUSTER.toString()))
+                return msgType.NOTOK + " comando non valido.";
+            int target = nodeIndex < 0 ? 0 : nodeIndex;
+            if (username != null && command.equals(msgType.REGISTER.toString()) && cluster.ring.owner(username) != target)
+                return register(cluster.ring.owner(username), line);
+            /*  da loggato LOGIN resta sul nodo della sessione, che risponde "Hai già eseguito il login"   */
+            if (username != null && command.equals(msgType.LOGIN.toString()) && !loggedIn)
+                target = cluster.ring.owner(username);
+            try {
+                if (target != nodeIndex)
+                    openNode(target);
+                if (command.equals(msgType.HELLO.toString()))
+                    hello = line;
+                nodeOut.println(requestId + line);
+                String reply = nodeIn.readLine();
+                if (reply == null)
+                    throw new EOFException();
+                reply = reply.substring(Math.min(requestId.length(), reply.length()));
+                boolean ok = reply.startsWith(msgType.OK.toString());
+                if (command.equals(msgType.LOGIN.toString()) && ok)
+                    loggedIn = true;
+                else if (command.equals(msgType.LOGOUT.toString()) && ok)
+                    loggedIn = false;
+                return reply;
+            } catch (IOException e) {
+                /*  la sessione sul nodo è persa (login compreso): il prossimo comando apre una nuova connessione  */
+                closeNode();
+                return msgType.NOTOK + " nodo del cluster non raggiungibile, riprova più tardi.";
+            }
+        }
+
+        /*
+         *   registrazione su un altro nodo, con una connessione dedicata
+         */
+        private String register(int target, String line) {
+            try (Socket socket = Cluster.connect(cluster.nodes.get(target))) {
+                BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
+                PrintWriter out = new PrintWriter(new OutputStreamWriter(socket.getOutputStream()), true);
+                out.println(line);
+                String reply = in.readLine();
+                if (reply == null)
+                    throw new EOFException();
+                return reply;
+            } catch (IOException e) {
+                return msgType.NOTOK + " nodo del cluster non raggiungibile, riprova più tardi.";
+            }
+        }
+
+        private void openNode(int target) throws IOException {
+            closeNode();
+            node = Cluster.connect(cluster.nodes.get(target));
+            nodeIndex = target;
+            nodeIn = new BufferedReader(new InputStreamReader(node.getInputStream()));
+            nodeOut = new PrintWriter(new OutputStreamWriter(node.getOutputStream()), true);
+            if (hello != null) {
+                nodeOut.println(hello);
+                if (nodeIn.readLine() == null)
+                    throw new EOFException();
+            }
+        }
+
+        private void closeNode() {
+            loggedIn = false;
+            nodeIndex = -1;
+            if (node != null) {
+                try {
+                    node.close();
+                } catch (IOException e) {
+                    /*  connessione già chiusa dal nodo  */
+                }
+                node = null;
+            }
+        }
+    }
+
+    /*
+     *   avvio del router del cluster sulla porta port
+     */
+    private static void serveRouter() throws IOException {
+        cluster = new Cluster(clusterNodes, -1, clusterVirtualNodes, clusterKey);
+        sessionPermits = new Semaphore(maxSessions);
+        try (ServerSocket acceptSocket = new ServerSocket(port, acceptBacklog)) {
+            ExecutorService service = serverMode.equals("virtual") ? newVirtualThreadExecutor() : Executors.newCachedThreadPool();
+            System.out.println("Router del cluster sulla porta " + port + " per i nodi " + cluster.nodes);
+            while (true) {
+                Socket socket = acceptSocket.accept();
+                if (admit(socket)) {
+                    try {
+                        service.execute(new ClusterRouter(socket));
+                    } catch (IOException e) {
+                        sessionPermits.release();
+                        socket.close();
+                    }
+                }
+            }
+        }
+    }
+
+    /*
+     *   configurazione del nodo index del cluster: la porta è quella indicata in clusterNodes e i file dei dati
+     *   (se relativi) stanno in clusterDataDir/node<index>, così più nodi possono girare nella stessa cartella
+     */
+    private static void configureNode(int index) {
+        cluster = new Cluster(clusterNodes, index, clusterVirtualNodes, clusterKey);
+        port = Cluster.port(cluster.nodes.get(index));
+        new File(clusterDataDir, "node" + index).mkdirs();
+        usersFile = nodeFile(index, usersFile);
+        journalFile = nodeFile(index, journalFile);
+        wordScheduleFile = nodeFile(index, wordScheduleFile);
+        if (!historyDir.isEmpty())
+            historyDir = nodeFile(index, historyDir);
+    }
+
+    private static String nodeFile(int index, String file) {
+        if (new File(file).isAbsolute())
+            return file;
+        return new File(new File(clusterDataDir, "node" + index), file).getPath();
+    }
+
+    /*
+     *   strumento per il passaggio al cluster: suddivisione di usersFile tra gli archivi dei nodi
+     */
+    private static void partitionUsers() throws IOException {
+        cluster = new Cluster(clusterNodes, -1, clusterVirtualNodes, clusterKey);
+        users = readUsers(new File(usersFile), usersFormat);
+        ConcurrentHashMap<String,User> all = users;
+        for (int index = 0; index < clusterNodes.size(); index++) {
+            new File(clusterDataDir, "node" + index).mkdirs();
+            String target = nodeFile(index, usersFile);
+            users = new ConcurrentHashMap<>();
+            for (Map.Entry<String,User> entry : all.entrySet())
+                if (cluster.ring.owner(entry.getKey()) == index)
+                    users.put(entry.getKey(), entry.getValue());
+            try (FileOutputStream output = new FileOutputStream(target)) {
+                writeUsers(output, usersFormat);
             }
+            System.out.println(users.size() + " utenti in " + target);
         }
     }
+
     /*
      *   metodo utilizzato all'avvio del server per leggere le properties
      */
-    public static void readConfig() throws IOException {
-        InputStream input = new FileInputStream("server.properties");
+    public static void readConfig(String configFile) throws IOException {
+        InputStream input = new FileInputStream(configFile);
         Properties prop = new Properties();
         prop.load(input);
         port = Integer.parseInt(prop.getProperty("port"));
         udpPort = Integer.parseInt(prop.getProperty("udpPort"));
-        udpAddress = prop.getProperty("udpAddress");
+        udpAddress = prop.getProperty("udpAddress").trim();
+        shareQueueCapacity = Integer.parseInt(prop.getProperty("shareQueueCapacity", "10000").trim());
+        shareFlushMillis = Long.parseLong(prop.getProperty("shareFlushMillis", "5").trim());
+        /*  1024 byte: il buffer di ricezione dei client meno recenti, che troncherebbero datagram più grandi   */
+        shareMaxDatagram = Integer.parseInt(prop.getProperty("shareMaxDatagram", "1024").trim());
         usersFile = prop.getProperty("usersFile");
+        usersFormat = prop.getProperty("usersFormat", "json").trim();
+        usersLoading = prop.getProperty("usersLoading", "eager").trim();
+        userCacheSize = Integer.parseInt(prop.getProperty("userCacheSize", "100000").trim());
+        statsEnabled = Boolean.parseBoolean(prop.getProperty("statsEnabled", "false").trim());
+        statsKey = prop.getProperty("statsKey", "").trim();
+        assistEnabled = Boolean.parseBoolean(prop.getProperty("assistEnabled", "false").trim());
+        assistSample = Integer.parseInt(prop.getProperty("assistSample", "1024").trim());
+        assistCacheSize = Integer.parseInt(prop.getProperty("assistCacheSize", "1024").trim());
+        wordsFile = prop.getProperty("wordsFile", "words.txt").trim();
+        vocabularyMode = prop.getProperty("vocabularyMode", "packed").trim();
+        wordScheduleFile = prop.getProperty("wordScheduleFile", "words.schedule").trim();
+        wordScheduleSeed = prop.getProperty("wordScheduleSeed", "").trim();
+        wordSchedulePrefetch = Integer.parseInt(prop.getProperty("wordSchedulePrefetch", "7").trim());
+        persistenceMode = prop.getProperty("persistenceMode", "json").trim();
+        journalFile = prop.getProperty("journalFile", "users.journal").trim();
+        journalCompactBytes = Long.parseLong(prop.getProperty("journalCompactBytes", "16777216").trim());
+        journalCompactMinutes = Integer.parseInt(prop.getProperty("journalCompactMinutes", "60").trim());
+        snapshotIntervalMillis = Long.parseLong(prop.getProperty("snapshotIntervalMillis", "1000").trim());
+        vocabularyReloadMinutes = Integer.parseInt(prop.getProperty("vocabularyReloadMinutes", "1").trim());
+        serverMode = prop.getProperty("serverMode", "threads").trim();
+        ioThreads = Integer.parseInt(prop.getProperty("ioThreads", "2").trim());
+        workerThreads = Integer.parseInt(prop.getProperty("workerThreads", "16").trim());
+        workerQueue = Integer.parseInt(prop.getProperty("workerQueue", "10000").trim());
+        connectionPendingLines = Integer.parseInt(prop.getProperty("connectionPendingLines", "256").trim());
+        connectionOutgoingBytes = Integer.parseInt(prop.getProperty("connectionOutgoingBytes", "262144").trim());
+        maxSessions = Integer.parseInt(prop.getProperty("maxSessions", "10000").trim());
+        acceptBacklog = Integer.parseInt(prop.getProperty("acceptBacklog", "1024").trim());
+        idleTimeoutSeconds = Integer.parseInt(prop.getProperty("idleTimeoutSeconds", "600").trim());
+        sendwordRate = Double.parseDouble(prop.getProperty("sendwordRate", "10").trim());
+        sendwordBurst = Integer.parseInt(prop.getProperty("sendwordBurst", "12").trim());
+        shareRate = Double.parseDouble(prop.getProperty("shareRate", "1").trim());
+        shareBurst = Integer.parseInt(prop.getProperty("shareBurst", "5").trim());
+        queryRate = Double.parseDouble(prop.getProperty("queryRate", "20").trim());
+        queryBurst = Integer.parseInt(prop.getProperty("queryBurst", "40").trim());
+        assistRate = Double.parseDouble(prop.getProperty("assistRate", "1").trim());
+        assistBurst = Integer.parseInt(prop.getProperty("assistBurst", "3").trim());
+        clusterNodes = new ArrayList<>();
+        for (String node : prop.getProperty("clusterNodes", "").split(","))
+            if (!node.isBlank())
+                clusterNodes.add(node.trim());
+        clusterNode = Integer.parseInt(prop.getProperty("clusterNode", "-1").trim());
+        clusterVirtualNodes = Integer.parseInt(prop.getProperty("clusterVirtualNodes", "128").trim());
+        clusterKey = prop.getProperty("clusterKey", "").trim();
+        clusterDataDir = prop.getProperty("clusterDataDir", "cluster").trim();
+        clusterSyncSeconds = Integer.parseInt(prop.getProperty("clusterSyncSeconds", "60").trim());
+        historyDir = prop.getProperty("historyDir", "history").trim();
+        historySegmentBytes = Long.parseLong(prop.getProperty("historySegmentBytes", "4194304").trim());
+        historyQueue = Integer.parseInt(prop.getProperty("historyQueue", "10000").trim());
         input.close();
     }
-    public static void main(String[] args) throws IOException {
-        /*  lettura delle properties del server per il corretto funzionamento   */
-        readConfig();
-        /*  apertura ServerSocket per accettare nuove richieste sulla porta port    */
-        try(ServerSocket acceptSocket = new ServerSocket(port)) {
-            try {
-                getUsers();
-            } catch (IOException e) {
-                throw new RuntimeException();
-            }
-            /* creazione thread per eseguire operazioni di routine  */
-            ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
-            Runnable task = new WordExtractor();
-            int initialDelay = 0;
-            int periodicDelay = (int) Duration.ofDays(1).toMinutes();
-            scheduler.scheduleAtFixedRate(task, initialDelay, periodicDelay, TimeUnit.MINUTES);
 
-            /*  creazione ThreadPool per creare thread di gestione client ClientHandler    */
-            ExecutorService service = Executors.newCachedThreadPool();
+    /*
+     *   creazione dell'executor per i virtual thread: il metodo esiste solo da Java 21, per questo viene
+     *   cercato a runtime e, se assente, si ritorna al ThreadPool di thread di piattaforma
+     */
+    private static ExecutorService newVirtualThreadExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            System.out.println("Virtual thread non disponibili in questa JVM, utilizzo il ThreadPool standard.");
+            return Executors.newCachedThreadPool();
+        }
+    }
+
+    /*
+     *   modello originale: un ClientHandler su un thread del pool (o su un virtual thread) per ciascuna connessione
+     */
+    private static void serveThreads() throws IOException {
+        /*  apertura ServerSocket per accettare nuove richieste sulla porta port    */
+        try(ServerSocket acceptSocket = new ServerSocket(port, acceptBacklog)) {
+            /*  creazione ThreadPool per creare thread di gestione client ClientHandler: i thread del pool sono al
+                più maxSessions, perché le connessioni oltre il limite vengono rifiutate da admit()    */
+            ExecutorService service = serverMode.equals("virtual") ? newVirtualThreadExecutor() : Executors.newCachedThreadPool();
             /*  ShutDownHook per gestire la terminazione di ExecutorService alla pressione di CTRL+C    */
             Runtime.getRuntime().addShutdownHook(new Thread(() -> {
-                /*  salvataggio dei dati degli utenti nel file JSON */
-                try {
-                    updateUsers();
-                } catch (IOException e) {
-                    throw new RuntimeException(e);
-                }
                 /*  ExecutorService smette di eseguire nuovi tasks  */
                 service.shutdown();
                 try {
@@ -458,12 +5670,29 @@ public class ServerMain {
                 } catch (InterruptedException e) {
                     throw new RuntimeException(e);
                 }
+                broadcaster.close();
+                if (history != null)
+                    history.close();
+                /*  salvataggio dei dati degli utenti */
+                try {
+                    persistence.close();
+                } catch (IOException e) {
+                    throw new RuntimeException(e);
+                }
+                logger.close();
             }));
             while (true) {
                 Socket socket;
                 try {
                     socket = acceptSocket.accept();
-                    service.execute(new ClientHandler(socket));
+                    if (admit(socket)) {
+                        try {
+                            service.execute(new ClientHandler(socket));
+                        } catch (IOException e) {
+                            sessionPermits.release();
+                            socket.close();
+                        }
+                    }
                 } catch (SocketException e) {
                     e.printStackTrace();
                     break;
@@ -471,4 +5700,175 @@ public class ServerMain {
             }
         }
     }
-}
+
+    /*
+     *   modello event-driven: pochi thread di I/O e un pool limitato di worker per i comandi
+     */
+    private static void serveNio() throws IOException {
+        NioServer server = new NioServer(port, ioThreads, workerThreads, workerQueue);
+        metrics.gauge("nio.workerQueue", server::workerQueueDepth);
+        /*  ShutDownHook per salvare gli utenti e fermare selettori e worker alla pressione di CTRL+C    */
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            server.shutdown();
+            broadcaster.close();
+            if (history != null)
+                history.close();
+            try {
+                persistence.close();
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+            logger.close();
+        }));
+        server.serve();
+    }
+
+    /*
+     *   gauge delle componenti create all'avvio: code, utenti e contatori delle componenti asincrone
+     */
+    private static void registerGauges() {
+        metrics.gauge("users.registered", () -> pagedUsers != null ? pagedUsers.size() : users.size());
+        metrics.gauge("users.resident", () -> users.size());
+        metrics.gauge("share.queue", broadcaster::queueDepth);
+        metrics.gauge("share.accepted", broadcaster::accepted);
+        metrics.gauge("share.dropped", broadcaster::dropped);
+        metrics.gauge("share.datagrams", broadcaster::datagrams);
+        metrics.gauge("log.queue", logger::queueDepth);
+        metrics.gauge("log.dropped", logger::dropped);
+        if (persistence instanceof UserJournal)
+            metrics.gauge("journal.queue", ((UserJournal) persistence)::queueDepth);
+        if (persistence instanceof SnapshotWriter)
+            metrics.gauge("snapshot.writesSaved", ((SnapshotWriter) persistence)::writesSaved);
+        if (history != null) {
+            metrics.gauge("history.games", history::games);
+            metrics.gauge("history.queue", history::queueDepth);
+            metrics.gauge("history.dropped", history::dropped);
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        /*  conversione dell'archivio utenti senza avviare il server    */
+        if (args.length == 3 && (args[0].equals("import") || args[0].equals("export"))) {
+            convertUsers(args[0], args[1], args[2]);
+            return;
+        }
+        /*  prossime parole del calendario: schedule [n] [file di configurazione]   */
+        if (args.length >= 1 && args[0].equals("schedule")) {
+            readConfig(args.length > 2 ? args[2] : "server.properties");
+            printSchedule(args.length > 1 ? Integer.parseInt(args[1]) : 10);
+            return;
+        }
+        /*  aggregati dello storico delle partite: history <hardest|distribution|daily> [n] [file di configurazione]  */
+        if (args.length >= 1 && args[0].equals("history")) {
+            readConfig(args.length > 3 ? args[3] : "server.properties");
+            printHistory(args.length > 1 ? args[1] : "hardest", args.length > 2 ? Integer.parseInt(args[2]) : 10);
+            return;
+        }
+        /*  parole compatibili con i tentativi di una partita: solve [<parola>=<suggerimento> ...]   */
+        if (args.length >= 1 && args[0].equals("solve")) {
+            readConfig("server.properties");
+            printSolution(Arrays.asList(args).subList(1, args.length));
+            return;
+        }
+        /*  router del cluster: router [file di configurazione]   */
+        if (args.length >= 1 && args[0].equals("router")) {
+            readConfig(args.length > 1 ? args[1] : "server.properties");
+            serveRouter();
+            return;
+        }
+        /*  suddivisione di usersFile tra i nodi del cluster: partition [file di configurazione]   */
+        if (args.length >= 1 && args[0].equals("partition")) {
+            readConfig(args.length > 1 ? args[1] : "server.properties");
+            partitionUsers();
+            return;
+        }
+        /*  lettura delle properties del server (di default server.properties, oppure il file passato come argomento);
+            un nodo del cluster si avvia con: node <indice> [file di configurazione]    */
+        boolean node = args.length >= 2 && args[0].equals("node");
+        readConfig(node ? (args.length > 2 ? args[2] : "server.properties") : (args.length > 0 ? args[0] : "server.properties"));
+        if (node)
+            clusterNode = Integer.parseInt(args[1]);
+        if (!clusterNodes.isEmpty()) {
+            if (clusterNode < 0)
+                throw new IllegalArgumentException("clusterNodes impostato: avviare un nodo con java ServerMain node <indice> [config]");
+            configureNode(clusterNode);
+            System.out.println("Nodo " + clusterNode + " del cluster sulla porta " + port + (cluster.isCoordinator() ? " (coordinatore)" : ""));
+        }
+        /*  con la persistenza json ogni modifica riscriverebbe l'intero archivio paginato   */
+        if (usersLoading.equals("lazy") && persistenceMode.equals("json"))
+            throw new IllegalArgumentException("usersLoading=lazy richiede persistenceMode snapshot o journal");
+        sessionPermits = new Semaphore(maxSessions);
+        try {
+            getUsers();
+        } catch (IOException e) {
+            throw new RuntimeException();
+        }
+        /*  in modalità journal lo snapshot viene completato con le modifiche registrate dopo di esso */
+        if (persistenceMode.equals("journal")) {
+            UserJournal journal = new UserJournal(journalFile, journalCompactBytes);
+            journal.replay();
+            journal.start();
+            persistence = journal;
+        }
+        else if (persistenceMode.equals("snapshot"))
+            persistence = new SnapshotWriter(snapshotIntervalMillis);
+        else
+            persistence = new JsonPersistence();
+        buildLeaderboards();
+        if (!historyDir.isEmpty())
+            history = GameHistory.open(new File(historyDir), historySegmentBytes, historyQueue);
+        broadcaster = new ShareBroadcaster(udpAddress, udpPort, shareQueueCapacity, shareFlushMillis, shareMaxDatagram);
+        registerGauges();
+        /*  caricamento del vocabolario in memoria prima dell'estrazione della prima parola  */
+        vocabulary = Vocabulary.load(wordsFile, vocabularyMode);
+        /*  indici del risolutore e soluzione senza tentativi (la più costosa) calcolati in background  */
+        if (assistEnabled) {
+            if (vocabulary instanceof MappedVocabulary)
+                System.out.println("ASSIST abilitato con vocabularyMode = mapped: il risolutore occupa circa "
+                        + ((long) vocabulary.size() * Solver.HEAP_PER_WORD >> 20) + " MB di heap.");
+            Thread warmup = new Thread(() -> solver().assist(new long[0], new int[0], 0), "assist-warmup");
+            warmup.setDaemon(true);
+            warmup.start();
+        }
+        /* creazione thread per eseguire operazioni di routine  */
+        ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+        if (cluster != null && !cluster.isCoordinator()) {
+            /*  la parola viene dal coordinatore: il nodo accetta client solo dopo averla ricevuta   */
+            while (secretWord == null) {
+                try {
+                    installSecretWord(cluster.fetchWord());
+                } catch (IOException e) {
+                    System.out.println("In attesa del coordinatore " + cluster.nodes.get(0) + ": " + e.getMessage());
+                    try {
+                        Thread.sleep(1000);
+                    } catch (InterruptedException interrupted) {
+                        throw new InterruptedIOException();
+                    }
+                }
+            }
+            scheduler.scheduleWithFixedDelay(new ClusterSync(), clusterSyncSeconds, clusterSyncSeconds, TimeUnit.SECONDS);
+        }
+        else {
+            wordSchedule = WordSchedule.load(new File(wordScheduleFile), vocabulary, wordScheduleSeed, wordSchedulePrefetch);
+            Runnable task = new WordExtractor();
+            /*  prima estrazione prima di accettare client: nessuna sessione vede secretWord == null   */
+            task.run();
+            int periodicDelay = (int) Duration.ofDays(1).toMinutes();
+            int initialDelay = periodicDelay;
+            scheduler.scheduleAtFixedRate(task, initialDelay, periodicDelay, TimeUnit.MINUTES);
+        }
+        scheduler.scheduleWithFixedDelay(new VocabularyReloader(), vocabularyReloadMinutes, vocabularyReloadMinutes, TimeUnit.MINUTES);
+        if (persistence instanceof UserJournal) {
+            UserJournal journal = (UserJournal) persistence;
+            scheduler.scheduleWithFixedDelay(journal::requestCompaction, journalCompactMinutes, journalCompactMinutes, TimeUnit.MINUTES);
+        }
+        /*  in modalità lazy i residenti vengono ricondotti a userCacheSize anche tra due snapshot  */
+        if (pagedUsers != null)
+            scheduler.scheduleWithFixedDelay(ServerMain::trimUsers, 1, 1, TimeUnit.SECONDS);
+
+        if (serverMode.equals("nio"))
+            serveNio();
+        else
+            serveThreads();
+    }
+}
\ No newline at end of file
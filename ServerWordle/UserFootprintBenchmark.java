@@ -0,0 +1,81 @@
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/*
+ *   Benchmark dell'occupazione di heap degli utenti residenti: crea N utenti sintetici (di default 1M)
+ *   con qualche partita giocata e i suggerimenti del giorno, prima nella rappresentazione compatta di
+ *   ServerMain.User e poi in quella originale (HashMap<Integer,Integer> e ArrayList<String>).
+ *   Utilizzo (dalla cartella ServerWordle, con heap sufficiente):
+ *       java -Xmx4g -cp .:gson-2.10.jar UserFootprintBenchmark [utenti]
+ */
+public class UserFootprintBenchmark {
+    private static final String[] HINTS = {"x?x+xx?xxx", "+?x+?xx?xx", "++x+?x+?x+", "++++++++++"};
+
+    /*  copia della struttura di User precedente alla rappresentazione compatta   */
+    private static class LegacyUser {
+        String username;
+        String password;
+        int matchPlayed;
+        int matchWon;
+        int lastStreak;
+        int streakRecord;
+        boolean lastMatchWon;
+        int remainingTrials;
+        HashMap<Integer, Integer> guessDistribution = new HashMap<>();
+        boolean hasWonToday;
+        ArrayList<String> wordSuggestions = new ArrayList<>();
+
+        LegacyUser(String username, String password) {
+            this.username = username;
+            this.password = password;
+            this.remainingTrials = 12;
+            for (int i = 1; i < 13; i++)
+                this.guessDistribution.put(i, 0);
+        }
+    }
+
+    public static void main(String[] args) {
+        int count = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+        MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+
+        long base = usedHeap(memory);
+        ConcurrentHashMap<String, ServerMain.User> compact = new ConcurrentHashMap<>();
+        for (int i = 0; i < count; i++) {
+            ServerMain.User user = new ServerMain.User("user" + i, "password" + i);
+            user.matchPlayed = i % 50;
+            user.matchWon = i % 30;
+            user.guessDistribution[i % 12] += i % 7;
+            for (int h = 0; h < i % HINTS.length + 1; h++)
+                user.addHint(HINTS[h]);
+            compact.put(user.username, user);
+        }
+        long compactBytes = usedHeap(memory) - base;
+        System.out.printf("User compatto:  %d utenti, %.1f MiB, %.0f byte/utente%n",
+                compact.size(), compactBytes / 1048576.0, (double) compactBytes / count);
+        compact = null;
+
+        base = usedHeap(memory);
+        ConcurrentHashMap<String, LegacyUser> legacy = new ConcurrentHashMap<>();
+        for (int i = 0; i < count; i++) {
+            LegacyUser user = new LegacyUser("user" + i, "password" + i);
+            user.matchPlayed = i % 50;
+            user.matchWon = i % 30;
+            user.guessDistribution.put(i % 12 + 1, user.guessDistribution.get(i % 12 + 1) + i % 7);
+            for (int h = 0; h < i % HINTS.length + 1; h++)
+                user.wordSuggestions.add(new String(HINTS[h]));
+            legacy.put(user.username, user);
+        }
+        long legacyBytes = usedHeap(memory) - base;
+        System.out.printf("User originale: %d utenti, %.1f MiB, %.0f byte/utente%n",
+                legacy.size(), legacyBytes / 1048576.0, (double) legacyBytes / count);
+    }
+
+    private static long usedHeap(MemoryMXBean memory) {
+        for (int i = 0; i < 3; i++)
+            System.gc();
+        return memory.getHeapMemoryUsage().getUsed();
+    }
+}
@@ -0,0 +1,261 @@
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+import java.io.*;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+
+/*
+ *   Stress test della concorrenza sullo stato degli utenti: avvia ServerMain nella stessa JVM con un vocabolario
+ *   di sole 4 parole (così le vittorie sono frequenti) e fa giocare molte sessioni sugli stessi pochi account,
+ *   mentre un thread estrae continuamente nuove parole e la persistenza scrive uno snapshot ogni pochi millisecondi.
+ *   Al termine verifica che non ci siano aggiornamenti persi:
+ *   -per ogni utente le vittorie in guessDistribution (SENDSTATS) sono quelle ricevute dai client ("hai vinto")
+ *   -un utente non vince più di una volta per parola estratta, anche giocando da più sessioni
+ *   -ogni record degli snapshot letti durante la prova è coerente (vittorie, tentativi e suggerimenti)
+ *   Utilizzo (dalla cartella ServerWordle):
+ *       java -cp .:gson-2.10.jar UserStoreStress [sessioni] [utenti] [secondi] [serverMode] [porta]
+ *   Termina con codice 1 se trova violazioni.
+ */
+public class UserStoreStress {
+    private static final String[] WORDS = {"aaaaaaaaaa", "bbbbbbbbbb", "cccccccccc", "dddddddddd"};
+    private static volatile boolean running = true;
+
+    public static void main(String[] args) throws Exception {
+        int sessions = args.length > 0 ? Integer.parseInt(args[0]) : 64;
+        int userCount = args.length > 1 ? Integer.parseInt(args[1]) : 8;
+        int seconds = args.length > 2 ? Integer.parseInt(args[2]) : 10;
+        String mode = args.length > 3 ? args[3] : "threads";
+        int port = args.length > 4 ? Integer.parseInt(args[4]) : 8300;
+
+        /*  configurazione temporanea: vocabolario ridotto, archivio utenti vuoto, snapshot molto frequenti */
+        Path dir = Files.createTempDirectory("wordle-stress");
+        Path words = dir.resolve("words.txt");
+        Path usersFile = dir.resolve("users.json");
+        Files.write(words, (String.join("\n", WORDS) + "\n").getBytes(StandardCharsets.UTF_8));
+        Files.write(usersFile, "{}".getBytes(StandardCharsets.UTF_8));
+        Properties prop = new Properties();
+        try (InputStream input = new FileInputStream("server.properties")) {
+            prop.load(input);
+        }
+        prop.setProperty("port", String.valueOf(port));
+        prop.setProperty("serverMode", mode);
+        prop.setProperty("wordsFile", words.toString());
+        prop.setProperty("usersFile", usersFile.toString());
+        prop.setProperty("wordScheduleFile", dir.resolve("words.schedule").toString());
+        prop.setProperty("historyDir", dir.resolve("history").toString());
+        prop.setProperty("usersFormat", "json");
+        prop.setProperty("persistenceMode", "snapshot");
+        prop.setProperty("snapshotIntervalMillis", "5");
+        /*  la prova invia tentativi il più velocemente possibile: nessun limite di frequenza  */
+        prop.setProperty("sendwordRate", "0");
+        Path config = dir.resolve("server.properties");
+        try (OutputStream output = Files.newOutputStream(config)) {
+            prop.store(output, null);
+        }
+
+        /*  i messaggi del server (login, vittorie, parole estratte) non interessano la prova   */
+        PrintStream report = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+        Thread server = new Thread(() -> {
+            try {
+                ServerMain.main(new String[]{config.toString()});
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        });
+        server.setDaemon(true);
+        server.start();
+        waitForServer(port);
+
+        for (int u = 0; u < userCount; u++)
+            request(port, "REGISTER stress" + u + " pw");
+
+        AtomicIntegerArray wins = new AtomicIntegerArray(userCount);
+        AtomicLong guesses = new AtomicLong();
+        AtomicLong rotations = new AtomicLong();
+        AtomicLong snapshotsChecked = new AtomicLong();
+        List<String> violations = new ArrayList<>();
+
+        List<Thread> players = new ArrayList<>();
+        for (int s = 0; s < sessions; s++) {
+            int user = s % userCount;
+            Thread player = new Thread(() -> play(port, user, wins, guesses, violations), "stress-" + s);
+            players.add(player);
+            player.start();
+        }
+        /*  rotazione continua della parola segreta, concorrente alle partite in corso    */
+        Thread rotator = new Thread(() -> {
+            Runnable extractor = new ServerMain.WordExtractor();
+            while (running) {
+                extractor.run();
+                rotations.incrementAndGet();
+                sleep(20);
+            }
+        });
+        rotator.start();
+        /*  lettura continua degli snapshot scritti dalla persistenza durante le partite */
+        Thread checker = new Thread(() -> {
+            while (running) {
+                checkSnapshot(usersFile, violations);
+                snapshotsChecked.incrementAndGet();
+                sleep(10);
+            }
+        });
+        checker.start();
+
+        Thread.sleep(seconds * 1000L);
+        running = false;
+        for (Thread player : players)
+            player.join();
+        rotator.join();
+        checker.join();
+
+        /*  verifica finale: vittorie registrate dal server contro vittorie viste dai client  */
+        long totalWins = 0;
+        for (int u = 0; u < userCount; u++) {
+            String stats = request(port, "LOGIN stress" + u + " pw", "SENDSTATS");
+            String[] fields = stats.split(" ");
+            int matchPlayed = Integer.parseInt(fields[1]);
+            long recorded = 0;
+            for (int i = 5; i < fields.length; i++)
+                recorded += Integer.parseInt(fields[i]);
+            totalWins += wins.get(u);
+            if (recorded != wins.get(u))
+                addViolation(violations, "stress" + u + ": " + recorded + " vittorie registrate, " + wins.get(u) + " ricevute dai client");
+            if (wins.get(u) > rotations.get() + 1)
+                addViolation(violations, "stress" + u + ": " + wins.get(u) + " vittorie con " + (rotations.get() + 1) + " parole estratte");
+            if (matchPlayed < recorded)
+                addViolation(violations, "stress" + u + ": matchPlayed " + matchPlayed + " minore delle vittorie " + recorded);
+        }
+
+        report.printf("%d sessioni su %d utenti (%s) per %d s: %d tentativi, %d vittorie, %d parole estratte, %d snapshot verificati%n",
+                sessions, userCount, mode, seconds, guesses.get(), totalWins, rotations.get(), snapshotsChecked.get());
+        synchronized (violations) {
+            if (violations.isEmpty()) {
+                report.println("OK: nessun aggiornamento perso e snapshot coerenti");
+                System.exit(0);
+            }
+            report.println("VIOLAZIONI: " + violations.size());
+            violations.stream().limit(20).forEach(v -> report.println("  " + v));
+        }
+        System.exit(1);
+    }
+
+    /*
+     *   una sessione: login sull'utente assegnato e partite con parole casuali del vocabolario ridotto
+     */
+    private static void play(int port, int user, AtomicIntegerArray wins, AtomicLong guesses, List<String> violations) {
+        try (Socket socket = new Socket("localhost", port)) {
+            /*  una risposta mancante o in più desincronizza la sessione: meglio un errore che un'attesa infinita  */
+            socket.setSoTimeout(10_000);
+            BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+            PrintWriter out = new PrintWriter(new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8), true);
+            out.println("LOGIN stress" + user + " pw");
+            in.readLine();
+            while (running) {
+                out.println("PLAYWORDLE");
+                if (!in.readLine().startsWith("OK")) {
+                    /*  partita già conclusa (da questa o da un'altra sessione): si attende la prossima parola  */
+                    sleep(1);
+                    continue;
+                }
+                String reply;
+                do {
+                    out.println("SENDWORD " + WORDS[ThreadLocalRandom.current().nextInt(WORDS.length)]);
+                    reply = in.readLine();
+                    if (reply.startsWith("OK")) {
+                        guesses.incrementAndGet();
+                        if (reply.contains("hai vinto"))
+                            wins.incrementAndGet(user);
+                    }
+                } while (running && reply.startsWith("OK") && reply.contains("hai a disposizione"));
+            }
+            out.println("EXIT");
+            in.readLine();
+        } catch (IOException | NullPointerException e) {
+            addViolation(violations, "sessione su stress" + user + " interrotta: " + e);
+        }
+    }
+
+    /*
+     *   coerenza di ciascun record dello snapshot: vittorie nella distribuzione, tentativi e suggerimenti
+     */
+    private static void checkSnapshot(Path usersFile, List<String> violations) {
+        JsonObject snapshot;
+        try (Reader reader = Files.newBufferedReader(usersFile, StandardCharsets.UTF_8)) {
+            snapshot = JsonParser.parseReader(reader).getAsJsonObject();
+        } catch (Exception e) {
+            addViolation(violations, "snapshot illeggibile: " + e);
+            return;
+        }
+        for (Map.Entry<String, JsonElement> entry : snapshot.entrySet()) {
+            JsonObject user = entry.getValue().getAsJsonObject();
+            int matchWon = user.get("matchWon").getAsInt();
+            int remainingTrials = user.get("remainingTrials").getAsInt();
+            int hints = user.getAsJsonArray("wordSuggestions").size();
+            int distribution = 0;
+            for (Map.Entry<String, JsonElement> trial : user.getAsJsonObject("guessDistribution").entrySet())
+                distribution += trial.getValue().getAsInt();
+            if (distribution != matchWon)
+                addViolation(violations, entry.getKey() + ": snapshot con matchWon " + matchWon + " e distribuzione " + distribution);
+            if (hints != 12 - remainingTrials)
+                addViolation(violations, entry.getKey() + ": snapshot con " + hints + " suggerimenti e " + remainingTrials + " tentativi rimasti");
+        }
+    }
+
+    private static void addViolation(List<String> violations, String violation) {
+        synchronized (violations) {
+            violations.add(violation);
+        }
+    }
+
+    /*
+     *   comandi su una connessione nuova, restituisce l'ultima risposta
+     */
+    private static String request(int port, String... commands) throws IOException {
+        try (Socket socket = new Socket("localhost", port)) {
+            BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+            PrintWriter out = new PrintWriter(new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8), true);
+            String reply = null;
+            for (String command : commands) {
+                out.println(command);
+                reply = in.readLine();
+            }
+            out.println("EXIT");
+            in.readLine();
+            return reply;
+        }
+    }
+
+    private static void waitForServer(int port) throws InterruptedException {
+        for (int i = 0; i < 100; i++) {
+            try (Socket probe = new Socket("localhost", port)) {
+                new PrintWriter(probe.getOutputStream(), true).println("EXIT");
+                new BufferedReader(new InputStreamReader(probe.getInputStream())).readLine();
+                return;
+            } catch (IOException e) {
+                Thread.sleep(50);
+            }
+        }
+        throw new IllegalStateException("il server non ha aperto la porta " + port);
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}